@@ -4,6 +4,8 @@ public enum EmotionPrimitiveID {
 
 	FEAR((byte) 0), HUNGER((byte) 1), TIRED((byte) 2), BOREDOM((byte) 3);
 
+	private static final EmotionPrimitiveID[] VALUES = values();
+
 	private final byte ID;
 
 	public final byte getID() {
@@ -14,4 +16,17 @@ public enum EmotionPrimitiveID {
 		this.ID = ID;
 	}
 
+	/**
+	 * @param ID the ID sent in a message
+	 * @return EmotionPrimitiveID -> the primitive with the ID, or null if there
+	 *         isn't one
+	 */
+	public static EmotionPrimitiveID fromID(byte ID) {
+		for (EmotionPrimitiveID primitive : VALUES)
+			if (primitive.ID == ID)
+				return primitive;
+
+		return null;
+	}
+
 }
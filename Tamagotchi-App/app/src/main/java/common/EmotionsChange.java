@@ -0,0 +1,92 @@
+package common;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * What a committed transaction changed and the values it left, taken under the
+ * lock so that the callbacks see this commit's values rather than those of a
+ * commit made since.
+ *
+ * @author Danny
+ * @version 1.0
+ * @see common.EmotionsInterface#onEmotionsChanged(EmotionsChange)
+ */
+public final class EmotionsChange {
+
+	private final long sequence;
+	private final Set<EmotionPrimitiveID> changed;
+
+	/**
+	 * Indexed by EmotionPrimitiveID ordinal
+	 */
+	private final float[] primitives;
+	private final float happiness;
+	private final float courage;
+	private final float curiosity;
+
+	EmotionsChange(long sequence, EnumSet<EmotionPrimitiveID> changed, float[] primitives, float happiness,
+			float courage, float curiosity) {
+		this.sequence = sequence;
+		this.changed = Collections.unmodifiableSet(changed);
+		this.primitives = primitives;
+		this.happiness = happiness;
+		this.courage = courage;
+		this.curiosity = curiosity;
+	}
+
+	/**
+	 * Changes from transactions committed at once on different threads can be
+	 * called back in either order, a change with a lower sequence number than
+	 * one already seen is older than it
+	 * 
+	 * @return long -> the order the transaction was committed in, from 1
+	 * @since 1.0
+	 */
+	public long getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * @return Set -> the primitives that the transaction changed
+	 * @since 1.0
+	 */
+	public Set<EmotionPrimitiveID> getChanged() {
+		return this.changed;
+	}
+
+	/**
+	 * @param field the primitive to get
+	 * @return float -> the value of the primitive once the transaction committed
+	 * @since 1.0
+	 */
+	public float get(EmotionPrimitiveID field) {
+		return this.primitives[field.ordinal()];
+	}
+
+	/**
+	 * @return float -> happiness once the transaction committed
+	 * @since 1.0
+	 */
+	public float getHappiness() {
+		return this.happiness;
+	}
+
+	/**
+	 * @return float -> courage once the transaction committed
+	 * @since 1.0
+	 */
+	public float getCourage() {
+		return this.courage;
+	}
+
+	/**
+	 * @return float -> curiosity once the transaction committed
+	 * @since 1.0
+	 */
+	public float getCuriosity() {
+		return this.curiosity;
+	}
+
+}
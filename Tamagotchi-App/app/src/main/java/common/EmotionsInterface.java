@@ -1,20 +1,32 @@
 package common;
 
+import java.util.EnumSet;
+
 /**
  * This is the parent class to emotions so that both the app and lejos have the
- * same class definition
+ * same class definition. The setters may be called from several threads at
+ * once, the values are updated under a lock and each primitive's on change
+ * method is called outside of it, so a slow listener for one primitive does
+ * not hold up the others. The setters call the aggregate stats' on change
+ * methods under the lock so that they arrive in order. Several primitives can
+ * be set with one calculation of the aggregate stats in a transaction, see
+ * begin. A transaction's callbacks, the aggregate stats' included, are made
+ * outside the lock with the values it committed, so those of transactions
+ * committed at once on different threads can arrive in either order. A
+ * listener that must only keep the newest values can drop the older ones by
+ * their sequence number, see EmotionsChange#getSequence.
  * 
  * @author Danny
- * @version 1.1
+ * @version 1.4
  */
 public abstract class EmotionsInterface {
 
-	private float boredom;
+	private volatile float boredom;
 	/**
 	 * Aggregate stats
 	 */
-	private float courage;
-	private float curiosity;
+	private volatile float courage;
+	private volatile float curiosity;
 
 	/**
 	 * Primitive stats All the float attributes, range between 1 and 0 (0 being
@@ -23,10 +35,15 @@ public abstract class EmotionsInterface {
 	 * 
 	 * @since 1.1
 	 */
-	private float fear;
-	private float happiness;
-	private float hunger;
-	private float tired;
+	private volatile float fear;
+	private volatile float happiness;
+	private volatile float hunger;
+	private volatile float tired;
+
+	/**
+	 * The number of transactions that have changed a primitive, guarded by this
+	 */
+	private long commitCount;
 
 	/**
 	 * Sets every value to 0.5f, apart from hunger which is determined on battery
@@ -88,6 +105,24 @@ public abstract class EmotionsInterface {
 		return this.happiness;
 	}
 
+	/**
+	 * @param field the primitive to get
+	 * @return float -> the value of the primitive
+	 * @since 1.4
+	 */
+	public float get(EmotionPrimitiveID field) {
+		switch (field) {
+		case FEAR:
+			return this.fear;
+		case HUNGER:
+			return this.hunger;
+		case TIRED:
+			return this.tired;
+		default:
+			return this.boredom;
+		}
+	}
+
 	/**
 	 * @return float hunger. a value betwen -1 and 1 inclusive that represents how
 	 *         tired the robot is
@@ -163,16 +198,54 @@ public abstract class EmotionsInterface {
 	public abstract void onTiredSet(float newTired);
 
 	/**
-	 * @param boredem sets the bordem value (should be between -1 and 1)
+	 * Called once by each committed transaction that changed a primitive, outside
+	 * of the lock. The change holds the values the transaction left, the getters
+	 * may already return those of a later one, and a later transaction on
+	 * another thread may be called back first. By default this calls the on
+	 * change method of each changed primitive and then those of the aggregate
+	 * stats. Override to react to the whole change in one go instead.
+	 * 
+	 * @param change the primitives that the transaction changed and the values
+	 *               it left
+	 * @since 1.4
+	 */
+	public void onEmotionsChanged(EmotionsChange change) {
+		for (EmotionPrimitiveID field : change.getChanged()) {
+			float value = change.get(field);
+
+			switch (field) {
+			case FEAR:
+				this.onFearSet(value);
+				break;
+			case HUNGER:
+				this.onHungerSet(value);
+				break;
+			case TIRED:
+				this.onTiredSet(value);
+				break;
+			case BOREDOM:
+				this.onBordemSet(value);
+				break;
+			}
+		}
+
+		this.onHappinessSet(change.getHappiness());
+		this.onCourageSet(change.getCourage());
+		this.onCuriositySet(change.getCuriosity());
+	}
+
+	/**
+	 * @param boredem sets the bordem value, clamped to between 0 and 1
 	 * @since 1.0
 	 */
 	public void setBoredem(float boredem) {
-		this.boredom = boredem;
-		if (this.boredom < 0)
-			this.boredom = 0;
-		if (this.boredom > 1)
-			this.boredom = 1;
-		this.onBordemSet(this.boredom);
+		float value;
+		synchronized (this) {
+			this.boredom = clamp(boredem);
+			value = this.boredom;
+		}
+
+		this.onBordemSet(value);
 		updateAll();
 	}
 
@@ -181,8 +254,8 @@ public abstract class EmotionsInterface {
 	 * 
 	 * @since 1.0
 	 */
-	public void setCourage() {
-		this.courage = (this.happiness + this.fear) / 2;
+	public synchronized void setCourage() {
+		this.calculateCourage();
 		onCourageSet(this.courage);
 	}
 
@@ -191,22 +264,23 @@ public abstract class EmotionsInterface {
 	 * 
 	 * @since 1.0
 	 */
-	public void setCuriosity() {
-		this.curiosity = (this.boredom + (1 - this.tired) + this.courage) / 3;
+	public synchronized void setCuriosity() {
+		this.calculateCuriosity();
 		this.onCuriositySet(this.curiosity);
 	}
 
 	/**
-	 * @param fear, sets the tired value (should be between -1 and 1)
+	 * @param fear, sets the fear value, clamped to between 0 and 1
 	 * @since 1.0
 	 */
 	public void setFear(float newFear) {
-		this.fear = newFear;
-		if (this.fear < 0)
-			this.fear = 0;
-		if (this.fear > 1)
-			this.fear = 1;
-		this.onFearSet(this.fear);
+		float value;
+		synchronized (this) {
+			this.fear = clamp(newFear);
+			value = this.fear;
+		}
+
+		this.onFearSet(value);
 		updateAll();
 	}
 
@@ -216,45 +290,194 @@ public abstract class EmotionsInterface {
 	 * 
 	 * @since 1.0
 	 */
-	public void setHappiness() {
-		this.happiness = (this.hunger + this.boredom + this.tired) / 3;
+	public synchronized void setHappiness() {
+		this.calculateHappiness();
 		onHappinessSet(this.happiness);
 	}
 
 	/**
-	 * @param hunger, sets the hunger value (should be between -1 and 1)
+	 * @param hunger, sets the hunger value, clamped to between 0 and 1
 	 * @since 1.0
 	 */
 	public void setHunger(float hunger) {
-		this.hunger = hunger;
-		if (this.hunger < 0)
-			this.hunger = 0;
-		if (this.hunger > 1)
-			this.hunger = 1;
-		this.onHungerSet(this.hunger);
+		float value;
+		synchronized (this) {
+			this.hunger = clamp(hunger);
+			value = this.hunger;
+		}
+
+		this.onHungerSet(value);
 		updateAll();
 	}
 
 	/**
-	 * @param tired, sets the tired value (should be between -1 and 1)
+	 * Sets every primitive stat at once in one transaction, so the aggregate
+	 * stats are calculated once rather than after each primitive
+	 * 
+	 * @param fear    the new fear value
+	 * @param hunger  the new hunger value
+	 * @param tired   the new tired value
+	 * @param boredom the new boredom value
+	 * @since 1.2
+	 */
+	public void setAll(float fear, float hunger, float tired, float boredom) {
+		this.begin().set(EmotionPrimitiveID.FEAR, fear).set(EmotionPrimitiveID.HUNGER, hunger)
+				.set(EmotionPrimitiveID.TIRED, tired).set(EmotionPrimitiveID.BOREDOM, boredom).commit();
+	}
+
+	/**
+	 * Starts a transaction, the primitives set in it are changed together when it
+	 * is committed. The aggregate stats are then calculated once and
+	 * onEmotionsChanged is called once with the primitives that changed, so four
+	 * primitives cost three aggregate callbacks rather than twelve. Nothing is
+	 * called back if no value changed.
+	 * 
+	 * @return EmotionsTransaction -> an empty transaction on this object
+	 * @since 1.4
+	 */
+	public EmotionsTransaction begin() {
+		return new EmotionsTransaction(this);
+	}
+
+	/**
+	 * Sets the staged primitives and calculates the aggregate stats, called by
+	 * EmotionsTransaction.commit
+	 * 
+	 * @param values the new values, indexed by EmotionPrimitiveID ordinal
+	 * @param staged the ordinals to set, as bits
+	 * @return boolean -> true if any primitive changed
+	 * @since 1.4
+	 */
+	boolean apply(float[] values, int staged) {
+		EnumSet<EmotionPrimitiveID> changed = EnumSet.noneOf(EmotionPrimitiveID.class);
+		EmotionsChange change;
+
+		synchronized (this) {
+			for (EmotionPrimitiveID field : EmotionPrimitiveID.values()) {
+				if ((staged & 1 << field.ordinal()) == 0)
+					continue;
+
+				float value = clamp(values[field.ordinal()]);
+				if (value != this.get(field)) {
+					this.store(field, value);
+					changed.add(field);
+				}
+			}
+
+			if (changed.isEmpty())
+				return false;
+
+			this.calculateHappiness();
+			this.calculateCourage();
+			this.calculateCuriosity();
+
+			float[] primitives = new float[values.length];
+			for (EmotionPrimitiveID field : EmotionPrimitiveID.values())
+				primitives[field.ordinal()] = this.get(field);
+
+			change = new EmotionsChange(++this.commitCount, changed, primitives, this.happiness, this.courage,
+					this.curiosity);
+		}
+
+		this.onEmotionsChanged(change);
+		return true;
+	}
+
+	/**
+	 * Sets the primitive stat with the ID
+	 * 
+	 * @param field the primitive to set
+	 * @param value the new value
+	 * @since 1.3
+	 */
+	public void set(EmotionPrimitiveID field, float value) {
+		switch (field) {
+		case FEAR:
+			this.setFear(value);
+			break;
+		case HUNGER:
+			this.setHunger(value);
+			break;
+		case TIRED:
+			this.setTired(value);
+			break;
+		case BOREDOM:
+			this.setBoredem(value);
+			break;
+		}
+	}
+	/**
+	 * @param tired, sets the tired value, clamped to between 0 and 1
 	 * @since 1.0
 	 */
 	public void setTired(float tired) {
-		this.tired = tired;
-		if (this.tired < 0)
-			this.tired = 0;
-		if (this.tired > 1)
-			this.tired = 1;
-		this.onTiredSet(this.tired);
+		float value;
+		synchronized (this) {
+			this.tired = clamp(tired);
+			value = this.tired;
+		}
+
+		this.onTiredSet(value);
 		updateAll();
 	}
 
+	/**
+	 * Sets a primitive without calling back, must hold the lock
+	 */
+	private void store(EmotionPrimitiveID field, float value) {
+		switch (field) {
+		case FEAR:
+			this.fear = value;
+			break;
+		case HUNGER:
+			this.hunger = value;
+			break;
+		case TIRED:
+			this.tired = value;
+			break;
+		case BOREDOM:
+			this.boredom = value;
+			break;
+		}
+	}
+
+	/**
+	 * The aggregate stats without calling back, must hold the lock. Courage uses
+	 * happiness and curiosity uses courage, so they are calculated in that order.
+	 */
+	private void calculateHappiness() {
+		this.happiness = (this.hunger + this.boredom + this.tired) / 3;
+	}
+
+	private void calculateCourage() {
+		this.courage = (this.happiness + this.fear) / 2;
+	}
+
+	private void calculateCuriosity() {
+		this.curiosity = (this.boredom + (1 - this.tired) + this.courage) / 3;
+	}
+
+	/**
+	 * The primitives have always been limited to between 0 and 1 when set, the
+	 * getters' "-1 and 1" is only how far the aggregate stats could range
+	 * 
+	 * @return the value limited to between 0 and 1
+	 * @since 1.2
+	 */
+	private static float clamp(float value) {
+		if (value < 0)
+			return 0;
+		if (value > 1)
+			return 1;
+		return value;
+	}
+
 	/**
 	 * This will update the non-primitive stats
 	 * 
 	 * @since 1.1
 	 */
-	private void updateAll() {
+	private synchronized void updateAll() {
 		this.setHappiness();
 		this.setCourage();
 		this.setCuriosity();
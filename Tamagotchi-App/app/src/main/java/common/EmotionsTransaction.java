@@ -0,0 +1,62 @@
+package common;
+
+/**
+ * Primitive changes that are applied to an EmotionsInterface together by
+ * commit, so that the aggregate stats are only calculated once. A transaction
+ * is built by one thread, the changes are not seen by anyone until commit.
+ *
+ * @author Danny
+ * @version 1.0
+ * @see common.EmotionsInterface#begin()
+ */
+public final class EmotionsTransaction {
+
+	private final EmotionsInterface emotions;
+
+	/**
+	 * Indexed by EmotionPrimitiveID ordinal, a set bit in staged means the value
+	 * is to be set
+	 */
+	private final float[] values = new float[EmotionPrimitiveID.values().length];
+	private int staged;
+	private boolean committed;
+
+	EmotionsTransaction(EmotionsInterface emotions) {
+		this.emotions = emotions;
+	}
+
+	/**
+	 * Stages a new value, a later value for the same primitive replaces it
+	 *
+	 * @param field the primitive to set
+	 * @param value the new value
+	 * @return EmotionsTransaction -> this, so that calls can be chained
+	 * @throws IllegalStateException if the transaction has been committed
+	 * @since 1.0
+	 */
+	public EmotionsTransaction set(EmotionPrimitiveID field, float value) {
+		if (this.committed)
+			throw new IllegalStateException("The transaction has already been committed.");
+
+		this.values[field.ordinal()] = value;
+		this.staged |= 1 << field.ordinal();
+		return this;
+	}
+
+	/**
+	 * Applies every staged value at once, see EmotionsInterface#onEmotionsChanged
+	 * for the callbacks this makes
+	 *
+	 * @return boolean -> true if any primitive changed
+	 * @throws IllegalStateException if the transaction has been committed
+	 * @since 1.0
+	 */
+	public boolean commit() {
+		if (this.committed)
+			throw new IllegalStateException("The transaction has already been committed.");
+
+		this.committed = true;
+		return this.emotions.apply(this.values, this.staged);
+	}
+
+}
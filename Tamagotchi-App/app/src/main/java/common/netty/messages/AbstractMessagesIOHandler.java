@@ -0,0 +1,1493 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import common.EmotionPrimitiveID;
+import common.EmotionsInterface;
+
+/**
+ * The protocol shared by every transport: dispatching the messages read to the
+ * on change methods, sendAsync and its writer thread, the HELLO handshake,
+ * reliable delivery and the metrics. A subclass moves the frames,
+ * MessagesIOHandler over a pair of streams and ChannelMessagesIOHandler over a
+ * non-blocking SocketChannel, so only what every transport supports is here.
+ * This was split out of MessagesIOHandler 1.2, the older @since tags are its.
+ * 
+ * @author Danny
+ * @version 1.3
+ * @see common.netty.messages.MessagesIOHandler
+ * @see common.netty.messages.ChannelMessagesIOHandler
+ */
+public abstract class AbstractMessagesIOHandler {
+
+	protected EmotionsInterface emotionsInterface;
+
+	/**
+	 * The protocol version sent in a HELLO, robots that never send one are
+	 * version 1
+	 */
+	public static final int PROTOCOL_VERSION = 2;
+
+	/**
+	 * The window of the reliable delivery that a HELLO exchange turns on
+	 */
+	public static final int DEFAULT_RELIABLE_WINDOW = 32;
+
+	private volatile FramingMode inboundFraming = FramingMode.LEGACY;
+	private volatile FramingMode outboundFraming = FramingMode.LEGACY;
+
+	/**
+	 * Guards the transport's output and the framing it is written with, so that
+	 * sending does not hold the handler's monitor
+	 */
+	final Object writeLock = new Object();
+
+	/**
+	 * Counts the links the transport has been given, changed under the write lock
+	 */
+	private volatile int linkGeneration;
+
+	/**
+	 * Indexed by type nibble, so that dispatch is an array lookup
+	 */
+	private final MessageHandler[] messageHandlers = new MessageHandler[MessageType.TYPE_COUNT];
+
+	/**
+	 * Messages sent with sendAsync wait here for the writer thread
+	 */
+	private static final int WRITER_BATCH_SIZE = 32;
+	private OutboundMessageQueue outboundQueue = new OutboundMessageQueue();
+	private Thread writerThread;
+	private boolean shutdown;
+
+	/**
+	 * Round trip times measured by the latency prober
+	 */
+	private final LatencyHistogram roundTripTimes = new LatencyHistogram();
+	private volatile long lastPongAt;
+	private volatile boolean proberActive;
+
+	/**
+	 * Per type counts of the frames read and written
+	 */
+	private final TrafficMetrics trafficMetrics = new TrafficMetrics();
+
+	/**
+	 * Captures every frame read and written when set
+	 */
+	private volatile FrameRecorder frameRecorder;
+
+	/**
+	 * Runs the on change methods off the reading thread when set, null runs them
+	 * on the reading thread
+	 */
+	private volatile KeyedSerialExecutor callbackExecutor;
+
+	/**
+	 * Sends latest-value messages as datagrams when set
+	 */
+	private volatile DatagramTelemetry datagramTelemetry;
+
+	/**
+	 * Held while a frame is dispatched, the reading thread and the telemetry's
+	 * receive thread both dispatch
+	 */
+	private final Object dispatchLock = new Object();
+
+	/**
+	 * The frame being dispatched, only used under the dispatch lock
+	 */
+	private long dispatchReadAt;
+	private int dispatchTypeNibble;
+	private boolean dispatchDeferred;
+
+	/**
+	 * Sequences the messages sent with sendAsync once reliable delivery is
+	 * enabled, sequenced messages from the peer are always tracked. Set under the
+	 * write lock.
+	 */
+	private volatile ReliableSession reliableSession;
+	private final SequenceTracker sequenceTracker = new SequenceTracker();
+
+	/**
+	 * A session that a HELLO turned on only holds for peers that agree to it, so
+	 * on a new link it is held, nothing resent or sequenced, until the new peer's
+	 * HELLO agrees to it again. Changed under the write lock.
+	 */
+	private boolean sessionNegotiated;
+	private volatile boolean sessionHeld;
+	private long linkChangedAt;
+
+	/**
+	 * How long a held session waits for the new peer's HELLO before it is
+	 * dropped, older robots never send one
+	 */
+	private static final long PEER_HELLO_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * The HELLO exchange of the current link, the framing set with setFramingMode
+	 * is used again once the link changes
+	 */
+	private volatile FramingMode baseFraming = FramingMode.LEGACY;
+	private volatile int localCapabilities = Capability.toMask(EnumSet.allOf(Capability.class));
+	private volatile boolean helloSent;
+	private volatile int peerProtocolVersion;
+	private volatile int peerCapabilities;
+
+	/**
+	 * @param emotionsInterface Changes to emotions will call the on change methods
+	 *                          in the interface
+	 * @since 1.3
+	 */
+	AbstractMessagesIOHandler(EmotionsInterface emotionsInterface) {
+		this.registerDefaultHandlers();
+		this.emotionsInterface = emotionsInterface;
+	}
+
+	/**
+	 * Called by the transport when it has been given a new link, with the write
+	 * lock held so that nothing is written to the link before this. The new peer
+	 * may be an older robot, so nothing it hasn't agreed to is used.
+	 * 
+	 * @since 1.3
+	 */
+	final void onLinkChanged() {
+		this.peerProtocolVersion = 0;
+		this.peerCapabilities = 0;
+		this.inboundFraming = this.baseFraming;
+		this.outboundFraming = this.baseFraming;
+		this.helloSent = false;
+
+		// Wakes the writer thread if it is waiting for the link to come back
+		this.linkGeneration++;
+		this.writeLock.notifyAll();
+
+		if (this.reliableSession != null && this.sessionNegotiated) {
+			// The new peer may not understand SEQUENCED, its HELLO says if it does
+			this.sessionHeld = true;
+			this.linkChangedAt = System.nanoTime();
+			return;
+		}
+
+		// Before the writer can send anything newer
+		this.resendUnacknowledged();
+	}
+
+	/**
+	 * Dispatches a frame read from the link. A peer that sends HELLO sends it
+	 * first, so any other first frame means a held session is not agreed to.
+	 * 
+	 * @param frame the message, from position to limit
+	 * @since 1.3
+	 */
+	final void dispatchLinkFrame(ByteBuffer frame) {
+		if (this.sessionHeld && frame.hasRemaining()
+				&& (frame.get(frame.position()) & Message.NIBBLE_BIT_MASK) != MessageType.HELLO.getTypeNibble())
+			this.settleSession(false);
+
+		this.dispatch(frame);
+	}
+
+	/**
+	 * @return int -> the number of links the transport has been given, so that a
+	 *         failure can be matched to the link it happened on
+	 * @since 1.3
+	 */
+	final int getLinkGeneration() {
+		return this.linkGeneration;
+	}
+
+	/**
+	 * Sets how frames are written and read. Both ends of the link must use the
+	 * same mode, so this should be set before the link carries any traffic. A
+	 * HELLO exchange may switch to a faster mode, this one is used again on the
+	 * next link.
+	 * 
+	 * @param mode the framing for both directions
+	 * @since 1.1
+	 */
+	public void setFramingMode(FramingMode mode) {
+		if (mode == null)
+			throw new NullPointerException("Error: null mode");
+
+		synchronized (this.writeLock) {
+			this.baseFraming = mode;
+			this.inboundFraming = mode;
+			this.outboundFraming = mode;
+		}
+	}
+
+	/**
+	 * @return FramingMode -> the framing that frames are read with
+	 * @since 1.1
+	 */
+	public FramingMode getInboundFramingMode() {
+		return this.inboundFraming;
+	}
+
+	/**
+	 * @return FramingMode -> the framing that frames are written with
+	 * @since 1.1
+	 */
+	public FramingMode getOutboundFramingMode() {
+		return this.outboundFraming;
+	}
+
+	/**
+	 * Starts reading the link if it isn't already
+	 * 
+	 * @since 1.0
+	 */
+	public abstract void startPollingThread();
+
+	/**
+	 * Stops reading the link if it is being read
+	 * 
+	 * @since 1.0
+	 */
+	public abstract void stopPollingThread();
+
+	/**
+	 * @return boolean of whether the link is being read
+	 * @since 1.0
+	 */
+	public abstract boolean isRunning();
+
+	/**
+	 * Decodes one frame and calls the on change methods, or hands them to the
+	 * callback executor. Runs on the thread that read the frame, which is the
+	 * polling thread or the datagram telemetry's thread.
+	 * 
+	 * @param frame the message, from position to limit
+	 * @since 1.1
+	 */
+	final void dispatch(ByteBuffer frame) {
+		if (!frame.hasRemaining())
+			return;
+
+		// The decoders are reused, so the stream and the datagrams take turns
+		synchronized (this.dispatchLock) {
+			FrameRecorder recorder = this.frameRecorder;
+			if (recorder != null) {
+				try {
+					recorder.record(FrameDirection.INBOUND, frame);
+				} catch (IOException e) {
+					this.stopRecording(recorder);
+				}
+			}
+
+			this.dispatchMessage(frame);
+		}
+	}
+
+	/**
+	 * Counts the message and passes it to the handler for its type, also used for
+	 * the message inside a SEQUENCED envelope
+	 * 
+	 * @param frame the message, from position to limit
+	 * @since 1.2
+	 */
+	private void dispatchMessage(ByteBuffer frame) {
+		final long readAt = System.nanoTime();
+		final int typeNibble = frame.get(frame.position()) & Message.NIBBLE_BIT_MASK;
+		this.trafficMetrics.recordInbound(typeNibble, frame.remaining());
+
+		MessageHandler handler = this.messageHandlers[typeNibble];
+		if (handler == null) {
+			this.trafficMetrics.recordDecodeError(typeNibble);
+			System.out.println("ERROR: Bad message type not found, type nibble " + typeNibble + ".");
+			return;
+		}
+
+		this.dispatchReadAt = readAt;
+		this.dispatchTypeNibble = typeNibble;
+		this.dispatchDeferred = false;
+
+		try {
+			handler.onMessage(frame);
+		} catch (IOException e) {
+			this.trafficMetrics.recordDecodeError(typeNibble);
+			System.out.println("ERROR: Message failed to decode, type nibble " + typeNibble + ".");
+			e.printStackTrace();
+			return;
+		}
+
+		// Deferred callbacks record the time once they have run
+		if (!this.dispatchDeferred)
+			this.trafficMetrics.recordDispatch(typeNibble, System.nanoTime() - readAt);
+	}
+
+	/**
+	 * Calls back on the callback executor, or straight away if there isn't one.
+	 * Handlers decode on the reading thread and call this to react, so that a slow
+	 * listener never holds up reading.
+	 * 
+	 * @param key      callbacks with equal keys are called in order, one at a time
+	 * @param callback calls the on change methods
+	 * @since 1.2
+	 */
+	protected final void runCallback(Object key, final Runnable callback) {
+		KeyedSerialExecutor executor = this.callbackExecutor;
+		if (executor == null) {
+			callback.run();
+			return;
+		}
+
+		// The first callback of a frame records how long the frame took
+		final boolean recordDispatch = !this.dispatchDeferred;
+		final long readAt = this.dispatchReadAt;
+		final int typeNibble = this.dispatchTypeNibble;
+		this.dispatchDeferred = true;
+
+		try {
+			executor.execute(key, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						callback.run();
+					} finally {
+						if (recordDispatch)
+							trafficMetrics.recordDispatch(typeNibble, System.nanoTime() - readAt);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The executor has been shut down, so fall back to this thread
+			this.dispatchDeferred = !recordDispatch;
+			callback.run();
+		}
+	}
+
+	/**
+	 * Calls the on change methods on the executor instead of the reading thread,
+	 * so that slow listeners (UI work, a GATT connection) never stop the socket
+	 * being read. Emotion updates and snapshots share one key so that they stay in
+	 * order with each other, every other callback stays in order for its message
+	 * type, different keys may run at the same time. Control messages such as PING are still handled
+	 * on the reading thread.
+	 * 
+	 * @param executor runs the callbacks, usually a thread pool, or null to call
+	 *                 back on the reading thread
+	 * @since 1.2
+	 */
+	public void setCallbackExecutor(Executor executor) {
+		this.callbackExecutor = executor == null ? null : new KeyedSerialExecutor(executor);
+	}
+
+	/**
+	 * @return Executor -> the executor the callbacks run on, or null if they run
+	 *         on the reading thread
+	 * @since 1.2
+	 */
+	public Executor getCallbackExecutor() {
+		KeyedSerialExecutor executor = this.callbackExecutor;
+		return executor == null ? null : executor.getExecutor();
+	}
+
+	/**
+	 * Sets the handler that decodes and reacts to a message type, replacing the
+	 * current one. This is how new message types are added without changing this
+	 * class.
+	 * 
+	 * @param type    the message type to handle
+	 * @param handler the handler, or null to ignore the type
+	 * @since 1.2
+	 */
+	public final void registerHandler(MessageType type, MessageHandler handler) {
+		this.messageHandlers[type.getTypeNibble() & Message.NIBBLE_BIT_MASK] = handler;
+	}
+
+	/**
+	 * Registers the handlers for the built in message types, each keeps one decoder
+	 * that it reuses for every message
+	 * 
+	 * @since 1.2
+	 */
+	private void registerDefaultHandlers() {
+		this.registerHandler(MessageType.FIELD_CHANGE, new MessageHandler() {
+			private final EmotionUpdateMessage decoder = new EmotionUpdateMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				this.decoder.decodeFrom(message);
+				final EmotionPrimitiveID field = this.decoder.getFieldID();
+				final float value = this.decoder.getNewValue();
+
+				runCallback(MessageType.FIELD_CHANGE, new Runnable() {
+					@Override
+					public void run() {
+						// A transaction, so the on change methods are given the values it set
+						emotionsInterface.begin().set(field, value).commit();
+					}
+				});
+			}
+		});
+
+		this.registerHandler(MessageType.EMOTION_SNAPSHOT, new MessageHandler() {
+			private final EmotionSnapshotMessage decoder = new EmotionSnapshotMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				this.decoder.decodeFrom(message);
+				final float fear = this.decoder.get(EmotionPrimitiveID.FEAR);
+				final float hunger = this.decoder.get(EmotionPrimitiveID.HUNGER);
+				final float tired = this.decoder.get(EmotionPrimitiveID.TIRED);
+				final float boredom = this.decoder.get(EmotionPrimitiveID.BOREDOM);
+
+				// Under the same key as FIELD_CHANGE so it is ordered behind earlier
+				// updates, one transaction for every primitive so the aggregates are
+				// only updated once
+				runCallback(MessageType.FIELD_CHANGE, new Runnable() {
+					@Override
+					public void run() {
+						emotionsInterface.begin().set(EmotionPrimitiveID.FEAR, fear)
+								.set(EmotionPrimitiveID.HUNGER, hunger).set(EmotionPrimitiveID.TIRED, tired)
+								.set(EmotionPrimitiveID.BOREDOM, boredom).commit();
+					}
+				});
+			}
+		});
+
+		MessageHandler notifyUserHandler = new MessageHandler() {
+			private final NotifyUserMessage decoder = new NotifyUserMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				// A new object as the implementation may keep the notification
+				final UserNotification notif = new UserNotification("", "");
+
+				this.decoder.decodeFrom(message, notif);
+
+				// Both encodings share a key so notifications stay in order
+				runCallback(MessageType.NOTIFY_USER, new Runnable() {
+					@Override
+					public void run() {
+						onNotification(notif);
+					}
+				});
+			}
+		};
+
+		// One decoder for both encodings, so the UTF-8 string pool is shared
+		this.registerHandler(MessageType.NOTIFY_USER, notifyUserHandler);
+		this.registerHandler(MessageType.NOTIFY_USER_UTF8, notifyUserHandler);
+
+		this.registerHandler(MessageType.SIGNAL_STRENGTH_RESP, new MessageHandler() {
+			private final SignalStrengthMessage decoder = new SignalStrengthMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				final double strength = this.decoder.decodeFrom(message);
+
+				runCallback(MessageType.SIGNAL_STRENGTH_RESP, new Runnable() {
+					@Override
+					public void run() {
+						onSignalStrength(strength);
+					}
+				});
+			}
+		});
+
+		this.registerHandler(MessageType.SIGNAL_STRENGTH_REQ, new MessageHandler() {
+			@Override
+			public void onMessage(ByteBuffer message) {
+				runCallback(MessageType.SIGNAL_STRENGTH_REQ, new Runnable() {
+					@Override
+					public void run() {
+						onSignalStrengthReq();
+					}
+				});
+			}
+		});
+
+		this.registerHandler(MessageType.DEAD_ROBOT, new MessageHandler() {
+			@Override
+			public void onMessage(ByteBuffer message) {
+				runCallback(MessageType.DEAD_ROBOT, new Runnable() {
+					@Override
+					public void run() {
+						onDeathMessage();
+					}
+				});
+			}
+		});
+
+		this.registerHandler(MessageType.PING, new MessageHandler() {
+			private final PingMessage decoder = new PingMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				// Handled here rather than on the callback executor so that the round
+				// trip time doesn't include the time spent waiting for a callback thread
+				this.decoder.decodeFrom(message);
+
+				if (this.decoder.isPong()) {
+					long now = System.nanoTime();
+					roundTripTimes.record(now - this.decoder.getTimestamp());
+					lastPongAt = now;
+				} else {
+					try {
+						// Straight to the link like an ack, a pong waiting in the queue would
+						// add to the round trip and could block this thread
+						sendMessage(new PingMessage(true, this.decoder.getTimestamp()));
+					} catch (IOException e) {
+						// Already reported, the peer counts it as a lost pong
+					}
+				}
+			}
+		});
+
+		this.registerHandler(MessageType.ACK, new MessageHandler() {
+			private final AckMessage decoder = new AckMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				this.decoder.decodeFrom(message);
+
+				ReliableSession session = reliableSession;
+				if (session != null)
+					session.onAck(this.decoder.getEpoch(), this.decoder.getSequence());
+			}
+		});
+
+		this.registerHandler(MessageType.SEQUENCED, new MessageHandler() {
+			private final SequencedMessage decoder = new SequencedMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				this.decoder.decodeFrom(message);
+
+				// Resends of messages already acted on are dropped here
+				if (sequenceTracker.accept(this.decoder.getEpoch(), this.decoder.getSequence()))
+					dispatchMessage(message);
+			}
+		});
+
+		this.registerHandler(MessageType.HELLO, new MessageHandler() {
+			private final HelloMessage decoder = new HelloMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				// Handled here so that the next frame is read with the framing it names
+				this.decoder.decodeFrom(message);
+				onHello(this.decoder);
+			}
+		});
+
+		this.registerHandler(MessageType.CUBE_STATE_UPDATE, new MessageHandler() {
+			private final RubiksCubeMessage decoder = new RubiksCubeMessage();
+
+			@Override
+			public void onMessage(ByteBuffer message) throws IOException {
+				this.decoder.decodeFrom(message);
+				final int rotationCode = this.decoder.getRotationCode();
+				final int movesToSolve = this.decoder.getMovesToSolve();
+
+				runCallback(MessageType.CUBE_STATE_UPDATE, new Runnable() {
+					@Override
+					public void run() {
+						onCubeStateUpdate(rotationCode, movesToSolve);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Switches to the framing that the peer's HELLO says it now writes with and
+	 * answers with this end's HELLO, switching this end's framing to the fastest
+	 * both support. An end that has already sent the framing it wants does not
+	 * answer again, so the exchange ends after at most three HELLOs even if both
+	 * ends start it. Runs on the reading thread.
+	 * 
+	 * @param hello the peer's HELLO
+	 * @since 1.2
+	 */
+	private void onHello(HelloMessage hello) {
+		this.inboundFraming = hello.getNextFraming();
+		this.peerProtocolVersion = hello.getProtocolVersion();
+		this.peerCapabilities = hello.getCapabilities();
+
+		int agreed = this.localCapabilities & hello.getCapabilities();
+		boolean reliable = (agreed & Capability.RELIABLE_DELIVERY.getMask()) != 0;
+
+		if (reliable) {
+			synchronized (this.writeLock) {
+				if (this.reliableSession == null) {
+					this.reliableSession = new ReliableSession(DEFAULT_RELIABLE_WINDOW);
+					this.sessionNegotiated = true;
+				}
+			}
+		}
+
+		FramingMode framing = this.negotiatedFraming(agreed);
+		if (!this.helloSent || this.outboundFraming != framing) {
+			try {
+				this.writeHello(framing);
+			} catch (IOException e) {
+				// Already reported, the next link starts a new exchange
+			}
+		}
+
+		// After the answer, so that anything resent is in the framing it announced
+		this.settleSession(reliable);
+	}
+
+	/**
+	 * Decides a session that a HELLO turned on once the peer on the current link
+	 * has said whether it agrees to it. What the last link left unacknowledged
+	 * is resent if it does, otherwise the session is dropped along with it, as
+	 * it would have been lost without one.
+	 * 
+	 * @param agreed whether the peer agreed to reliable delivery
+	 * @since 1.3
+	 */
+	private void settleSession(boolean agreed) {
+		synchronized (this.writeLock) {
+			ReliableSession session = this.reliableSession;
+			if (session == null || !this.sessionNegotiated)
+				return;
+
+			if (agreed) {
+				if (!this.sessionHeld)
+					return;
+
+				this.sessionHeld = false;
+				this.resendUnacknowledged();
+			} else {
+				this.reliableSession = null;
+				this.sessionNegotiated = false;
+				this.sessionHeld = false;
+				session.close();
+			}
+
+			// Wakes the writer thread if it is waiting for this
+			this.writeLock.notifyAll();
+		}
+	}
+
+	/**
+	 * @param agreed the capabilities both ends support
+	 * @return FramingMode -> COMPACT if both ends support it, otherwise the
+	 *         framing set with setFramingMode. A CHECKED link stays checked, as
+	 *         that was chosen for a noisy link rather than for speed.
+	 */
+	private FramingMode negotiatedFraming(int agreed) {
+		FramingMode base = this.baseFraming;
+		if (base != FramingMode.CHECKED && (agreed & Capability.COMPACT_FRAMING.getMask()) != 0)
+			return FramingMode.COMPACT;
+
+		return base;
+	}
+
+	/**
+	 * Advertises this end's protocol version and capabilities to the peer. The
+	 * peer answers and both ends then use the fastest framing, and the other
+	 * features, that they both support. Only send this to a peer that
+	 * understands HELLO messages, older robots fail on them, so an end that
+	 * might be talking to one should wait for the peer's HELLO instead, which
+	 * is answered automatically.
+	 * 
+	 * @throws IOException if the HELLO could not be written
+	 * @since 1.2
+	 */
+	public void sendHello() throws IOException {
+		this.writeHello(null);
+	}
+
+	/**
+	 * Writes a HELLO in the current framing then switches to the framing it
+	 * names, with nothing else written between the two
+	 * 
+	 * @param framing the framing to write with after the HELLO, null to keep the
+	 *                current one
+	 * @throws IOException if the HELLO could not be written
+	 * @since 1.2
+	 */
+	private void writeHello(FramingMode framing) throws IOException {
+		HelloMessage hello;
+		synchronized (this.writeLock) {
+			hello = new HelloMessage(PROTOCOL_VERSION, this.localCapabilities,
+					framing == null ? this.outboundFraming : framing);
+			this.writeFrame(hello, this.outboundFraming);
+			this.outboundFraming = hello.getNextFraming();
+			this.helloSent = true;
+			this.flushFrames();
+		}
+
+		this.onFrameSent(hello);
+	}
+
+	/**
+	 * Sets the capabilities advertised in this end's HELLO, all of them by
+	 * default. A capability left out is never used on the link, even if the peer
+	 * has it.
+	 * 
+	 * @param capabilities the capabilities to advertise
+	 * @since 1.2
+	 */
+	public void setLocalCapabilities(Set<Capability> capabilities) {
+		this.localCapabilities = Capability.toMask(capabilities);
+	}
+
+	/**
+	 * @return EnumSet -> the capabilities advertised in this end's HELLO
+	 * @since 1.2
+	 */
+	public EnumSet<Capability> getLocalCapabilities() {
+		return Capability.fromMask(this.localCapabilities);
+	}
+
+	/**
+	 * @return int -> the protocol version from the peer's HELLO on this link, 0
+	 *         if it hasn't sent one
+	 * @since 1.2
+	 */
+	public int getPeerProtocolVersion() {
+		return this.peerProtocolVersion;
+	}
+
+	/**
+	 * @return EnumSet -> the capabilities from the peer's HELLO on this link,
+	 *         empty if it hasn't sent one
+	 * @since 1.2
+	 */
+	public EnumSet<Capability> getPeerCapabilities() {
+		return Capability.fromMask(this.peerCapabilities);
+	}
+
+	/**
+	 * Used to decide whether to send optional message types, such as
+	 * NOTIFY_USER_UTF8 or EMOTION_SNAPSHOT, to this peer
+	 * 
+	 * @param capability the capability
+	 * @return boolean -> true if both ends have advertised the capability on this
+	 *         link
+	 * @since 1.2
+	 */
+	public boolean peerSupports(Capability capability) {
+		return (this.localCapabilities & this.peerCapabilities & capability.getMask()) != 0;
+	}
+
+	/**
+	 * This method is blocking and will send the desired message to the user, an
+	 * exception will be thrown if the socket is interrupted or if there is no
+	 * socket. A ChannelMessagesIOHandler only queues it for its event loop.
+	 * 
+	 * @param message to send
+	 * @throws MessageTooLongException if the message is too long for the
+	 *                                 outbound framing, the link is unaffected
+	 * @throws IOException
+	 * @since 1.0
+	 */
+	public void sendMessage(Message message) throws IOException {
+		synchronized (this.writeLock) {
+			this.checkLength(message);
+			this.writeFrame(message, this.outboundFraming);
+			this.flushFrames();
+		}
+
+		this.onFrameSent(message);
+	}
+
+	/**
+	 * This method is blocking and will send all of the messages in one write, an
+	 * exception will be thrown if the socket is interrupted or if there is no
+	 * socket
+	 * 
+	 * @param messages to send, in order
+	 * @throws IOException
+	 * @since 1.1
+	 */
+	public void sendMessages(Message... messages) throws IOException {
+		this.sendMessages(messages, 0, messages.length);
+	}
+
+	/**
+	 * This method is blocking and will send the messages in the range in one
+	 * write, an exception will be thrown if the socket is interrupted or if there
+	 * is no socket
+	 * 
+	 * @param messages to send, in order
+	 * @param offset   of the first message to send
+	 * @param count    of messages to send
+	 * @throws MessageTooLongException if any of the messages is too long for the
+	 *                                 outbound framing, none of them are sent
+	 * @throws IOException
+	 * @since 1.1
+	 */
+	public void sendMessages(Message[] messages, int offset, int count) throws IOException {
+		synchronized (this.writeLock) {
+			for (int i = offset; i < offset + count; i++)
+				this.checkLength(messages[i]);
+			for (int i = offset; i < offset + count; i++)
+				this.writeFrame(messages[i], this.outboundFraming);
+			this.flushFrames();
+		}
+
+		for (int i = offset; i < offset + count; i++)
+			this.onFrameSent(messages[i]);
+	}
+
+	/**
+	 * Queues the message for the writer thread and returns without waiting for the
+	 * socket. If the queue is full its overflow policy decides whether this blocks,
+	 * drops the oldest queued message or refuses the new one. Messages queued
+	 * while the link is down are kept until the transport is given a new link, and
+	 * the messages of a write that failed are sent before them. Latest-value
+	 * messages go by datagram instead if datagram telemetry is set.
+	 * 
+	 * @param message to send
+	 * @return boolean -> false if the message was refused or the wait was
+	 *         interrupted
+	 * @since 1.1
+	 * @see common.netty.messages.OverflowPolicy
+	 */
+	public boolean sendAsync(Message message) {
+		// Latest-value messages skip the stream, and anything queued on it, if they can
+		DatagramTelemetry telemetry = this.datagramTelemetry;
+		if (telemetry != null && telemetry.send(message))
+			return true;
+
+		// Refused now rather than left to stop the writer thread
+		if (!this.fitsFraming(message)) {
+			this.trafficMetrics.recordOversizeMessage();
+			return false;
+		}
+
+		OutboundMessageQueue queue;
+		synchronized (this) {
+			if (this.shutdown)
+				return false;
+
+			queue = this.outboundQueue;
+			this.startWriterThread();
+		}
+
+		try {
+			return queue.offer(message);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Stops the writer thread, the latency prober and the polling thread, for a
+	 * handler that won't be used again. Messages still queued are not sent and
+	 * sendAsync returns false from now on. The link is left to its owner to
+	 * close, a writer blocked on it stops once it is closed.
+	 * 
+	 * @since 1.2
+	 */
+	public void shutdown() {
+		Thread writer;
+		synchronized (this) {
+			this.shutdown = true;
+			this.proberActive = false;
+			writer = this.writerThread;
+		}
+
+		this.stopPollingThread();
+		if (writer != null)
+			writer.interrupt();
+	}
+
+	/**
+	 * @return boolean -> true once shutdown has been called
+	 * @since 1.2
+	 */
+	public synchronized boolean isShutdown() {
+		return this.shutdown;
+	}
+
+	/**
+	 * Replaces the queue used by sendAsync, this must be called before the first
+	 * sendAsync
+	 * 
+	 * @param queue the new queue
+	 * @throws IllegalStateException if sendAsync has already been used
+	 * @since 1.1
+	 */
+	public synchronized void setOutboundQueue(OutboundMessageQueue queue) {
+		if (this.writerThread != null)
+			throw new IllegalStateException("The writer thread has already started.");
+		if (queue == null)
+			throw new NullPointerException("Error: null queue");
+
+		this.outboundQueue = queue;
+	}
+
+	/**
+	 * Gives every message sent with sendAsync a sequence number and keeps it until
+	 * the peer acknowledges it. At most windowSize messages are unacknowledged at
+	 * once, the writer thread waits for acks beyond that. After the transport is
+	 * given a new link the unacknowledged messages are resent first, and the peer
+	 * drops any it already had, so nothing queued is lost or acted on twice. The
+	 * peer must understand SEQUENCED and ACK messages. Messages sent with
+	 * sendMessage are not sequenced. Unlike a session that a HELLO turns on this
+	 * one is kept whatever the next peer advertises.
+	 * 
+	 * @param windowSize the most messages that can be unacknowledged at once
+	 * @throws IllegalStateException if reliable delivery is already enabled
+	 * @since 1.2
+	 */
+	public void enableReliableDelivery(int windowSize) {
+		synchronized (this.writeLock) {
+			if (this.reliableSession != null)
+				throw new IllegalStateException("Reliable delivery is already enabled.");
+
+			this.reliableSession = new ReliableSession(windowSize);
+		}
+	}
+
+	/**
+	 * @return int -> the number of sequenced messages the peer has not
+	 *         acknowledged yet, 0 if reliable delivery isn't enabled
+	 * @since 1.2
+	 */
+	public int getUnacknowledgedCount() {
+		ReliableSession session = this.reliableSession;
+		return session == null ? 0 : session.getInFlight();
+	}
+
+	/**
+	 * @return OutboundMessageQueue -> the queue used by sendAsync, for its metrics
+	 * @since 1.1
+	 */
+	public synchronized OutboundMessageQueue getOutboundQueue() {
+		return this.outboundQueue;
+	}
+
+	/**
+	 * Starts a thread that pings the peer every interval and records the round
+	 * trip times. If no pong arrives within the stall timeout onPeerStalled is
+	 * called, which is much sooner than the socket would notice. Only use this
+	 * when the peer answers pings, older robots do not.
+	 * 
+	 * @param intervalMillis     the time between pings
+	 * @param stallTimeoutMillis the time without a pong after which the peer is
+	 *                           stalled
+	 * @since 1.2
+	 */
+	public synchronized void startLatencyProber(final long intervalMillis, final long stallTimeoutMillis) {
+		if (this.proberActive || this.shutdown)
+			return;
+
+		this.proberActive = true;
+		this.lastPongAt = System.nanoTime();
+
+		Thread proberThread = new Thread("Latency prober thread.") {
+			@Override
+			public void run() {
+				final long stallTimeout = stallTimeoutMillis * 1000000L;
+
+				while (proberActive) {
+					try {
+						Thread.sleep(intervalMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					long now = System.nanoTime();
+					if (!isRunning()) {
+						// Nothing to measure until the link is back
+						lastPongAt = now;
+						continue;
+					}
+
+					if (now - lastPongAt > stallTimeout) {
+						lastPongAt = now;
+						onPeerStalled();
+						continue;
+					}
+
+					sendAsync(new PingMessage(false, now));
+				}
+			}
+		};
+
+		proberThread.setDaemon(true);
+		proberThread.start();
+	}
+
+	/**
+	 * Stops the latency prober thread if it is active
+	 * 
+	 * @since 1.2
+	 */
+	public synchronized void stopLatencyProber() {
+		this.proberActive = false;
+	}
+
+	/**
+	 * @return LatencyHistogram -> the round trip times measured by the latency
+	 *         prober, in nanoseconds
+	 * @since 1.2
+	 */
+	public LatencyHistogram getRoundTripTimes() {
+		return this.roundTripTimes;
+	}
+
+	/**
+	 * Sends the latest-value messages given to sendAsync by datagram rather than
+	 * on the stream, the telemetry dispatches the ones it receives to this
+	 * handler. The peer must be sending and accepting them too.
+	 * 
+	 * @param telemetry the datagram telemetry, or null to send everything on the
+	 *                  stream
+	 * @since 1.2
+	 */
+	public void setDatagramTelemetry(DatagramTelemetry telemetry) {
+		this.datagramTelemetry = telemetry;
+	}
+
+	/**
+	 * @return DatagramTelemetry -> the datagram telemetry, or null if there isn't
+	 *         one
+	 * @since 1.2
+	 */
+	public DatagramTelemetry getDatagramTelemetry() {
+		return this.datagramTelemetry;
+	}
+
+	/**
+	 * @return EmotionsInterface -> the emotions that this handler's messages
+	 *         update
+	 * @since 1.2
+	 */
+	public EmotionsInterface getEmotionsInterface() {
+		return this.emotionsInterface;
+	}
+
+	/**
+	 * The frames and bytes read and written for each message type, the frames that
+	 * failed to decode and the time from a frame being read to its callback
+	 * returning. Frames with an unknown type or that fail to decode are counted
+	 * here as decode errors as well as logged.
+	 * 
+	 * @return TrafficMetrics -> the live counters, take a snapshot to read them
+	 * @since 1.2
+	 */
+	public TrafficMetrics getTrafficMetrics() {
+		return this.trafficMetrics;
+	}
+
+	/**
+	 * Counts and captures a message that has been written, or queued to be
+	 * written by a subclass
+	 * 
+	 * @param message the message
+	 * @since 1.2
+	 */
+	final void onFrameSent(Message message) {
+		this.trafficMetrics.recordOutbound(message);
+
+		FrameRecorder recorder = this.frameRecorder;
+		if (recorder != null) {
+			try {
+				recorder.record(FrameDirection.OUTBOUND, message);
+			} catch (IOException e) {
+				this.stopRecording(recorder);
+			}
+		}
+	}
+
+	/**
+	 * Captures every frame read and written from now on, a capture can be fed back
+	 * into a handler with a FrameReplayer. The caller still owns the recorder and
+	 * must close it. If the capture fails recording stops and the connection
+	 * carries on.
+	 * 
+	 * @param recorder the capture to append to, or null to stop recording
+	 * @since 1.2
+	 */
+	public void setFrameRecorder(FrameRecorder recorder) {
+		this.frameRecorder = recorder;
+	}
+
+	/**
+	 * @return FrameRecorder -> the current capture, or null if not recording
+	 * @since 1.2
+	 */
+	public FrameRecorder getFrameRecorder() {
+		return this.frameRecorder;
+	}
+
+	private void stopRecording(FrameRecorder recorder) {
+		if (this.frameRecorder == recorder) {
+			this.frameRecorder = null;
+			System.out.println("ERROR: Frame capture failed, recording stopped.");
+		}
+	}
+
+	/**
+	 * Called by the latency prober when the peer has not answered a ping within
+	 * the stall timeout. By default this stops the polling thread and calls
+	 * onIOException, as if the socket had failed.
+	 * 
+	 * @since 1.2
+	 */
+	protected void onPeerStalled() {
+		this.stopPollingThread();
+		this.onIOException(new IOException("The peer stopped answering pings."));
+	}
+
+	/**
+	 * Sets the priority lane that sendAsync queues messages of a type in, on the
+	 * current outbound queue. By default deaths and notifications are critical,
+	 * emotion updates and cube moves are bulk and everything else is normal.
+	 * 
+	 * @param type     the message type
+	 * @param priority the lane for the type
+	 * @since 1.2
+	 */
+	public void setPriority(MessageType type, MessagePriority priority) {
+		this.getOutboundQueue().setPriority(type, priority);
+	}
+
+	/**
+	 * Sets how messages of a type sent with sendAsync are merged and rate limited,
+	 * on the current outbound queue
+	 * 
+	 * @param type   the message type
+	 * @param policy the policy, or null to send every message
+	 * @since 1.2
+	 * @see common.netty.messages.SendPolicy
+	 */
+	public void setSendPolicy(MessageType type, SendPolicy policy) {
+		this.getOutboundQueue().setSendPolicy(type, policy);
+	}
+
+	/**
+	 * Starts the thread that drains the outbound queue, it sends everything that
+	 * is waiting in one batch, highest priority first, until shutdown interrupts
+	 * it. Must hold the handler's monitor.
+	 * 
+	 * @since 1.1
+	 */
+	private void startWriterThread() {
+		if (this.writerThread != null)
+			return;
+
+		final OutboundMessageQueue queue = this.outboundQueue;
+		this.writerThread = new Thread("Message writer thread.") {
+			@Override
+			public void run() {
+				Message[] batch = new Message[WRITER_BATCH_SIZE];
+				long[] queuedAt = new long[WRITER_BATCH_SIZE];
+				Message[] frames = new Message[WRITER_BATCH_SIZE];
+
+				while (!isInterrupted()) {
+					int count;
+					try {
+						count = queue.drainTo(batch, queuedAt);
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					int generation;
+					ReliableSession session;
+					synchronized (writeLock) {
+						try {
+							awaitSettledSession();
+						} catch (InterruptedException e) {
+							return;
+						}
+
+						generation = linkGeneration;
+						session = reliableSession;
+					}
+
+					int wrapped = 0, pending = 0;
+					try {
+						for (; wrapped < count; wrapped++) {
+							Message message = batch[wrapped];
+
+							if (session != null && !isControlMessage(message)) {
+								SequencedMessage sequenced;
+								while ((sequenced = session.tryWrap(message)) == null && !session.isClosed()) {
+									// Write what is ready so that the peer can acknowledge it
+									sendBatch(frames, pending, session);
+									pending = 0;
+									session.awaitSpace();
+								}
+
+								// A dropped session's peer doesn't understand SEQUENCED
+								if (sequenced != null)
+									message = sequenced;
+							}
+
+							frames[pending++] = message;
+						}
+
+						sendBatch(frames, pending, session);
+						queue.recordSent(batch, queuedAt, count);
+					} catch (IOException e) {
+						// Already reported if the link failed, keep the batch for the next
+						// connection rather than failing every queued message against this one.
+						// Sequenced messages are kept by the session and resent on the next link,
+						// a dropped session's are sent again unsequenced.
+						int unsent = session == null || session.isClosed() ? 0 : wrapped;
+						queue.requeue(batch, queuedAt, unsent, count - unsent);
+
+						try {
+							awaitNewLink(generation, session);
+						} catch (InterruptedException interrupted) {
+							return;
+						}
+					} catch (InterruptedException e) {
+						return;
+					} finally {
+						for (int i = 0; i < count; i++) {
+							batch[i] = null;
+							frames[i] = null;
+						}
+					}
+				}
+			}
+		};
+
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Waits while the session is held for the new peer's HELLO, dropping it if
+	 * none comes in time. Must hold the write lock.
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 * @since 1.3
+	 */
+	private void awaitSettledSession() throws InterruptedException {
+		while (this.sessionHeld) {
+			long remaining = this.linkChangedAt + TimeUnit.MILLISECONDS.toNanos(PEER_HELLO_TIMEOUT_MILLIS)
+					- System.nanoTime();
+			if (remaining <= 0) {
+				this.settleSession(false);
+				return;
+			}
+
+			TimeUnit.NANOSECONDS.timedWait(this.writeLock, remaining);
+		}
+	}
+
+	/**
+	 * Writes the writer thread's frames, unless the session they were sequenced
+	 * with has been held or dropped since, as the peer on the link may not
+	 * understand them. They are kept by the session if it is held.
+	 * 
+	 * @param frames  to write, from the start
+	 * @param count   of frames to write
+	 * @param session the session the frames were sequenced with, or null
+	 * @throws IOException if the link failed or the session changed
+	 * @since 1.3
+	 */
+	private void sendBatch(Message[] frames, int count, ReliableSession session) throws IOException {
+		synchronized (this.writeLock) {
+			if (session != null && (this.sessionHeld || session != this.reliableSession))
+				throw new IOException("The reliable session changed while the batch was sequenced.");
+
+			// The framing may have changed since sendAsync checked them
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				if (this.fitsFraming(frames[i]))
+					frames[kept++] = frames[i];
+				else
+					this.dropOversize(frames[i]);
+			}
+
+			this.sendMessages(frames, 0, kept);
+		}
+	}
+
+	/**
+	 * @return boolean -> true if the message fits in a frame of the outbound
+	 *         framing
+	 */
+	private boolean fitsFraming(Message message) {
+		return message.getLength() <= this.outboundFraming.maxMessageLength();
+	}
+
+	/**
+	 * Refuses a message too long for the outbound framing before anything is
+	 * written, must hold the write lock
+	 * 
+	 * @param message the message to check
+	 * @throws MessageTooLongException if the message is too long
+	 * @since 1.3
+	 */
+	private void checkLength(Message message) throws MessageTooLongException {
+		if (!this.fitsFraming(message)) {
+			this.trafficMetrics.recordOversizeMessage();
+			throw new MessageTooLongException(message, this.outboundFraming);
+		}
+	}
+
+	/**
+	 * Counts and reports a queued message that the outbound framing can't carry,
+	 * it is dropped so that the messages behind it are still sent. Must hold the
+	 * write lock.
+	 * 
+	 * @param message the message to drop
+	 * @since 1.3
+	 */
+	private void dropOversize(Message message) {
+		this.trafficMetrics.recordOversizeMessage();
+		System.out.println(String.format("ERROR: Dropped a %d byte %s message, too long for %s framing.",
+				message.getLength(), message.getMessageType(), this.outboundFraming));
+	}
+
+	/**
+	 * Writes every unacknowledged sequenced message to the new link, must hold
+	 * the write lock
+	 * 
+	 * @since 1.2
+	 */
+	private void resendUnacknowledged() {
+		ReliableSession session = this.reliableSession;
+		if (session == null)
+			return;
+
+		SequencedMessage[] unacknowledged = session.unacknowledged();
+		if (unacknowledged.length == 0)
+			return;
+
+		int written = 0;
+		try {
+			for (SequencedMessage message : unacknowledged) {
+				// The new link's framing may not carry it, the peer accepts the gap
+				if (!this.fitsFraming(message)) {
+					this.dropOversize(message);
+					continue;
+				}
+
+				this.writeFrame(message, this.outboundFraming);
+				unacknowledged[written++] = message;
+			}
+			this.flushFrames();
+		} catch (IOException e) {
+			// Already reported, the session still has them for the next link
+			return;
+		}
+
+		for (int i = 0; i < written; i++)
+			this.onFrameSent(unacknowledged[i]);
+	}
+
+	/**
+	 * Sends an acknowledgement of the sequenced messages received since the last
+	 * one, if there are any. Called by the reading thread once it has read
+	 * everything that is ready.
+	 * 
+	 * @since 1.2
+	 */
+	final void sendDueAck() {
+		AckMessage ack = this.sequenceTracker.takeAck();
+		if (ack == null)
+			return;
+
+		try {
+			// Straight to the socket, an ack waiting behind a full window would stall both ends
+			this.sendMessage(ack);
+		} catch (IOException e) {
+			// Already reported, the peer resends and gets a new ack after reconnecting
+		}
+	}
+
+	/**
+	 * @return boolean -> true for messages about the link itself, which are never
+	 *         sequenced
+	 */
+	private static boolean isControlMessage(Message message) {
+		MessageType type = message.getMessageType();
+		return type == MessageType.PING || type == MessageType.ACK || type == MessageType.HELLO;
+	}
+
+	/**
+	 * Waits until the transport has been given a new link since the generation
+	 * was read, or the session the write was sequenced with has been held or
+	 * dropped
+	 * 
+	 * @param generation the link generation when the failed write started
+	 * @param session    the session the write was sequenced with, or null
+	 * @throws InterruptedException if interrupted while waiting
+	 * @since 1.2
+	 */
+	private void awaitNewLink(int generation, ReliableSession session) throws InterruptedException {
+		synchronized (this.writeLock) {
+			while (this.linkGeneration == generation && this.reliableSession == session && !this.sessionHeld)
+				this.writeLock.wait();
+		}
+	}
+
+	/**
+	 * Adds a frame to the transport's output, nothing need be sent until
+	 * flushFrames. Must hold the write lock.
+	 * 
+	 * @param message the message to frame
+	 * @param mode    the framing to write it with
+	 * @throws IOException if there is no link to write to
+	 * @since 1.3
+	 */
+	abstract void writeFrame(Message message, FramingMode mode) throws IOException;
+
+	/**
+	 * Sends the frames added since the last flush, a failure has been reported to
+	 * onIOException by the time this throws. Must hold the write lock.
+	 * 
+	 * @throws IOException if the frames could not be sent
+	 * @since 1.3
+	 */
+	abstract void flushFrames() throws IOException;
+
+	/**
+	 * This method should be overriden by the implementation of the this class. This
+	 * method will called when a user notification event is called. It should be set
+	 * to an empty function if the implementation does not wupport user
+	 * notifications (robot)
+	 * 
+	 * @param notification
+	 * @since 1.0
+	 */
+	protected abstract void onNotification(UserNotification notification);
+
+	/**
+	 * When the polling thread has an exception this method is called. This runs on
+	 * the same thread as the polling thread
+	 * 
+	 * @since 1.0
+	 */
+	protected abstract void onIOException(IOException e);
+
+	/**
+	 * Override this method to react to signal strength receive.
+	 * 
+	 * @param strength
+	 * @since 1.1
+	 */
+	protected abstract void onSignalStrength(double strength);
+
+	protected abstract void onSignalStrengthReq();
+
+	protected abstract void onDeathMessage();
+
+	/**
+	 * Override this method to react to moves of the rubiks cube, it does nothing
+	 * by default as only the robot receives them
+	 * 
+	 * @param rotationCode the move that was made, -1 if none
+	 * @param movesToSolve the number of moves left to solve the cube
+	 * @since 1.2
+	 * @see common.netty.messages.RubiksCubeMessage
+	 */
+	protected void onCubeStateUpdate(int rotationCode, int movesToSolve) {
+	}
+
+}
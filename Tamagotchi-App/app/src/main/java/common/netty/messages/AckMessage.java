@@ -0,0 +1,91 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import common.netty.messages.codec.WireField;
+import common.netty.messages.codec.WireMessage;
+import common.netty.messages.codec.WireType;
+
+/**
+ * A cumulative acknowledgement, every sequenced message of the epoch up to and
+ * including the sequence number has been received
+ * 
+ * @author Danny
+ * @version 1.1
+ * @see common.netty.messages.SequencedMessage
+ */
+@WireMessage
+public final class AckMessage extends Message {
+
+	@WireField(WireType.INT16)
+	short epoch;
+	@WireField(WireType.VARINT)
+	int sequence;
+
+	/**
+	 * Only to be used to get an object for sterlisation
+	 * 
+	 * @param epoch    -> the epoch of the sender being acknowledged
+	 * @param sequence -> the highest sequence number received in order
+	 * @since 1.0
+	 */
+	public AckMessage(short epoch, int sequence) {
+		this();
+		this.epoch = epoch;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Only to be used to get an object for desterlisation
+	 * 
+	 * @since 1.0
+	 */
+	public AckMessage() {
+		super(ResponseCode.SEND_DATA);
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.ACK;
+	}
+
+	@Override
+	public int getLength() {
+		return AckMessageCodec.length(this);
+	}
+
+	@Override
+	public void encodeInto(ByteBuffer buffer) {
+		AckMessageCodec.encode(this, buffer);
+	}
+
+	/**
+	 * Reads the message from the buffer's position to its limit into this object,
+	 * the position is moved to the end of the message
+	 * 
+	 * @param buffer -> raw data
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.0
+	 */
+	public void decodeFrom(ByteBuffer buffer) throws IOException {
+		AckMessageCodec.decode(buffer, this);
+	}
+
+	public short getEpoch() {
+		return epoch;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public String toString() {
+		return "AckMessage{" +
+				"epoch=" + epoch +
+				", sequence=" + sequence +
+				'}';
+	}
+
+}
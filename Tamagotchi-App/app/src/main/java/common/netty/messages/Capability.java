@@ -0,0 +1,80 @@
+package common.netty.messages;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The optional protocol features that an end advertises in its HELLO. A
+ * feature is only used once both ends have advertised it, bits this version
+ * does not know are ignored so that newer robots can add more.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.HelloMessage
+ */
+public enum Capability {
+
+	/**
+	 * Reads and writes FramingMode.COMPACT
+	 */
+	COMPACT_FRAMING(0),
+	/**
+	 * Reads and writes FramingMode.CHECKED
+	 */
+	CHECKED_FRAMING(1),
+	/**
+	 * Understands EMOTION_SNAPSHOT messages
+	 */
+	EMOTION_SNAPSHOT(2),
+	/**
+	 * Understands SEQUENCED and ACK messages
+	 */
+	RELIABLE_DELIVERY(3),
+	/**
+	 * Understands NOTIFY_USER_UTF8 messages
+	 */
+	UTF8_NOTIFICATIONS(4);
+
+	private final int mask;
+
+	private Capability(int bit) {
+		this.mask = 1 << bit;
+	}
+
+	/**
+	 * @return int -> the bit of this capability in a capability bitset
+	 * @since 1.0
+	 */
+	public int getMask() {
+		return this.mask;
+	}
+
+	/**
+	 * @param capabilities the capabilities
+	 * @return int -> the bitset of the capabilities
+	 * @since 1.0
+	 */
+	public static int toMask(Set<Capability> capabilities) {
+		int mask = 0;
+		for (Capability capability : capabilities)
+			mask |= capability.mask;
+
+		return mask;
+	}
+
+	/**
+	 * @param mask a capability bitset
+	 * @return EnumSet -> the known capabilities in the bitset
+	 * @since 1.0
+	 */
+	public static EnumSet<Capability> fromMask(int mask) {
+		EnumSet<Capability> capabilities = EnumSet.noneOf(Capability.class);
+		for (Capability capability : values()) {
+			if ((mask & capability.mask) != 0)
+				capabilities.add(capability);
+		}
+
+		return capabilities;
+	}
+
+}
@@ -0,0 +1,365 @@
+package common.netty.messages;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import common.EmotionsInterface;
+
+/**
+ * A message handler that reads and writes a non-blocking SocketChannel from a
+ * MessagesEventLoop instead of a polling thread. The on change methods are
+ * called on the event loop thread, so they should not block for long as every
+ * other channel on the loop waits for them. Sending only queues the frames for
+ * the event loop to write. The link is the channel, so once the channel fails
+ * the handler is shut down and a new handler is made for the next channel.
+ * 
+ * @author Danny
+ * @version 1.3
+ * @see common.netty.messages.MessagesEventLoop
+ */
+public abstract class ChannelMessagesIOHandler extends AbstractMessagesIOHandler implements SelectionHandler {
+
+	private static final int INITIAL_BUFFER_SIZE = 4096;
+
+	private final SocketChannel channel;
+	private final MessagesEventLoop eventLoop;
+	private volatile boolean active;
+
+	/**
+	 * Only used on the event loop thread
+	 */
+	private SelectionKey key;
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+	private boolean resynchronising;
+
+	/**
+	 * Frames waiting to be written, guarded by writeLock
+	 */
+	private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+	private final AtomicBoolean writeRequested = new AtomicBoolean();
+
+	/**
+	 * The manager that accepted this session, or null
+	 */
+	private volatile SessionManager sessionManager;
+
+	private final Runnable registerTask = new Runnable() {
+		@Override
+		public void run() {
+			register();
+		}
+	};
+
+	private final Runnable deregisterTask = new Runnable() {
+		@Override
+		public void run() {
+			if (!active && key != null) {
+				key.cancel();
+				key = null;
+			}
+		}
+	};
+
+	private final Runnable enableWriteTask = new Runnable() {
+		@Override
+		public void run() {
+			if (key != null && key.isValid())
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		}
+	};
+
+	/**
+	 * Creates the handler and starts reading from the channel on the event loop
+	 * 
+	 * @param channel           a connected socket channel, it is made non-blocking
+	 * @param emotionsInterface Changes to emotions will call the on change methods
+	 *                          in the interface
+	 * @param eventLoop         the event loop to read and write the channel on
+	 * @throws IOException if the channel can't be made non-blocking
+	 * @since 1.0
+	 */
+	public ChannelMessagesIOHandler(SocketChannel channel, EmotionsInterface emotionsInterface,
+			MessagesEventLoop eventLoop) throws IOException {
+		super(emotionsInterface);
+		channel.configureBlocking(false);
+
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		this.startPollingThread();
+	}
+
+	/**
+	 * Starts reading the channel on the event loop if it isn't already
+	 * 
+	 * @since 1.0
+	 */
+	@Override
+	public synchronized void startPollingThread() {
+		if (!this.active) {
+			this.active = true;
+			this.eventLoop.execute(this.registerTask);
+		}
+	}
+
+	/**
+	 * Stops reading the channel, the channel is left open
+	 * 
+	 * @since 1.0
+	 */
+	@Override
+	public synchronized void stopPollingThread() {
+		if (this.active) {
+			this.active = false;
+			this.eventLoop.execute(this.deregisterTask);
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return this.active;
+	}
+
+	/**
+	 * @param sessionManager told when the channel fails
+	 * @since 1.1
+	 */
+	void setSessionManager(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	/**
+	 * @return SocketChannel -> the channel that this handler reads and writes
+	 * @since 1.0
+	 */
+	public SocketChannel getChannel() {
+		return this.channel;
+	}
+
+	/**
+	 * Adds the frame to the frames waiting for the event loop, must hold the write
+	 * lock
+	 * 
+	 * @throws IOException if the channel is closed, the handler is shut down
+	 * @since 1.3
+	 */
+	@Override
+	void writeFrame(Message message, FramingMode mode) throws IOException {
+		if (!this.channel.isOpen()) {
+			// Nothing can reopen the channel, so stop the writer thread parking on it
+			this.shutdown();
+			throw new ClosedChannelException();
+		}
+
+		this.ensureWritable(mode.frameLength(message));
+		mode.encodeFrame(this.writeBuffer, message);
+	}
+
+	/**
+	 * Asks the event loop to write the waiting frames, this does not block on the
+	 * socket
+	 * 
+	 * @since 1.3
+	 */
+	@Override
+	void flushFrames() {
+		this.requestWrite();
+	}
+
+	@Override
+	public void onSelected(SelectionKey key) {
+		try {
+			if (key.isReadable())
+				this.read();
+
+			if (key.isValid() && key.isWritable())
+				this.write();
+		} catch (IOException e) {
+			this.fail(e);
+		}
+	}
+
+	private void register() {
+		if (!this.active || this.key != null)
+			return;
+
+		int ops = SelectionKey.OP_READ;
+		if (this.writeRequested.get())
+			ops |= SelectionKey.OP_WRITE;
+
+		try {
+			this.key = this.channel.register(this.eventLoop.getSelector(), ops, this);
+		} catch (ClosedChannelException e) {
+			this.fail(e);
+		}
+	}
+
+	/**
+	 * Reads what the channel has ready and dispatches every whole frame, a partial
+	 * frame is kept until the rest arrives and corrupt frames are skipped if the
+	 * framing can resynchronise
+	 * 
+	 * @throws IOException
+	 * @since 1.0
+	 */
+	private void read() throws IOException {
+		if (this.channel.read(this.readBuffer) < 0)
+			throw new EOFException("End of stream.");
+
+		this.readBuffer.flip();
+
+		try {
+			this.dispatchFrames();
+		} finally {
+			// Back to being written to, even if a listener threw
+			this.readBuffer.compact();
+		}
+
+		this.sendDueAck();
+	}
+
+	/**
+	 * Dispatches the whole frames in the read buffer, which has been flipped
+	 * 
+	 * @throws IOException if a frame header is invalid
+	 * @since 1.3
+	 */
+	private void dispatchFrames() throws IOException {
+		while (true) {
+			FramingMode mode = this.getInboundFramingMode();
+			int skipped = mode.skipInvalid(this.readBuffer, this.readBuffer.position(), this.readBuffer.remaining());
+			if (skipped > 0) {
+				this.readBuffer.position(this.readBuffer.position() + skipped);
+				this.onCorruptFrame();
+			}
+
+			int frameStart = this.readBuffer.position();
+			int available = this.readBuffer.remaining();
+			int headerLength = mode.headerLength(this.readBuffer, frameStart, available);
+			if (headerLength < 0)
+				break;
+
+			int length = mode.messageLength(this.readBuffer, frameStart);
+
+			if (available - headerLength < length) {
+				if (headerLength + length > this.readBuffer.capacity()) {
+					ByteBuffer newBuffer = ByteBuffer
+							.allocateDirect(Math.max(headerLength + length, this.readBuffer.capacity() * 2));
+					newBuffer.put(this.readBuffer);
+					newBuffer.flip();
+					this.readBuffer = newBuffer;
+					return;
+				}
+
+				break;
+			}
+
+			if (!mode.checkMessage(this.readBuffer, frameStart, headerLength, length)) {
+				// The length may be what was corrupted, so only the sync byte is dropped
+				this.readBuffer.position(frameStart + 1);
+				this.onCorruptFrame();
+				continue;
+			}
+
+			this.resynchronising = false;
+			mode.prepareMessage(this.readBuffer, frameStart);
+
+			int messageStart = frameStart + headerLength;
+			int frameEnd = messageStart + length;
+			int limit = this.readBuffer.limit();
+
+			this.readBuffer.limit(frameEnd);
+			this.readBuffer.position(messageStart);
+			try {
+				this.dispatchLinkFrame(this.readBuffer);
+			} finally {
+				// A listener that throws must not leave the frame half read
+				this.readBuffer.limit(limit);
+				this.readBuffer.position(frameEnd);
+			}
+		}
+	}
+
+	private void onCorruptFrame() {
+		if (!this.resynchronising) {
+			this.resynchronising = true;
+			this.getTrafficMetrics().recordCorruptFrame();
+		}
+	}
+
+	/**
+	 * Writes as much of the pending output as the channel takes, write interest
+	 * is dropped once it is all written
+	 * 
+	 * @throws IOException
+	 * @since 1.0
+	 */
+	private void write() throws IOException {
+		synchronized (this.writeLock) {
+			this.writeBuffer.flip();
+			try {
+				this.channel.write(this.writeBuffer);
+			} finally {
+				this.writeBuffer.compact();
+			}
+
+			if (this.writeBuffer.position() == 0) {
+				this.key.interestOps(SelectionKey.OP_READ);
+				this.writeRequested.set(false);
+			}
+		}
+	}
+
+	private void requestWrite() {
+		if (this.writeRequested.compareAndSet(false, true))
+			this.eventLoop.execute(this.enableWriteTask);
+	}
+
+	private void ensureWritable(int length) {
+		if (this.writeBuffer.remaining() >= length)
+			return;
+
+		ByteBuffer newBuffer = ByteBuffer
+				.allocateDirect(Math.max(this.writeBuffer.position() + length, this.writeBuffer.capacity() * 2));
+		this.writeBuffer.flip();
+		newBuffer.put(this.writeBuffer);
+		this.writeBuffer = newBuffer;
+	}
+
+	/**
+	 * Closes the channel, shuts the handler down and calls onIOException, on the
+	 * event loop thread
+	 * 
+	 * @param e the cause
+	 * @since 1.0
+	 */
+	private void fail(IOException e) {
+		boolean wasActive = this.active;
+		this.active = false;
+
+		if (this.key != null) {
+			this.key.cancel();
+			this.key = null;
+		}
+
+		try {
+			this.channel.close();
+		} catch (IOException closeException) {
+			closeException.printStackTrace();
+		}
+
+		this.shutdown();
+
+		SessionManager manager = this.sessionManager;
+		if (manager != null)
+			manager.onSessionClosed(this);
+
+		if (wasActive)
+			this.onIOException(e);
+	}
+
+}
@@ -0,0 +1,312 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps a MessagesIOHandler connected. Failed attempts are retried after an
+ * exponential backoff with jitter, so a flaky link recovers quickly while a
+ * dead one costs little CPU or battery, until the retry budget runs out.
+ * Messages sent with sendAsync while the link is down stay queued and are sent
+ * once it is back.
+ * <p>
+ * The handler's onIOException should call connectionLost, the manager does the
+ * rest on its own thread so that the thread that noticed never blocks.
+ * 
+ * @author Danny
+ * @version 1.1
+ */
+public final class ConnectionManager {
+
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 10000;
+	public static final int DEFAULT_RETRY_BUDGET = 20;
+
+	private final MessagesIOHandler handler;
+	private final Connector connector;
+
+	private volatile long initialBackoffMillis = DEFAULT_INITIAL_BACKOFF_MILLIS;
+	private volatile long maxBackoffMillis = DEFAULT_MAX_BACKOFF_MILLIS;
+	private volatile int retryBudget = DEFAULT_RETRY_BUDGET;
+	private volatile ConnectionStateListener listener;
+
+	/**
+	 * Guarded by this
+	 */
+	private ConnectionState state = ConnectionState.DISCONNECTED;
+	private int attempt;
+	private Thread connectThread;
+
+	/**
+	 * The link generation of the last failure reported while connecting, -1 if
+	 * there hasn't been one this attempt
+	 */
+	private int lostLinkGeneration = -1;
+
+	/**
+	 * @param handler   the handler to keep connected
+	 * @param connector makes the handler's link
+	 * @since 1.0
+	 */
+	public ConnectionManager(MessagesIOHandler handler, Connector connector) {
+		if (handler == null || connector == null)
+			throw new NullPointerException("Error: null handler or connector");
+
+		this.handler = handler;
+		this.connector = connector;
+	}
+
+	/**
+	 * Sets the backoff, the wait before attempt n is a random time between half of
+	 * and all of initial * 2^(n - 1), capped at the maximum
+	 * 
+	 * @param initialMillis the backoff after the first failure
+	 * @param maxMillis     the longest backoff
+	 * @since 1.0
+	 */
+	public void setBackoff(long initialMillis, long maxMillis) {
+		if (initialMillis <= 0 || maxMillis < initialMillis)
+			throw new IllegalArgumentException("Error: invalid backoff");
+
+		this.initialBackoffMillis = initialMillis;
+		this.maxBackoffMillis = maxMillis;
+	}
+
+	/**
+	 * @param attempts the number of failed attempts in a row after which the
+	 *                 manager gives up and is FAILED
+	 * @since 1.0
+	 */
+	public void setRetryBudget(int attempts) {
+		if (attempts < 1)
+			throw new IllegalArgumentException("Error: the retry budget must be at least 1");
+
+		this.retryBudget = attempts;
+	}
+
+	/**
+	 * @param listener told about every state change, or null
+	 * @since 1.0
+	 */
+	public void setStateListener(ConnectionStateListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts connecting if not connected or already trying to be, this also
+	 * restarts a manager that has used up its retry budget
+	 * 
+	 * @throws IllegalStateException if the manager has been closed
+	 * @since 1.0
+	 */
+	public void connect() {
+		synchronized (this) {
+			if (this.state == ConnectionState.CLOSED)
+				throw new IllegalStateException("The connection manager is closed.");
+			if (this.connectThread != null || this.state == ConnectionState.CONNECTED)
+				return;
+
+			this.startConnectThread(false);
+		}
+	}
+
+	/**
+	 * Reports that the handler's link has failed, the manager disconnects and
+	 * starts reconnecting. Reports of the same failure from other threads, and any
+	 * made while disconnected, are ignored. A report made while connecting fails
+	 * the attempt if the new link was already in place. Doesn't block.
+	 * 
+	 * @param e the failure, may be null
+	 * @return boolean -> true if this report started a reconnect
+	 * @since 1.0
+	 */
+	public boolean connectionLost(IOException e) {
+		// Read outside the lock, the handler may be reporting with its write lock held
+		int generation = this.handler.getLinkGeneration();
+
+		synchronized (this) {
+			if (this.state == ConnectionState.CONNECTING) {
+				// The attempt checks this once the connector returns, so a new link that
+				// dies before the attempt finishes is not taken as connected
+				this.lostLinkGeneration = generation;
+				return false;
+			}
+
+			// Late reports from the old link are ignored while reconnecting
+			if (this.state != ConnectionState.CONNECTED)
+				return false;
+
+			this.startConnectThread(true);
+			return true;
+		}
+	}
+
+	/**
+	 * Stops connecting for good, a connect in progress is allowed to finish but
+	 * its result is ignored. The link itself is left to the owner to close.
+	 * 
+	 * @since 1.0
+	 */
+	public void close() {
+		synchronized (this) {
+			if (this.state == ConnectionState.CLOSED)
+				return;
+
+			this.state = ConnectionState.CLOSED;
+			this.notifyAll();
+		}
+
+		this.notifyListener(ConnectionState.CLOSED, 0);
+	}
+
+	/**
+	 * @return ConnectionState -> the current state
+	 * @since 1.0
+	 */
+	public synchronized ConnectionState getState() {
+		return this.state;
+	}
+
+	/**
+	 * @return int -> the number of failed attempts since the link was last up
+	 * @since 1.0
+	 */
+	public synchronized int getAttempt() {
+		return this.attempt;
+	}
+
+	/**
+	 * @return MessagesIOHandler -> the handler kept connected
+	 * @since 1.0
+	 */
+	public MessagesIOHandler getHandler() {
+		return this.handler;
+	}
+
+	/**
+	 * Must hold the lock
+	 */
+	private void startConnectThread(final boolean reconnect) {
+		this.attempt = 0;
+		this.state = ConnectionState.DISCONNECTED;
+
+		this.connectThread = new Thread("Connection manager thread.") {
+			@Override
+			public void run() {
+				notifyListener(ConnectionState.DISCONNECTED, 0);
+				if (reconnect)
+					connector.disconnect(handler);
+
+				while (attemptConnect())
+					;
+			}
+		};
+
+		this.connectThread.setDaemon(true);
+		this.connectThread.start();
+	}
+
+	/**
+	 * Makes one attempt, then backs off if it failed
+	 * 
+	 * @return boolean -> true if another attempt should be made
+	 */
+	private boolean attemptConnect() {
+		synchronized (this) {
+			if (this.state == ConnectionState.CLOSED) {
+				this.connectThread = null;
+				return false;
+			}
+
+			this.state = ConnectionState.CONNECTING;
+			this.lostLinkGeneration = -1;
+		}
+		this.notifyListener(ConnectionState.CONNECTING, this.getAttempt());
+
+		boolean connected;
+		try {
+			this.connector.connect(this.handler);
+			connected = true;
+		} catch (IOException e) {
+			connected = false;
+		}
+
+		// The polling thread stops if the new link has already failed
+		boolean running = connected && this.handler.isRunning();
+		int generation = this.handler.getLinkGeneration();
+
+		ConnectionState newState;
+		int failedAttempts;
+		long backoff = 0;
+		synchronized (this) {
+			if (this.state == ConnectionState.CLOSED) {
+				this.connectThread = null;
+				return false;
+			}
+
+			// A failure of the old link reported late has an older generation
+			if (running && this.lostLinkGeneration == generation)
+				running = false;
+
+			if (running) {
+				this.attempt = 0;
+				newState = ConnectionState.CONNECTED;
+			} else {
+				this.attempt++;
+				newState = this.attempt >= this.retryBudget ? ConnectionState.FAILED : ConnectionState.BACKING_OFF;
+				backoff = this.backoffMillis(this.attempt);
+			}
+
+			this.state = newState;
+			failedAttempts = this.attempt;
+			if (newState != ConnectionState.BACKING_OFF)
+				this.connectThread = null;
+		}
+		if (connected && newState != ConnectionState.CONNECTED) {
+			// The link was lost again before this attempt finished
+			this.connector.disconnect(this.handler);
+		}
+
+		this.notifyListener(newState, failedAttempts);
+
+		if (newState != ConnectionState.BACKING_OFF)
+			return false;
+
+		synchronized (this) {
+			long deadline = System.currentTimeMillis() + backoff;
+			long remaining;
+			while (this.state == ConnectionState.BACKING_OFF
+					&& (remaining = deadline - System.currentTimeMillis()) > 0) {
+				try {
+					this.wait(remaining);
+				} catch (InterruptedException e) {
+					this.connectThread = null;
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param attempt the number of failed attempts so far, at least 1
+	 * @return long -> a random backoff between half of and all of the exponential
+	 *         backoff for the attempt
+	 */
+	private long backoffMillis(int attempt) {
+		long backoff = this.initialBackoffMillis << Math.min(attempt - 1, 30);
+		if (backoff <= 0 || backoff > this.maxBackoffMillis)
+			backoff = this.maxBackoffMillis;
+
+		long half = backoff / 2;
+		return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+	}
+
+	private void notifyListener(ConnectionState state, int attempt) {
+		ConnectionStateListener listener = this.listener;
+		if (listener != null)
+			listener.onStateChanged(state, attempt);
+	}
+
+}
@@ -0,0 +1,37 @@
+package common.netty.messages;
+
+/**
+ * The states of a ConnectionManager
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.ConnectionManager
+ */
+public enum ConnectionState {
+
+	/**
+	 * Not connected and not trying to be
+	 */
+	DISCONNECTED,
+	/**
+	 * A connection attempt is in progress
+	 */
+	CONNECTING,
+	/**
+	 * The handler has a working link
+	 */
+	CONNECTED,
+	/**
+	 * Waiting before the next connection attempt
+	 */
+	BACKING_OFF,
+	/**
+	 * Every attempt allowed by the retry budget failed, connect starts again
+	 */
+	FAILED,
+	/**
+	 * The manager has been closed and will not connect again
+	 */
+	CLOSED;
+
+}
@@ -0,0 +1,19 @@
+package common.netty.messages;
+
+/**
+ * Told about every state change of a ConnectionManager, on the manager's thread
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.ConnectionManager
+ */
+public interface ConnectionStateListener {
+
+	/**
+	 * @param state   the new state
+	 * @param attempt the number of failed attempts since the link was last up
+	 * @since 1.0
+	 */
+	void onStateChanged(ConnectionState state, int attempt);
+
+}
@@ -0,0 +1,34 @@
+package common.netty.messages;
+
+import java.io.IOException;
+
+/**
+ * Makes and breaks the link of a MessagesIOHandler for a ConnectionManager,
+ * e.g. by accepting a socket and passing its streams to setIOStreams before
+ * starting the polling thread
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.ConnectionManager
+ */
+public interface Connector {
+
+	/**
+	 * Blocks until the handler is connected and reading
+	 * 
+	 * @param handler the handler to connect
+	 * @throws IOException if this attempt failed, it may be tried again
+	 * @since 1.0
+	 */
+	void connect(MessagesIOHandler handler) throws IOException;
+
+	/**
+	 * Closes whatever is left of the handler's link after it was lost, called
+	 * before every reconnect attempt
+	 * 
+	 * @param handler the handler that lost its link
+	 * @since 1.0
+	 */
+	void disconnect(MessagesIOHandler handler);
+
+}
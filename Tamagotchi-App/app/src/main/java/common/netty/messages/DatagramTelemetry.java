@@ -0,0 +1,296 @@
+package common.netty.messages;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends and receives latest-value messages, e.g. emotion field changes and
+ * signal strength readings, as UDP datagrams next to a MessagesIOHandler's
+ * stream. A lost or late datagram then holds up nothing behind it, which is
+ * what happens to the stream when a packet must be resent. Each datagram
+ * carries a sequence number for its conflation key and the receiver drops any
+ * that are older than the newest it has seen, datagrams from anywhere but the
+ * peer are dropped. Every other message, and every message when the telemetry
+ * isn't used, stays on the stream.
+ * <p>
+ * A datagram is the sender's random ID (4 bytes), the conflation key and the
+ * sequence number (variable length integers) then the message. The sequence
+ * number is 31 bits, as a variable length integer can't be negative, and wraps
+ * back to 0.
+ * 
+ * @author Danny
+ * @version 1.1
+ * @see common.netty.messages.AbstractMessagesIOHandler#setDatagramTelemetry(DatagramTelemetry)
+ */
+public final class DatagramTelemetry implements Closeable {
+
+	public static final int PORT = 5422;
+
+	/**
+	 * The largest datagram that is read, latest-value messages are much smaller
+	 */
+	private static final int MAX_DATAGRAM_LENGTH = 1024;
+
+	/**
+	 * Sequence numbers are compared modulo 2^31, one less than half way round
+	 * ahead of the last is newer
+	 */
+	private static final int SEQUENCE_MASK = Integer.MAX_VALUE;
+	private static final int SEQUENCE_HALF = 1 << 30;
+
+	private final AbstractMessagesIOHandler handler;
+	private final DatagramChannel channel;
+	private final boolean[] latestValueTypes = new boolean[MessageType.TYPE_COUNT];
+	private final int senderID = new Random().nextInt();
+
+	/**
+	 * Guarded by sendBuffer
+	 */
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+	private final int[] sendSequences = new int[Message.MAX_CONFLATION_KEY + 1];
+	private volatile SocketAddress peer;
+
+	/**
+	 * Only used by the receive thread
+	 */
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_LENGTH);
+	private final int[] receivedSequences = new int[Message.MAX_CONFLATION_KEY + 1];
+	private final boolean[] received = new boolean[Message.MAX_CONFLATION_KEY + 1];
+	private int peerSenderID;
+
+	private final LongAdder datagramsSent = new LongAdder();
+	private final LongAdder datagramsReceived = new LongAdder();
+	private final LongAdder staleDropped = new LongAdder();
+	private Thread receiveThread;
+	private volatile boolean closed;
+
+	/**
+	 * Binds the local port, FIELD_CHANGE and SIGNAL_STRENGTH_RESP messages are
+	 * sent as datagrams by default
+	 * 
+	 * @param handler   the handler that received messages are dispatched to
+	 * @param localPort the port to receive on, 0 for any
+	 * @throws IOException if the port can't be bound
+	 * @since 1.0
+	 */
+	public DatagramTelemetry(AbstractMessagesIOHandler handler, int localPort) throws IOException {
+		if (handler == null)
+			throw new NullPointerException("Error: null handler");
+
+		this.handler = handler;
+		this.channel = DatagramChannel.open();
+		try {
+			this.channel.bind(new InetSocketAddress(localPort));
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+
+		this.setLatestValueType(MessageType.FIELD_CHANGE, true);
+		this.setLatestValueType(MessageType.SIGNAL_STRENGTH_RESP, true);
+	}
+
+	/**
+	 * Picks which message types go by datagram, both ends should agree. Only
+	 * messages with a conflation key are ever sent as datagrams.
+	 * 
+	 * @param type        the message type
+	 * @param latestValue true to send and accept it as datagrams
+	 * @since 1.0
+	 */
+	public void setLatestValueType(MessageType type, boolean latestValue) {
+		this.latestValueTypes[type.getTypeNibble() & Message.NIBBLE_BIT_MASK] = latestValue;
+	}
+
+	/**
+	 * @param peer where datagrams are sent and the only address they are accepted
+	 *             from, e.g. the address of the stream's socket with PORT, or
+	 *             null to stop sending and receiving
+	 * @since 1.0
+	 */
+	public void setPeer(SocketAddress peer) {
+		this.peer = peer;
+	}
+
+	/**
+	 * @return int -> the port that datagrams are received on
+	 * @since 1.0
+	 */
+	public int getLocalPort() {
+		return this.channel.socket().getLocalPort();
+	}
+
+	/**
+	 * Starts the thread that receives datagrams and dispatches them to the
+	 * handler, if it isn't already running
+	 * 
+	 * @since 1.0
+	 */
+	public synchronized void start() {
+		if (this.receiveThread != null || this.closed)
+			return;
+
+		this.receiveThread = new Thread("Telemetry receive thread.") {
+			@Override
+			public void run() {
+				receiveLoop();
+			}
+		};
+		this.receiveThread.setDaemon(true);
+		this.receiveThread.start();
+	}
+
+	/**
+	 * Sends the message as a datagram if it is a latest-value message and there
+	 * is a peer, this never blocks on a slow link
+	 * 
+	 * @param message to send
+	 * @return boolean -> false if the message must go by the stream instead
+	 * @since 1.0
+	 */
+	public boolean send(Message message) {
+		SocketAddress peer = this.peer;
+		int key = message.getConflationKey();
+		if (peer == null || this.closed || key < 0 || key > Message.MAX_CONFLATION_KEY
+				|| !this.latestValueTypes[message.getMessageType().getTypeNibble() & Message.NIBBLE_BIT_MASK])
+			return false;
+
+		synchronized (this.sendBuffer) {
+			int sequence = (this.sendSequences[key] + 1) & SEQUENCE_MASK;
+			this.sendSequences[key] = sequence;
+			int length = Integer.BYTES + VarInts.length(key) + VarInts.length(sequence) + message.getLength();
+			if (length > MAX_DATAGRAM_LENGTH)
+				return false;
+
+			this.sendBuffer.clear();
+			this.sendBuffer.putInt(this.senderID);
+			VarInts.put(this.sendBuffer, key);
+			VarInts.put(this.sendBuffer, sequence);
+			message.encodeInto(this.sendBuffer);
+			this.sendBuffer.flip();
+
+			try {
+				this.channel.send(this.sendBuffer, peer);
+			} catch (IOException e) {
+				// The stream still works, it takes this message instead
+				return false;
+			}
+		}
+
+		this.datagramsSent.increment();
+		this.handler.onFrameSent(message);
+		return true;
+	}
+
+	/**
+	 * @return long -> the number of datagrams sent
+	 * @since 1.0
+	 */
+	public long getDatagramsSent() {
+		return this.datagramsSent.sum();
+	}
+
+	/**
+	 * @return long -> the number of datagrams received and dispatched
+	 * @since 1.0
+	 */
+	public long getDatagramsReceived() {
+		return this.datagramsReceived.sum();
+	}
+
+	/**
+	 * @return long -> the number of datagrams dropped for arriving after a newer
+	 *         one with the same conflation key
+	 * @since 1.0
+	 */
+	public long getStaleDropped() {
+		return this.staleDropped.sum();
+	}
+
+	/**
+	 * Stops receiving and closes the socket, the handler's stream is untouched
+	 * 
+	 * @since 1.0
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			this.closed = true;
+		}
+
+		try {
+			// Wakes the receive thread
+			this.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void receiveLoop() {
+		while (!this.closed) {
+			this.receiveBuffer.clear();
+
+			SocketAddress source;
+			try {
+				source = this.channel.receive(this.receiveBuffer);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+
+			// Anyone can send to the port, only the peer's datagrams are acted on
+			if (source == null || !source.equals(this.peer))
+				continue;
+
+			this.receiveBuffer.flip();
+
+			try {
+				this.onDatagram(this.receiveBuffer);
+			} catch (IOException e) {
+				// A bad datagram is only that datagram lost
+				this.handler.getTrafficMetrics().recordCorruptFrame();
+			}
+		}
+	}
+
+	private void onDatagram(ByteBuffer datagram) throws IOException {
+		if (datagram.remaining() < Integer.BYTES + 3)
+			throw new IOException("Error the datagram is too short.");
+
+		int senderID = datagram.getInt();
+		int key = VarInts.get(datagram);
+		int sequence = VarInts.get(datagram);
+		if (key > Message.MAX_CONFLATION_KEY || !datagram.hasRemaining()
+				|| !this.latestValueTypes[datagram.get(datagram.position()) & Message.NIBBLE_BIT_MASK])
+			throw new IOException("Error the datagram is not a latest-value message.");
+
+		if (senderID != this.peerSenderID) {
+			// The peer restarted, its sequence numbers did too
+			this.peerSenderID = senderID;
+			Arrays.fill(this.received, false);
+		}
+
+		// Compared by difference modulo 2^31 so that the sequence can wrap
+		int ahead = (sequence - this.receivedSequences[key]) & SEQUENCE_MASK;
+		if (this.received[key] && (ahead == 0 || ahead >= SEQUENCE_HALF)) {
+			this.staleDropped.increment();
+			return;
+		}
+
+		this.received[key] = true;
+		this.receivedSequences[key] = sequence;
+		this.datagramsReceived.increment();
+		this.handler.dispatch(datagram);
+	}
+
+}
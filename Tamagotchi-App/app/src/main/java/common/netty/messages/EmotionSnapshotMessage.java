@@ -0,0 +1,133 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import common.EmotionPrimitiveID;
+import common.EmotionsInterface;
+import common.netty.messages.codec.WireField;
+import common.netty.messages.codec.WireMessage;
+import common.netty.messages.codec.WireType;
+
+/**
+ * This is for sterlisation and desterlisation of emotion snapshot messages,
+ * which carry every primitive emotion in one frame so that a full refresh is
+ * applied as a single state change
+ * 
+ * @author Danny
+ * @version 1.1
+ * @see common.netty.messages.EmotionUpdateMessage
+ */
+@WireMessage
+public final class EmotionSnapshotMessage extends Message {
+
+	// Same scale as EmotionUpdateMessage
+	@WireField(value = WireType.FIXED8, scale = 100)
+	float fear;
+	@WireField(value = WireType.FIXED8, scale = 100)
+	float hunger;
+	@WireField(value = WireType.FIXED8, scale = 100)
+	float tired;
+	@WireField(value = WireType.FIXED8, scale = 100)
+	float boredom;
+
+	/**
+	 * Only to be used to get an object for sterlisation
+	 * 
+	 * @param emotions -> the emotions to send the primitive values of
+	 * @since 1.0
+	 * @see common.EmotionsInterface
+	 */
+	public EmotionSnapshotMessage(EmotionsInterface emotions) {
+		this(emotions.getFear(), emotions.getHunger(), emotions.getTired(), emotions.getBoredom());
+	}
+
+	/**
+	 * Only to be used to get an object for sterlisation
+	 * 
+	 * @param fear    -> the new fear value
+	 * @param hunger  -> the new hunger value
+	 * @param tired   -> the new tired value
+	 * @param boredom -> the new boredom value
+	 * @since 1.0
+	 */
+	public EmotionSnapshotMessage(float fear, float hunger, float tired, float boredom) {
+		this();
+		this.fear = fear;
+		this.hunger = hunger;
+		this.tired = tired;
+		this.boredom = boredom;
+	}
+
+	/**
+	 * Only to be used to get an object for desterlisation
+	 * 
+	 * @since 1.0
+	 */
+	public EmotionSnapshotMessage() {
+		super(ResponseCode.SEND_DATA);
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.EMOTION_SNAPSHOT;
+	}
+
+	@Override
+	public int getLength() {
+		return EmotionSnapshotMessageCodec.length(this);
+	}
+
+	@Override
+	public void encodeInto(ByteBuffer buffer) {
+		EmotionSnapshotMessageCodec.encode(this, buffer);
+	}
+
+	/**
+	 * This will desterlise the message from the buffer's position to its limit to
+	 * the EmotionsInterface object sent to it, setting every primitive in one
+	 * call. The buffer's position is moved to the end of the message.
+	 * 
+	 * @param buffer   -> the raw data to desterlise
+	 * @param emotions -> the object to write the data to after desterlisation
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.0
+	 */
+	public void decodeFrom(ByteBuffer buffer, EmotionsInterface emotions) throws IOException {
+		this.decodeFrom(buffer);
+
+		emotions.setAll(this.fear, this.hunger, this.tired, this.boredom);
+	}
+
+	/**
+	 * Reads the message from the buffer's position to its limit into this object
+	 * without applying it, the buffer's position is moved to the end of the
+	 * message
+	 * 
+	 * @param buffer -> the raw data to desterlise
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.0
+	 */
+	public void decodeFrom(ByteBuffer buffer) throws IOException {
+		EmotionSnapshotMessageCodec.decode(buffer, this);
+	}
+
+	/**
+	 * @param field the primitive to get
+	 * @return float -> the value of the primitive in the snapshot
+	 * @since 1.0
+	 */
+	public float get(EmotionPrimitiveID field) {
+		switch (field) {
+		case FEAR:
+			return this.fear;
+		case HUNGER:
+			return this.hunger;
+		case TIRED:
+			return this.tired;
+		default:
+			return this.boredom;
+		}
+	}
+
+}
@@ -1,22 +1,27 @@
 package common.netty.messages;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import common.EmotionPrimitiveID;
 import common.EmotionsInterface;
+import common.netty.messages.codec.WireField;
+import common.netty.messages.codec.WireMessage;
+import common.netty.messages.codec.WireType;
 
 /**
  * This is for sterlisation and desterlisation of emotion update messages
  * 
  * @author Danny
- * @version 1.1
+ * @version 1.3
  */
+@WireMessage
 public final class EmotionUpdateMessage extends Message {
 
-	private byte ID;
-	private float newValue;
-	private static final int LENGTH = 3;
-	private static final float CONSTANT = 100f; //A workaround for Nan in my floats
+	@WireField(WireType.INT8)
+	byte ID;
+	@WireField(value = WireType.FIXED8, scale = 100) //A workaround for Nan in my floats
+	float newValue;
 
 	/**
 	 * Only to be used to get an object for sterlisation
@@ -44,18 +49,19 @@ public final class EmotionUpdateMessage extends Message {
 		super(ResponseCode.SEND_DATA);
 	}
 
+	@Override
+	public int getLength() {
+		return EmotionUpdateMessageCodec.length(this);
+	}
+
 	/**
-	 * @return the byte array of the the field change request
+	 * Writes the field change request to the buffer
+	 * 
 	 * @since 1.1
 	 */
 	@Override
-	public byte[] getByteArray() {
-		byte[] bytes = new byte[LENGTH];
-		bytes[0] = super.getBaseHeader();
-		bytes[1] = ID;
-		bytes[2] = (byte) Math.round(this.newValue * CONSTANT);
-
-		return bytes;
+	public void encodeInto(ByteBuffer buffer) {
+		EmotionUpdateMessageCodec.encode(this, buffer);
 	}
 
 	/**
@@ -68,38 +74,59 @@ public final class EmotionUpdateMessage extends Message {
 	 * @since 1.1
 	 */
 	public void fromBytesArray(byte[] bytes, EmotionsInterface emotions) throws IOException {
-		// Check for valid message
 		if (bytes == null)
 			throw new NullPointerException("Error: null input");
 
-		if (bytes.length != LENGTH) {
-			throw new IOException(String.format("Error this message is of the wrong length (%d instead" + " of %d)",
-					bytes.length, LENGTH));
-		}
+		this.decodeFrom(ByteBuffer.wrap(bytes), emotions);
+	}
+
+	/**
+	 * This will desterlise the message from the buffer's position to its limit to
+	 * the EmotionsInterface object sent to it. The buffer's position is moved to
+	 * the end of the message.
+	 * 
+	 * @param buffer   -> the raw data to desterlise
+	 * @param emotions -> the object to write the data to after desterlisation
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.1
+	 */
+	public void decodeFrom(ByteBuffer buffer, EmotionsInterface emotions) throws IOException {
+		this.decodeFrom(buffer);
+
+		// Put new value in correct field
+		emotions.set(this.getFieldID(), this.newValue);
+	}
 
-		byte type = (byte) (bytes[0] & NIBBLE_BIT_MASK);
+	/**
+	 * Reads the message from the buffer's position to its limit into this object
+	 * without applying it, the buffer's position is moved to the end of the
+	 * message
+	 * 
+	 * @param buffer -> the raw data to desterlise
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.2
+	 */
+	public void decodeFrom(ByteBuffer buffer) throws IOException {
+		EmotionUpdateMessageCodec.decode(buffer, this);
 
-		if (type != getMessageType().getTypeNibble()) {
-			throw new IOException(
-					String.format("Error this message is of the wrong " + "type (type %d instead of expected type %d).",
-							type, getMessageType().getTypeNibble()));
-		}
+		if (EmotionPrimitiveID.fromID(this.ID) == null)
+			throw new IOException(String.format("The field changed byte is not recognised (type ID: %d).", this.ID));
+	}
 
-		// Read message
-		float newValue = ((float) bytes[2]) / CONSTANT;
+	/**
+	 * @return EmotionPrimitiveID -> the field that is changed
+	 * @since 1.2
+	 */
+	public EmotionPrimitiveID getFieldID() {
+		return EmotionPrimitiveID.fromID(this.ID);
+	}
 
-		// Put new value in correct field
-		if (bytes[1] == EmotionPrimitiveID.FEAR.getID()) {
-			emotions.setFear(newValue);
-		} else if (bytes[1] == EmotionPrimitiveID.HUNGER.getID()) {
-			emotions.setHunger(newValue);
-		} else if (bytes[1] == EmotionPrimitiveID.TIRED.getID()) {
-			emotions.setTired(newValue);
-		} else if (bytes[1] == EmotionPrimitiveID.BOREDOM.getID()) {
-			emotions.setBoredem(newValue);
-		} else {
-			throw new IOException(String.format("The field changed byte is not recognised (type ID: %d).", bytes[1]));
-		}
+	/**
+	 * @return float -> the new value of the field
+	 * @since 1.2
+	 */
+	public float getNewValue() {
+		return this.newValue;
 	}
 
 	@Override
@@ -107,4 +134,12 @@ public final class EmotionUpdateMessage extends Message {
 		return MessageType.FIELD_CHANGE;
 	}
 
+	/**
+	 * Only the newest value of each field matters
+	 */
+	@Override
+	public int getConflationKey() {
+		return this.conflationKey(this.ID);
+	}
+
 }
@@ -0,0 +1,21 @@
+package common.netty.messages;
+
+/**
+ * Whether a captured frame was read from or written to the peer
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.FrameRecorder
+ */
+public enum FrameDirection {
+
+	/**
+	 * The frame was read from the peer
+	 */
+	INBOUND,
+	/**
+	 * The frame was written to the peer
+	 */
+	OUTBOUND;
+
+}
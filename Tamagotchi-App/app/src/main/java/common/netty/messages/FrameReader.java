@@ -0,0 +1,160 @@
+package common.netty.messages;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads frames from an input stream. The stream is read in
+ * bulk into one reusable buffer and the frames are sliced out of it, so a
+ * single read can return several frames and a frame costs no per-byte calls.
+ * 
+ * @author Danny
+ * @version 1.3
+ * @see common.netty.messages.FrameWriter
+ */
+final class FrameReader {
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final InputStream inputStream;
+	private final TrafficMetrics trafficMetrics;
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/**
+	 * The unread bytes in the buffer are between start and end
+	 */
+	private int start, end;
+
+	/**
+	 * True while bytes are being dropped to find the next valid frame
+	 */
+	private boolean resynchronising;
+
+	/**
+	 * @param inputStream    the stream to read frames from
+	 * @param trafficMetrics counts the corrupt frames that are dropped
+	 * @since 1.3
+	 */
+	FrameReader(InputStream inputStream, TrafficMetrics trafficMetrics) {
+		this.inputStream = inputStream;
+		this.trafficMetrics = trafficMetrics;
+	}
+
+	/**
+	 * Slices the next whole frame out of the bytes already read, the caller calls
+	 * fill and tries again when there isn't one. The returned buffer is positioned
+	 * at the start of the frame's message with its limit at the end of it, it is
+	 * only valid until the next call. Corrupt frames are skipped if the mode can
+	 * resynchronise.
+	 * 
+	 * @param mode the framing the frame was written with
+	 * @return ByteBuffer -> the message in the frame, or null if more bytes are
+	 *         needed
+	 * @throws IOException if the frame is invalid
+	 * @since 1.2
+	 */
+	ByteBuffer bufferedFrame(FramingMode mode) throws IOException {
+		// The last frame's limit would get in the way of reading the next header
+		this.buffer.clear();
+
+		int headerLength, length;
+		while (true) {
+			int skipped = mode.skipInvalid(this.buffer, this.start, this.end - this.start);
+			if (skipped > 0) {
+				this.start += skipped;
+				this.onCorruptFrame();
+			}
+
+			int available = this.end - this.start;
+			headerLength = mode.headerLength(this.buffer, this.start, available);
+			if (headerLength < 0)
+				return null;
+
+			length = mode.messageLength(this.buffer, this.start);
+			if (available - headerLength < length) {
+				this.ensureCapacity(headerLength + length);
+				return null;
+			}
+
+			if (mode.checkMessage(this.buffer, this.start, headerLength, length))
+				break;
+
+			// The length may be what was corrupted, so only the sync byte is dropped
+			this.start++;
+			this.onCorruptFrame();
+		}
+
+		this.resynchronising = false;
+		mode.prepareMessage(this.buffer, this.start);
+
+		int messageStart = this.start + headerLength;
+		this.start = messageStart + length;
+
+		this.buffer.limit(this.start);
+		this.buffer.position(messageStart);
+		return this.buffer;
+	}
+
+	/**
+	 * Blocks until the stream has bytes and reads as many as it has ready into the
+	 * buffer
+	 * 
+	 * @throws IOException if the stream ends
+	 * @since 1.0
+	 */
+	void fill() throws IOException {
+		if (this.end == this.buffer.capacity())
+			this.compact();
+
+		byte[] array = this.buffer.array();
+		int read = this.inputStream.read(array, this.end, array.length - this.end);
+		if (read < 0)
+			throw new EOFException("End of stream.");
+
+		this.end += read;
+	}
+
+	private void onCorruptFrame() {
+		if (!this.resynchronising) {
+			this.resynchronising = true;
+			this.trafficMetrics.recordCorruptFrame();
+		}
+	}
+
+	/**
+	 * Moves the unread bytes to the start of the buffer
+	 * 
+	 * @since 1.0
+	 */
+	private void compact() {
+		byte[] array = this.buffer.array();
+		System.arraycopy(array, this.start, array, 0, this.end - this.start);
+		this.end -= this.start;
+		this.start = 0;
+	}
+
+	/**
+	 * Makes sure that a frame of the given size fits in the buffer
+	 * 
+	 * @param frameLength the length of the frame including the header
+	 * @since 1.0
+	 */
+	private void ensureCapacity(int frameLength) {
+		if (this.buffer.capacity() - this.start >= frameLength)
+			return;
+
+		if (this.buffer.capacity() >= frameLength) {
+			this.compact();
+			return;
+		}
+
+		ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(frameLength, this.buffer.capacity() * 2));
+		System.arraycopy(this.buffer.array(), this.start, newBuffer.array(), 0, this.end - this.start);
+		this.end -= this.start;
+		this.start = 0;
+		this.buffer = newBuffer;
+	}
+
+}
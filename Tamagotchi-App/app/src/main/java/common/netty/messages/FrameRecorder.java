@@ -0,0 +1,151 @@
+package common.netty.messages;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends frames to a memory mapped capture file so that a session can be
+ * replayed later with a FrameReplayer. Writing a record is a copy into the
+ * mapping, the operating system writes it to disk in the background.
+ * <p>
+ * The file starts with a header of the magic number, the format version and
+ * the wall clock time the capture started. Each record is the nanoseconds
+ * since the capture started, the direction, the message length then the
+ * message, without any framing.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.MessagesIOHandler#setFrameRecorder(FrameRecorder)
+ * @see common.netty.messages.FrameReplayer
+ */
+public final class FrameRecorder implements Closeable {
+
+	static final int MAGIC = 0x54434150; // "TCAP"
+	static final short VERSION = 1;
+	static final int FILE_HEADER_LENGTH = Integer.BYTES + Short.BYTES + Long.BYTES;
+	static final int RECORD_HEADER_LENGTH = Long.BYTES + 1 + Integer.BYTES;
+
+	/**
+	 * How much of the file is mapped at a time
+	 */
+	private static final int REGION_SIZE = 1 << 20;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final long startNanos = System.nanoTime();
+
+	private MappedByteBuffer region;
+	private long regionStart;
+	private boolean closed;
+
+	/**
+	 * Creates the capture file, replacing it if it exists
+	 * 
+	 * @param file the capture file
+	 * @throws IOException if the file can't be created or mapped
+	 * @since 1.0
+	 */
+	public FrameRecorder(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "rw");
+		this.channel = this.file.getChannel();
+
+		try {
+			this.channel.truncate(0);
+			this.map(0, REGION_SIZE);
+
+			this.region.putInt(MAGIC);
+			this.region.putShort(VERSION);
+			this.region.putLong(System.currentTimeMillis());
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends the message from the buffer's position to its limit, the buffer is
+	 * not changed
+	 * 
+	 * @param direction whether the message was read or written
+	 * @param message   the message
+	 * @throws IOException if the file can't be grown
+	 * @since 1.0
+	 */
+	public synchronized void record(FrameDirection direction, ByteBuffer message) throws IOException {
+		int length = message.remaining();
+		this.putRecordHeader(direction, length);
+
+		int position = message.position();
+		this.region.put(message);
+		message.position(position);
+	}
+
+	/**
+	 * Appends the message, it is encoded straight into the file
+	 * 
+	 * @param direction whether the message was read or written
+	 * @param message   the message
+	 * @throws IOException if the file can't be grown
+	 * @since 1.0
+	 */
+	public synchronized void record(FrameDirection direction, Message message) throws IOException {
+		this.putRecordHeader(direction, message.getLength());
+		message.encodeInto(this.region);
+	}
+
+	private void putRecordHeader(FrameDirection direction, int length) throws IOException {
+		if (this.closed)
+			throw new IOException("The capture is closed.");
+
+		int needed = RECORD_HEADER_LENGTH + length;
+		if (this.region.remaining() < needed)
+			this.map(this.regionStart + this.region.position(), Math.max(REGION_SIZE, needed));
+
+		this.region.putLong(System.nanoTime() - this.startNanos);
+		this.region.put((byte) direction.ordinal());
+		this.region.putInt(length);
+	}
+
+	/**
+	 * Maps the next region of the file, which grows the file to cover it
+	 */
+	private void map(long start, int size) throws IOException {
+		this.region = this.channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+		this.regionStart = start;
+	}
+
+	/**
+	 * @return long -> the bytes captured so far, including the file header
+	 * @since 1.0
+	 */
+	public synchronized long getLength() {
+		return this.regionStart + this.region.position();
+	}
+
+	/**
+	 * Writes the capture to disk and trims the unused end of the last region from
+	 * the file. Recording after this throws an IOException.
+	 * 
+	 * @throws IOException
+	 * @since 1.0
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (this.closed)
+			return;
+
+		this.closed = true;
+		try {
+			this.region.force();
+			this.channel.truncate(this.getLength());
+		} finally {
+			this.file.close();
+		}
+	}
+
+}
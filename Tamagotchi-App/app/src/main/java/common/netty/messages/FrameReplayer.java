@@ -0,0 +1,135 @@
+package common.netty.messages;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds a capture made by a FrameRecorder back into a MessagesIOHandler, as if
+ * the frames had just been read from the peer. No socket, robot or cube is
+ * needed, so sessions can be reproduced and the decode path benchmarked against
+ * real traffic.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.FrameRecorder
+ */
+public final class FrameReplayer implements Closeable {
+
+	private final RandomAccessFile file;
+	private final ByteBuffer capture;
+	private final long startMillis;
+
+	/**
+	 * Maps the whole capture file
+	 * 
+	 * @param file a capture file written by a FrameRecorder
+	 * @throws IOException if the file is not a capture
+	 * @since 1.0
+	 */
+	public FrameReplayer(File file) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = this.file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("The capture is too large to map.");
+
+			this.capture = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (this.capture.remaining() < FrameRecorder.FILE_HEADER_LENGTH
+					|| this.capture.getInt() != FrameRecorder.MAGIC)
+				throw new IOException("Error this is not a frame capture.");
+
+			short version = this.capture.getShort();
+			if (version != FrameRecorder.VERSION)
+				throw new IOException(String.format("Error unsupported capture version %d.", version));
+
+			this.startMillis = this.capture.getLong();
+		} catch (IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return long -> the wall clock time the capture started, in milliseconds
+	 * @since 1.0
+	 */
+	public long getStartMillis() {
+		return this.startMillis;
+	}
+
+	/**
+	 * Replays the inbound frames of the capture
+	 * 
+	 * @see #replay(AbstractMessagesIOHandler, FrameDirection, boolean)
+	 * @since 1.0
+	 */
+	public int replay(AbstractMessagesIOHandler handler, boolean originalSpeed) throws IOException, InterruptedException {
+		return this.replay(handler, FrameDirection.INBOUND, originalSpeed);
+	}
+
+	/**
+	 * Dispatches every frame of the capture in one direction to the handler, on
+	 * the calling thread. Replaying the outbound frames into a handler plays the
+	 * part of the peer. The handler does not need to be connected.
+	 * 
+	 * @param handler       the handler to call the on change methods of
+	 * @param direction     the frames to replay
+	 * @param originalSpeed true to wait between frames as long as the capture
+	 *                      did, false to replay as fast as possible
+	 * @return int -> the number of frames replayed
+	 * @throws IOException          if the capture is truncated
+	 * @throws InterruptedException if interrupted while waiting for a frame
+	 * @since 1.0
+	 */
+	public int replay(AbstractMessagesIOHandler handler, FrameDirection direction, boolean originalSpeed)
+			throws IOException, InterruptedException {
+		ByteBuffer records = this.capture.duplicate();
+		records.position(FrameRecorder.FILE_HEADER_LENGTH);
+
+		final long replayStart = System.nanoTime();
+		int replayed = 0;
+
+		while (records.remaining() >= FrameRecorder.RECORD_HEADER_LENGTH) {
+			long timestamp = records.getLong();
+			int directionOrdinal = records.get();
+			int length = records.getInt();
+
+			if (length < 0 || length > records.remaining())
+				throw new IOException(String.format("Error the capture is truncated at byte %d.", records.position()));
+
+			int end = records.position() + length;
+			if (directionOrdinal != direction.ordinal()) {
+				records.position(end);
+				continue;
+			}
+
+			if (originalSpeed) {
+				long wait = timestamp - (System.nanoTime() - replayStart);
+				if (wait > 0)
+					TimeUnit.NANOSECONDS.sleep(wait);
+			}
+
+			ByteBuffer frame = records.duplicate();
+			frame.limit(end);
+			handler.dispatch(frame);
+
+			records.position(end);
+			replayed++;
+		}
+
+		return replayed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+}
@@ -0,0 +1,72 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Packs frames into one reusable buffer so that the header and
+ * message of a frame, and any number of frames, go out in a single write when
+ * flushed. Not thread safe, the owner must lock around it.
+ * 
+ * @author Danny
+ * @version 1.1
+ * @see common.netty.messages.FrameReader
+ */
+final class FrameWriter {
+
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	private final OutputStream outputStream;
+	private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+	/**
+	 * @param outputStream the stream to write frames to, it does not need to be
+	 *                     buffered
+	 * @since 1.0
+	 */
+	FrameWriter(OutputStream outputStream) {
+		this.outputStream = outputStream;
+	}
+
+	/**
+	 * Adds the message as a frame to the buffer, nothing is sent until flush is
+	 * called
+	 * 
+	 * @param message to add
+	 * @param mode    the framing to write the frame with
+	 * @since 1.1
+	 */
+	void write(Message message, FramingMode mode) {
+		this.ensureRemaining(mode.frameLength(message));
+		mode.encodeFrame(this.buffer, message);
+	}
+
+	/**
+	 * Sends all of the buffered frames in one write. The buffer is emptied even if
+	 * the write fails.
+	 * 
+	 * @throws IOException
+	 * @since 1.0
+	 */
+	void flush() throws IOException {
+		try {
+			if (this.buffer.position() > 0)
+				this.outputStream.write(this.buffer.array(), 0, this.buffer.position());
+			this.outputStream.flush();
+		} finally {
+			this.buffer.clear();
+		}
+	}
+
+	private void ensureRemaining(int length) {
+		if (this.buffer.remaining() >= length)
+			return;
+
+		ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(this.buffer.position() + length, this.buffer.capacity() * 2));
+		this.buffer.flip();
+		newBuffer.put(this.buffer);
+		this.buffer = newBuffer;
+	}
+
+}
@@ -0,0 +1,361 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * How messages are framed on the wire. Both ends of a link must use the same
+ * mode, LEGACY is what every robot understands.
+ * 
+ * @author Danny
+ * @version 1.2
+ * @see common.netty.messages.MessagesIOHandler#setFramingMode(FramingMode)
+ */
+public enum FramingMode {
+
+	/**
+	 * A 4 byte big endian length then the message
+	 */
+	LEGACY {
+		@Override
+		int frameLength(Message message) {
+			return Integer.BYTES + message.getLength();
+		}
+
+		@Override
+		void encodeFrame(ByteBuffer buffer, Message message) {
+			buffer.putInt(message.getLength());
+			message.encodeInto(buffer);
+		}
+
+		@Override
+		int headerLength(ByteBuffer buffer, int offset, int available) {
+			return available < Integer.BYTES ? -1 : Integer.BYTES;
+		}
+
+		@Override
+		int messageLength(ByteBuffer buffer, int offset) throws IOException {
+			int length = buffer.getInt(offset);
+			if (length < 0 || length > MAX_MESSAGE_LENGTH)
+				throw new IOException(String.format("Invalid frame length %d.", length));
+
+			return length;
+		}
+	},
+
+	/**
+	 * Messages of up to TINY_MAX_LENGTH bytes with a zero response nibble are
+	 * sent as one byte holding a flag, the length and the type nibble followed by
+	 * the rest of the message. Other messages are sent as a variable length
+	 * length (6 bits in the first byte then 7 bits per byte) and the message.
+	 */
+	COMPACT {
+		@Override
+		int frameLength(Message message) {
+			int length = message.getLength();
+			if (isTiny(message, length))
+				return length;
+
+			int headerLength = 1;
+			for (int value = length >>> 6; value != 0; value >>>= 7)
+				headerLength++;
+
+			return headerLength + length;
+		}
+
+		@Override
+		void encodeFrame(ByteBuffer buffer, Message message) {
+			int length = message.getLength();
+
+			if (isTiny(message, length)) {
+				// The header byte is rewritten with the length folded into it
+				int start = buffer.position();
+				message.encodeInto(buffer);
+				buffer.put(start, (byte) (TINY_FLAG | (length - 1) << 4 | message.getBaseHeader() & NIBBLE));
+				return;
+			}
+
+			int value = length >>> 6;
+			buffer.put((byte) ((length & 0x3F) | (value != 0 ? FIRST_CONTINUE_FLAG : 0)));
+			while (value != 0) {
+				int next = value >>> 7;
+				buffer.put((byte) ((value & 0x7F) | (next != 0 ? CONTINUE_FLAG : 0)));
+				value = next;
+			}
+
+			message.encodeInto(buffer);
+		}
+
+		@Override
+		int headerLength(ByteBuffer buffer, int offset, int available) throws IOException {
+			if (available < 1)
+				return -1;
+
+			int first = buffer.get(offset);
+			if ((first & TINY_FLAG) != 0)
+				return 0;
+			if ((first & FIRST_CONTINUE_FLAG) == 0)
+				return 1;
+
+			for (int i = 1; i < MAX_HEADER_LENGTH; i++) {
+				if (i >= available)
+					return -1;
+				if ((buffer.get(offset + i) & CONTINUE_FLAG) == 0)
+					return i + 1;
+			}
+
+			throw new IOException("Invalid frame length, too many length bytes.");
+		}
+
+		@Override
+		int messageLength(ByteBuffer buffer, int offset) throws IOException {
+			int first = buffer.get(offset);
+			if ((first & TINY_FLAG) != 0)
+				return ((first >> 4) & 0x7) + 1;
+
+			long length = first & 0x3F;
+			if ((first & FIRST_CONTINUE_FLAG) != 0) {
+				int shift = 6, i = 1, next;
+				do {
+					next = buffer.get(offset + i++);
+					length |= (long) (next & 0x7F) << shift;
+					shift += 7;
+				} while ((next & CONTINUE_FLAG) != 0);
+			}
+
+			if (length > MAX_MESSAGE_LENGTH)
+				throw new IOException(String.format("Invalid frame length %d.", length));
+
+			return (int) length;
+		}
+
+		@Override
+		void prepareMessage(ByteBuffer buffer, int offset) {
+			// Put the message header back where the tiny frame header was
+			int first = buffer.get(offset);
+			if ((first & TINY_FLAG) != 0)
+				buffer.put(offset, (byte) (first & NIBBLE));
+		}
+	},
+
+	/**
+	 * A sync byte, a 2 byte big endian length, a check byte for the length and a
+	 * Fletcher-16 checksum of the message then the message. A frame that fails
+	 * either check is dropped and the reader scans forward to the next sync byte
+	 * with a valid length, so corruption costs the damaged message rather than
+	 * the link. Messages can be up to CHECKED_MAX_LENGTH bytes, a header with a
+	 * longer length is taken as corrupt, so that a false sync costs at most that
+	 * many bytes of waiting before its checksum fails.
+	 */
+	CHECKED {
+		@Override
+		int maxMessageLength() {
+			return CHECKED_MAX_LENGTH;
+		}
+
+		@Override
+		int frameLength(Message message) {
+			int length = message.getLength();
+			if (length > CHECKED_MAX_LENGTH)
+				throw new IllegalArgumentException(
+						String.format("A %d byte message is too long for checked framing.", length));
+
+			return CHECKED_HEADER_LENGTH + length;
+		}
+
+		@Override
+		void encodeFrame(ByteBuffer buffer, Message message) {
+			int length = message.getLength();
+			int start = buffer.position();
+
+			buffer.put(SYNC);
+			buffer.putShort((short) length);
+			buffer.put(lengthCheck(length));
+			buffer.putShort((short) 0);
+			message.encodeInto(buffer);
+
+			// The checksum goes in once the message bytes are there to sum
+			int messageStart = start + CHECKED_HEADER_LENGTH;
+			buffer.putShort(start + 4, (short) fletcher16(buffer, messageStart, length));
+		}
+
+		@Override
+		int skipInvalid(ByteBuffer buffer, int offset, int available) {
+			for (int i = 0; i + 4 <= available; i++) {
+				int length = buffer.getShort(offset + i + 1) & 0xFFFF;
+				if (buffer.get(offset + i) == SYNC && length >= 1 && length <= CHECKED_MAX_LENGTH
+						&& buffer.get(offset + i + 3) == lengthCheck(length))
+					return i;
+			}
+
+			// The last few bytes could still be the start of a header
+			return Math.max(0, available - 3);
+		}
+
+		@Override
+		int headerLength(ByteBuffer buffer, int offset, int available) {
+			return available < CHECKED_HEADER_LENGTH ? -1 : CHECKED_HEADER_LENGTH;
+		}
+
+		@Override
+		int messageLength(ByteBuffer buffer, int offset) {
+			return buffer.getShort(offset + 1) & 0xFFFF;
+		}
+
+		@Override
+		boolean checkMessage(ByteBuffer buffer, int offset, int headerLength, int length) {
+			int checksum = buffer.getShort(offset + 4) & 0xFFFF;
+			return checksum == fletcher16(buffer, offset + headerLength, length);
+		}
+	};
+
+	/**
+	 * The longest message that fits in a one byte compact header
+	 */
+	public static final int TINY_MAX_LENGTH = 8;
+
+	private static final int TINY_FLAG = 0x80;
+	private static final int FIRST_CONTINUE_FLAG = 0x40;
+	private static final int CONTINUE_FLAG = 0x80;
+	private static final int NIBBLE = Message.NIBBLE_BIT_MASK;
+	private static final int MAX_HEADER_LENGTH = 5;
+
+	/**
+	 * The longest message that LEGACY and COMPACT frames are read with, longer
+	 * lengths can only be corruption
+	 */
+	public static final int MAX_MESSAGE_LENGTH = 1 << 20;
+
+	/**
+	 * The longest message that fits in a CHECKED frame. The robot's messages are
+	 * a few bytes and a notification a few hundred at most, the lower the limit
+	 * the more of the length field a false sync has to match.
+	 */
+	public static final int CHECKED_MAX_LENGTH = 1 << 10;
+
+	private static final byte SYNC = (byte) 0xA5;
+	private static final int LENGTH_CHECK_SEED = 0x5A;
+	private static final int CHECKED_HEADER_LENGTH = 6;
+
+	/**
+	 * The most bytes that can be summed before the Fletcher-16 sums must be
+	 * reduced for them to fit in an int
+	 */
+	private static final int FLETCHER_BLOCK = 4096;
+
+	/**
+	 * @return int -> the longest message a frame of this mode can hold
+	 * @since 1.2
+	 */
+	int maxMessageLength() {
+		return MAX_MESSAGE_LENGTH;
+	}
+
+	/**
+	 * @param message the message to frame
+	 * @return int -> the number of bytes encodeFrame will write for the message
+	 * @throws IllegalArgumentException if the message is longer than
+	 *                                  maxMessageLength
+	 * @since 1.0
+	 */
+	abstract int frameLength(Message message);
+
+	/**
+	 * Writes the frame header and message at the buffer's position
+	 * 
+	 * @param buffer  to write to, must have frameLength bytes remaining
+	 * @param message to write
+	 * @since 1.0
+	 */
+	abstract void encodeFrame(ByteBuffer buffer, Message message);
+
+	/**
+	 * Finds where the next frame could start, for modes that can resynchronise
+	 * after corruption
+	 * 
+	 * @param buffer    to read from
+	 * @param offset    of where the next frame should start
+	 * @param available the number of bytes in the buffer from the offset
+	 * @return int -> the number of bytes from the offset that can't be the start
+	 *         of a frame and should be dropped, 0 for modes that don't resync
+	 * @since 1.1
+	 */
+	int skipInvalid(ByteBuffer buffer, int offset, int available) {
+		return 0;
+	}
+
+	/**
+	 * @param buffer    to read from
+	 * @param offset    of the start of the frame
+	 * @param available the number of bytes in the buffer from the offset
+	 * @return int -> the length of the frame header, or -1 if more bytes are
+	 *         needed to tell
+	 * @throws IOException if the header is invalid
+	 * @since 1.0
+	 */
+	abstract int headerLength(ByteBuffer buffer, int offset, int available) throws IOException;
+
+	/**
+	 * @param buffer to read from, holding the whole frame header
+	 * @param offset of the start of the frame
+	 * @return int -> the length of the message after the frame header
+	 * @throws IOException if the length is invalid
+	 * @since 1.0
+	 */
+	abstract int messageLength(ByteBuffer buffer, int offset) throws IOException;
+
+	/**
+	 * Called once the whole frame is in the buffer, before the message is read
+	 * 
+	 * @param buffer holding the frame
+	 * @param offset of the start of the frame
+	 * @since 1.0
+	 */
+	void prepareMessage(ByteBuffer buffer, int offset) {
+	}
+
+	/**
+	 * Called once the whole frame is in the buffer, before prepareMessage
+	 * 
+	 * @param buffer       holding the frame
+	 * @param offset       of the start of the frame
+	 * @param headerLength the length of the frame header
+	 * @param length       the length of the message
+	 * @return boolean -> false if the frame is corrupt, the reader then drops a
+	 *         byte and resynchronises
+	 * @since 1.1
+	 */
+	boolean checkMessage(ByteBuffer buffer, int offset, int headerLength, int length) {
+		return true;
+	}
+
+	private static byte lengthCheck(int length) {
+		return (byte) (length >>> 8 ^ length ^ LENGTH_CHECK_SEED);
+	}
+
+	/**
+	 * @return int -> the Fletcher-16 checksum of the bytes, read without moving
+	 *         the buffer's position
+	 */
+	private static int fletcher16(ByteBuffer buffer, int offset, int length) {
+		int sum1 = 0, sum2 = 0;
+
+		for (int end = offset + length; offset < end;) {
+			int blockEnd = Math.min(end, offset + FLETCHER_BLOCK);
+			for (; offset < blockEnd; offset++) {
+				sum1 += buffer.get(offset) & 0xFF;
+				sum2 += sum1;
+			}
+
+			sum1 %= 255;
+			sum2 %= 255;
+		}
+
+		return sum2 << 8 | sum1;
+	}
+
+	private static boolean isTiny(Message message, int length) {
+		return length >= 1 && length <= TINY_MAX_LENGTH && (message.getBaseHeader() & ~NIBBLE) == 0;
+	}
+
+}
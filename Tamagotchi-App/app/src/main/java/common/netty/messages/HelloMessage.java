@@ -0,0 +1,133 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sent when a link comes up to advertise the sender's protocol version and
+ * capabilities. It also names the framing that the sender writes every frame
+ * after it with, so that the receiver can switch at exactly the right byte.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.Capability
+ */
+public final class HelloMessage extends Message {
+
+	private static final int MIN_LENGTH = 1 + 1 + 1 + 1;
+	private static final int MAX_LENGTH = 1 + 2 * VarInts.length(Integer.MAX_VALUE) + 1;
+
+	private int protocolVersion;
+	private int capabilities;
+	private FramingMode nextFraming;
+
+	/**
+	 * Only to be used to get an object for sterlisation
+	 * 
+	 * @param protocolVersion -> the sender's protocol version
+	 * @param capabilities    -> the sender's capability bitset
+	 * @param nextFraming     -> the framing of the frames sent after this one
+	 * @since 1.0
+	 */
+	public HelloMessage(int protocolVersion, int capabilities, FramingMode nextFraming) {
+		this();
+
+		if (protocolVersion < 0 || capabilities < 0)
+			throw new IllegalArgumentException("The version and capabilities must not be negative.");
+		if (nextFraming == null)
+			throw new NullPointerException("Error: null framing");
+
+		this.protocolVersion = protocolVersion;
+		this.capabilities = capabilities;
+		this.nextFraming = nextFraming;
+	}
+
+	/**
+	 * Only to be used to get an object for desterlisation
+	 * 
+	 * @since 1.0
+	 */
+	public HelloMessage() {
+		super(ResponseCode.SEND_DATA);
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.HELLO;
+	}
+
+	@Override
+	public int getLength() {
+		return 1 + VarInts.length(this.protocolVersion) + VarInts.length(this.capabilities) + 1;
+	}
+
+	@Override
+	public void encodeInto(ByteBuffer buffer) {
+		buffer.put(super.getBaseHeader());
+		VarInts.put(buffer, this.protocolVersion);
+		VarInts.put(buffer, this.capabilities);
+		buffer.put((byte) this.nextFraming.ordinal());
+	}
+
+	/**
+	 * Reads the message from the buffer's position to its limit into this object,
+	 * the position is moved to the end of the message
+	 * 
+	 * @param buffer -> raw data
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.0
+	 */
+	public void decodeFrom(ByteBuffer buffer) throws IOException {
+		super.checkHeader(buffer, MIN_LENGTH, MAX_LENGTH);
+		buffer.get();
+
+		int protocolVersion = VarInts.get(buffer);
+		int capabilities = VarInts.get(buffer);
+
+		if (buffer.remaining() != 1)
+			throw new IOException("Error the hello message is the wrong length.");
+
+		int framing = buffer.get() & 0xFF;
+		FramingMode[] modes = FramingMode.values();
+		if (framing >= modes.length)
+			throw new IOException(String.format("The framing byte is not recognised (framing: %d).", framing));
+
+		this.protocolVersion = protocolVersion;
+		this.capabilities = capabilities;
+		this.nextFraming = modes[framing];
+	}
+
+	/**
+	 * @return int -> the sender's protocol version
+	 * @since 1.0
+	 */
+	public int getProtocolVersion() {
+		return this.protocolVersion;
+	}
+
+	/**
+	 * @return int -> the sender's capability bitset
+	 * @since 1.0
+	 */
+	public int getCapabilities() {
+		return this.capabilities;
+	}
+
+	/**
+	 * @return FramingMode -> the framing of the frames sent after this one
+	 * @since 1.0
+	 */
+	public FramingMode getNextFraming() {
+		return this.nextFraming;
+	}
+
+	@Override
+	public String toString() {
+		return "HelloMessage{" +
+				"protocolVersion=" + protocolVersion +
+				", capabilities=" + capabilities +
+				", nextFraming=" + nextFraming +
+				'}';
+	}
+
+}
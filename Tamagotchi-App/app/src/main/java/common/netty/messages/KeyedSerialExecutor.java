@@ -0,0 +1,127 @@
+package common.netty.messages;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks on another executor so that tasks with the same key run one at a
+ * time in the order they were submitted, while tasks with different keys can
+ * run at the same time on different threads.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.MessagesIOHandler#setCallbackExecutor(Executor)
+ */
+public final class KeyedSerialExecutor {
+
+	/**
+	 * A busy key gives up its thread after this many tasks, so that it can't
+	 * starve the other keys of a small pool
+	 */
+	private static final int MAX_TASKS_PER_TURN = 16;
+
+	private final Executor executor;
+
+	/**
+	 * The keys that have tasks queued or running, guarded by itself
+	 */
+	private final Map<Object, SerialQueue> queues = new HashMap<Object, SerialQueue>();
+
+	/**
+	 * The tasks of one key. It is submitted to the executor while it has tasks and
+	 * removed from the map once it runs out.
+	 */
+	private final class SerialQueue implements Runnable {
+
+		private final Object key;
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+		SerialQueue(Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+				Runnable task;
+				synchronized (KeyedSerialExecutor.this.queues) {
+					task = this.tasks.poll();
+					if (task == null) {
+						KeyedSerialExecutor.this.queues.remove(this.key);
+						return;
+					}
+				}
+
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// One bad callback must not stop the rest of the key's tasks
+					e.printStackTrace();
+				}
+			}
+
+			KeyedSerialExecutor.this.submit(this);
+		}
+	}
+
+	/**
+	 * @param executor runs the tasks, usually a thread pool
+	 * @since 1.0
+	 */
+	public KeyedSerialExecutor(Executor executor) {
+		if (executor == null)
+			throw new NullPointerException("Error: null executor");
+
+		this.executor = executor;
+	}
+
+	/**
+	 * Queues the task behind the other tasks with the same key
+	 * 
+	 * @param key  tasks with equal keys run in order, one at a time
+	 * @param task the task to run
+	 * @throws RejectedExecutionException if the executor refuses the task
+	 * @since 1.0
+	 */
+	public void execute(Object key, Runnable task) {
+		SerialQueue queue;
+		synchronized (this.queues) {
+			queue = this.queues.get(key);
+			if (queue != null) {
+				// Already submitted, it will get to this task
+				queue.tasks.add(task);
+				return;
+			}
+
+			queue = new SerialQueue(key);
+			queue.tasks.add(task);
+			this.queues.put(key, queue);
+		}
+
+		this.submit(queue);
+	}
+
+	private void submit(SerialQueue queue) {
+		try {
+			this.executor.execute(queue);
+		} catch (RejectedExecutionException e) {
+			// Drop what is queued so that the key can be submitted again later
+			synchronized (this.queues) {
+				this.queues.remove(queue.key);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return Executor -> the executor the tasks run on
+	 * @since 1.0
+	 */
+	public Executor getExecutor() {
+		return this.executor;
+	}
+
+}
@@ -0,0 +1,120 @@
+package common.netty.messages;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations in nanoseconds. Bucket i counts durations
+ * below 2^(i + 1) ns, so percentiles are accurate to within a factor of two,
+ * which is enough to see where time goes without any locking on the hot path.
+ * 
+ * @author Danny
+ * @version 1.0
+ */
+public final class LatencyHistogram {
+
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos the duration to add, negative durations count as 0
+	 * @since 1.0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+
+		this.buckets.incrementAndGet(BUCKETS - 1 - Long.numberOfLeadingZeros(nanos | 1));
+		this.count.incrementAndGet();
+		this.total.addAndGet(nanos);
+
+		long currentMax;
+		while (nanos > (currentMax = this.max.get()) && !this.max.compareAndSet(currentMax, nanos))
+			;
+	}
+
+	/**
+	 * @return long -> the number of recorded durations
+	 * @since 1.0
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return long -> the longest recorded duration in nanoseconds
+	 * @since 1.0
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * @return long -> the mean recorded duration in nanoseconds, 0 if none
+	 * @since 1.0
+	 */
+	public long getMean() {
+		long count = this.count.get();
+		return count == 0 ? 0 : this.total.get() / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return long -> the upper bound in nanoseconds of the bucket holding the
+	 *         percentile, capped at the max, 0 if nothing is recorded
+	 * @since 1.0
+	 */
+	public long getPercentile(double percentile) {
+		long count = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = this.buckets.get(i);
+			count += snapshot[i];
+		}
+
+		if (count == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank && seen > 0) {
+				long upperBound = i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+				return Math.min(upperBound, this.getMax());
+			}
+		}
+
+		return this.getMax();
+	}
+
+	/**
+	 * Clears every recorded duration
+	 * 
+	 * @since 1.0
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			this.buckets.set(i, 0);
+
+		this.count.set(0);
+		this.total.set(0);
+		this.max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram{" +
+				"count=" + this.getCount() +
+				", meanNanos=" + this.getMean() +
+				", p50Nanos=" + this.getPercentile(50) +
+				", p99Nanos=" + this.getPercentile(99) +
+				", maxNanos=" + this.getMax() +
+				'}';
+	}
+
+}
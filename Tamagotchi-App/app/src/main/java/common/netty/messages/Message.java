@@ -1,6 +1,7 @@
 package common.netty.messages;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import common.netty.messages.ResponseCode;
 import common.netty.messages.MessageType;
@@ -8,18 +9,30 @@ import common.netty.messages.MessageType;
 /**
  * This is the base class for a message. All message subclasses should extend
  * this class and call the constructor that is here when they are made. They
- * should have a method that produces a byte array to represent their message.
- * Each class that extends this must have a desterilisation method
+ * should be able to encode themselves into a ByteBuffer and report their
+ * encoded length. Each class that extends this must have a desterilisation
+ * method that reads from a ByteBuffer positioned at the start of the message
+ * with its limit at the end of the message.
  * 
  * @author Danny
- * @version 1.0
+ * @version 1.2
  */
 public abstract class Message {
 
-	private byte baseHeader;
+	private byte responseBits;
 	public static final byte NIBBLE_BIT_MASK = 0xF;
 	public static final byte BYTE_BIT_MASK = (byte) 0xFF;
 
+	/**
+	 * The conflation key of messages that must all be delivered
+	 */
+	public static final int NO_CONFLATION_KEY = -1;
+
+	/**
+	 * The largest conflation key, the type nibble then an 8 bit sub key
+	 */
+	public static final int MAX_CONFLATION_KEY = 0xFFF;
+
 	/**
 	 * For internal use only. This should be called by the contructor of any class
 	 * that extends this and should create the entire message on the call.
@@ -29,8 +42,7 @@ public abstract class Message {
 	 * @since 1.0
 	 */
 	protected Message(ResponseCode respCode) {
-		this.baseHeader = (byte) ((respCode.getReponseNibble() & NIBBLE_BIT_MASK << 4)
-				+ (this.getMessageType().getTypeNibble() & NIBBLE_BIT_MASK));
+		this.responseBits = (byte) (respCode.getReponseNibble() & NIBBLE_BIT_MASK << 4);
 	}
 
 	/**
@@ -40,18 +52,102 @@ public abstract class Message {
 	public abstract MessageType getMessageType();
 
 	/**
+	 * Worked out on each call, so a subclass can pick its message type after the
+	 * constructor
+	 * 
 	 * @return byte -> the message header as a byte
 	 * @since 1.0
 	 */
 	protected byte getBaseHeader() {
-		return this.baseHeader;
+		return (byte) (this.responseBits + (this.getMessageType().getTypeNibble() & NIBBLE_BIT_MASK));
+	}
+
+	/**
+	 * @return int -> the number of bytes encodeInto will write, including the
+	 *         header
+	 * @since 1.1
+	 */
+	public abstract int getLength();
+
+	/**
+	 * Writes the message (header included) at the buffer's position and advances
+	 * it by getLength() bytes. The buffer must have at least getLength() bytes
+	 * remaining.
+	 * 
+	 * @param buffer -> the buffer to write to
+	 * @since 1.1
+	 */
+	public abstract void encodeInto(ByteBuffer buffer);
+
+	/**
+	 * Messages that only carry the newest value of something return a key for
+	 * that something, so that a newer message with the same key makes an older
+	 * one redundant and the older one can be dropped.
+	 * 
+	 * @return int -> between 0 and MAX_CONFLATION_KEY, or NO_CONFLATION_KEY if
+	 *         every message must be delivered
+	 * @since 1.2
+	 */
+	public int getConflationKey() {
+		return NO_CONFLATION_KEY;
+	}
+
+	/**
+	 * @param subKey what the value is of within the message type, 0 to 255
+	 * @return int -> the conflation key for the sub key of this message's type
+	 * @since 1.2
+	 */
+	protected final int conflationKey(int subKey) {
+		return (this.getMessageType().getTypeNibble() & NIBBLE_BIT_MASK) << 8 | subKey & BYTE_BIT_MASK;
 	}
 
 	/**
+	 * Allocates a new array each call, use encodeInto on hot paths.
+	 * 
 	 * @return byte[] -> this is the byte array of the message.
 	 * @since 1.0
 	 */
-	public abstract byte[] getByteArray();
+	public byte[] getByteArray() {
+		byte[] bytes = new byte[this.getLength()];
+		this.encodeInto(ByteBuffer.wrap(bytes));
+
+		return bytes;
+	}
+
+	/**
+	 * Checks the header and length of the message in the buffer, used by the
+	 * desterlisation methods of the subclasses.
+	 * 
+	 * @param buffer    -> the message, from position to limit
+	 * @param minLength -> the minimum length of the message
+	 * @param maxLength -> the maximum length of the message
+	 * @throws IOException if the length or type is wrong
+	 * @since 1.1
+	 */
+	protected final void checkHeader(ByteBuffer buffer, int minLength, int maxLength) throws IOException {
+		if (buffer == null)
+			throw new NullPointerException("Error: null input");
+
+		int length = buffer.remaining();
+		if (length < minLength || length > maxLength) {
+			if (minLength == maxLength) {
+				throw new IOException(String.format(
+						"Error this message is of the wrong length (%d instead" + " of %d)", length, minLength));
+			}
+
+			throw new IOException(String.format(
+					"Error this message is of the wrong length (%d instead" + " of between %d and %d)", length,
+					minLength, maxLength));
+		}
+
+		byte type = (byte) (buffer.get(buffer.position()) & NIBBLE_BIT_MASK);
+
+		if (type != getMessageType().getTypeNibble()) {
+			throw new IOException(
+					String.format("Error this message is of the wrong " + "type (type %d instead of expected type %d).",
+							type, getMessageType().getTypeNibble()));
+		}
+	}
 
 	/**
 	 * @param data is the bytes array to get the message type from
@@ -59,17 +155,22 @@ public abstract class Message {
 	 * @since 1.0
 	 */
 	public static MessageType getMessageType(byte[] data) throws IOException {
-		if (data.length < 1) {
+		return getMessageType(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Reads the message type without moving the buffer's position
+	 * 
+	 * @param buffer is the message to get the message type from
+	 * @return the message type
+	 * @since 1.1
+	 */
+	public static MessageType getMessageType(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < 1) {
 			throw new IOException("Invalid Length");
 		}
 
-		byte type = (byte) ((byte) data[0] & NIBBLE_BIT_MASK);
-
-		for (MessageType m : MessageType.values())
-			if (m.getTypeNibble() == type)
-				return m;
-
-		return null;
+		return MessageType.fromTypeNibble(buffer.get(buffer.position()));
 	}
 
 }
@@ -0,0 +1,27 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes and reacts to one type of message. Registered with a
+ * MessagesIOHandler against a message type, it is called on the thread that
+ * read the frame. Implementations should reuse their decoder rather than
+ * allocate one per message.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.MessagesIOHandler#registerHandler(MessageType,
+ *      MessageHandler)
+ */
+public interface MessageHandler {
+
+	/**
+	 * @param message the message, from position to limit. It is only valid for the
+	 *                duration of the call.
+	 * @throws IOException if the message is invalid
+	 * @since 1.0
+	 */
+	void onMessage(ByteBuffer message) throws IOException;
+
+}
@@ -0,0 +1,27 @@
+package common.netty.messages;
+
+/**
+ * The lanes of an OutboundMessageQueue, a lane is only drained once every
+ * higher lane is empty
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.MessagesIOHandler#setPriority(MessageType,
+ *      MessagePriority)
+ */
+public enum MessagePriority {
+
+	/**
+	 * Events the user must see promptly, like a death or a notification
+	 */
+	CRITICAL,
+	/**
+	 * Everything that is neither critical nor bulk
+	 */
+	NORMAL,
+	/**
+	 * High rate updates where a little delay does not matter
+	 */
+	BULK;
+
+}
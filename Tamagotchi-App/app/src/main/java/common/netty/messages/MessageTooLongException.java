@@ -0,0 +1,27 @@
+package common.netty.messages;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a message is too long for the framing of the link it is sent
+ * on, nothing of it has been written and the link can still be used
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.FramingMode#CHECKED_MAX_LENGTH
+ */
+public class MessageTooLongException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message the message that was refused
+	 * @param mode    the framing it is too long for
+	 * @since 1.0
+	 */
+	MessageTooLongException(Message message, FramingMode mode) {
+		super(String.format("Error: a %d byte %s message is too long for %s framing.", message.getLength(),
+				message.getMessageType(), mode));
+	}
+
+}
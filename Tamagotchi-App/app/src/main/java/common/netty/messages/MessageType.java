@@ -3,7 +3,7 @@ package common.netty.messages;
 /**
  * Contains the message types
  * @author Danny
- * @version 1.1
+ * @version 1.4
  */
 public enum MessageType {
 
@@ -12,7 +12,25 @@ public enum MessageType {
 	SIGNAL_STRENGTH_RESP((byte) 2),
 	SIGNAL_STRENGTH_REQ((byte) 3),
 	DEAD_ROBOT((byte) 4),
-	CUBE_STATE_UPDATE((byte) 5);
+	CUBE_STATE_UPDATE((byte) 5),
+	EMOTION_SNAPSHOT((byte) 6),
+	NOTIFY_USER_UTF8((byte) 7),
+	PING((byte) 8),
+	ACK((byte) 9),
+	SEQUENCED((byte) 10),
+	HELLO((byte) 11);
+
+	/**
+	 * The number of type nibbles
+	 */
+	public static final int TYPE_COUNT = 16;
+
+	private static final MessageType[] BY_NIBBLE = new MessageType[TYPE_COUNT];
+
+	static {
+		for (MessageType m : values())
+			BY_NIBBLE[m.typeNibble & 0xF] = m;
+	}
 
 	private byte typeNibble;
 
@@ -21,7 +39,21 @@ public enum MessageType {
 	}
 
 	public void setTypeNibble(byte typeNibble) {
-		this.typeNibble = typeNibble;
+		synchronized (BY_NIBBLE) {
+			if (BY_NIBBLE[this.typeNibble & 0xF] == this)
+				BY_NIBBLE[this.typeNibble & 0xF] = null;
+			this.typeNibble = typeNibble;
+			BY_NIBBLE[typeNibble & 0xF] = this;
+		}
+	}
+
+	/**
+	 * @param typeNibble the type nibble of a message header
+	 * @return the message type with the nibble, or null if there isn't one
+	 * @since 1.2
+	 */
+	public static MessageType fromTypeNibble(int typeNibble) {
+		return BY_NIBBLE[typeNibble & 0xF];
 	}
 
 	private MessageType(byte typeNibble) {
@@ -0,0 +1,129 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread that serves any number of non-blocking channels through one
+ * selector, so that a connection does not need a thread parked on a read.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.ChannelMessagesIOHandler
+ */
+public final class MessagesEventLoop {
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private volatile boolean running;
+	private Thread thread;
+
+	/**
+	 * @throws IOException if the selector can't be opened
+	 * @since 1.0
+	 */
+	public MessagesEventLoop() throws IOException {
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Start the event loop thread if it isn't already active
+	 * 
+	 * @since 1.0
+	 */
+	public synchronized void start() {
+		if (this.running)
+			return;
+
+		this.running = true;
+		this.thread = new Thread("Messages event loop.") {
+			@Override
+			public void run() {
+				loop();
+			}
+		};
+
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Stops the event loop thread, the channels are left open
+	 * 
+	 * @since 1.0
+	 */
+	public synchronized void stop() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+	/**
+	 * @return boolean of whether the thread is running
+	 * @since 1.0
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * Runs the task on the event loop thread, keys must only be changed from
+	 * there
+	 * 
+	 * @param task to run
+	 * @since 1.0
+	 */
+	void execute(Runnable task) {
+		this.tasks.add(task);
+		this.selector.wakeup();
+	}
+
+	/**
+	 * @return boolean of whether this is called from the event loop thread
+	 * @since 1.0
+	 */
+	boolean inEventLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	Selector getSelector() {
+		return this.selector;
+	}
+
+	private void loop() {
+		while (this.running) {
+			try {
+				this.selector.select();
+			} catch (IOException e) {
+				e.printStackTrace();
+				this.running = false;
+				break;
+			}
+
+			Runnable task;
+			while ((task = this.tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+
+			Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				try {
+					((SelectionHandler) key.attachment()).onSelected(key);
+				} catch (RuntimeException e) {
+					// One bad callback must not stop every other connection
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+}
@@ -1,12 +1,9 @@
 package common.netty.messages;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 import common.EmotionsInterface;
 
@@ -15,15 +12,20 @@ import common.EmotionsInterface;
  * functions for when it receives the different message types
  * 
  * @author Danny
- * @version 1.1
+ * @version 1.3
+ * @see common.netty.messages.AbstractMessagesIOHandler
  */
-public abstract class MessagesIOHandler {
+public abstract class MessagesIOHandler extends AbstractMessagesIOHandler {
 
-	protected EmotionsInterface emotionsInterface;
-	private DataInputStream inputStream;
-	private DataOutputStream outputStream;
+	private volatile FrameReader frameReader;
+	private FrameWriter frameWriter;
 	public static final int PORT = 5421;
-	final private boolean[] pollingThreadActive = new boolean[1];
+
+	/**
+	 * The thread reading the streams, a thread left over from an earlier
+	 * connection sees that it is no longer this and stops
+	 */
+	private volatile Thread pollingThread;
 
 	/**
 	 * Alternate constructor for implementation
@@ -33,7 +35,7 @@ public abstract class MessagesIOHandler {
 	 * @since 1.0
 	 */
 	protected MessagesIOHandler(EmotionsInterface emotionsInterface) {
-		this.emotionsInterface = emotionsInterface;
+		super(emotionsInterface);
 	}
 
 	/**
@@ -46,8 +48,8 @@ public abstract class MessagesIOHandler {
 	 * @since 1.0
 	 */
 	public MessagesIOHandler(InputStream inputStream, OutputStream outputStream, EmotionsInterface emotionsInterface) {
+		super(emotionsInterface);
 		this.setIOStreams(inputStream, outputStream);
-		this.emotionsInterface = emotionsInterface;
 
 		// Start bluetooth polling thread
 		this.startPollingThread();
@@ -61,8 +63,11 @@ public abstract class MessagesIOHandler {
 	 * @since 1.0
 	 */
 	public void setIOStreams(InputStream inputStream, OutputStream outputStream) {
-		this.inputStream = new DataInputStream(new BufferedInputStream(inputStream));
-		this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
+		synchronized (this.writeLock) {
+			this.frameWriter = new FrameWriter(outputStream);
+			this.onLinkChanged();
+			this.frameReader = new FrameReader(inputStream, this.getTrafficMetrics());
+		}
 	}
 
 	/**
@@ -70,19 +75,18 @@ public abstract class MessagesIOHandler {
 	 * 
 	 * @since 1.0
 	 */
-	public final synchronized void startPollingThread() {
-		if (!this.pollingThreadActive[0]) {
-			this.pollingThreadActive[0] = true;
-
-			Thread pollingThread = new Thread("Bluetooth polling thread.") {
+	public synchronized void startPollingThread() {
+		if (this.pollingThread == null) {
+			this.pollingThread = new Thread("Bluetooth polling thread.") {
 				@Override
 				public void run() {
-					while (pollingThreadActive[0]) {
+					while (pollingThread == this) {
 						try {
 							poll();
 						} catch (IOException e) {
-							pollingThreadActive[0] = false;
-							onIOException(e);
+							// Already reported if the thread was stopped, e.g. by a stalled peer
+							if (stopPollingThread(this))
+								onIOException(e);
 						}
 
 						Thread.yield();
@@ -90,8 +94,8 @@ public abstract class MessagesIOHandler {
 				}
 			};
 
-			pollingThread.setDaemon(true);
-			pollingThread.start();
+			this.pollingThread.setDaemon(true);
+			this.pollingThread.start();
 		}
 	}
 
@@ -100,16 +104,30 @@ public abstract class MessagesIOHandler {
 	 * 
 	 * @since 1.0
 	 */
-	public final void stopPollingThread() {
-		this.pollingThreadActive[0] = false;
+	public void stopPollingThread() {
+		this.pollingThread = null;
+	}
+
+	/**
+	 * Stops the polling thread if it is still the given thread
+	 * 
+	 * @return boolean -> true if the thread was stopped by this call
+	 * @since 1.2
+	 */
+	private synchronized boolean stopPollingThread(Thread thread) {
+		if (this.pollingThread != thread)
+			return false;
+
+		this.pollingThread = null;
+		return true;
 	}
 
 	/**
 	 * @return boolean of whether the thread is running
 	 * @since 1.0
 	 */
-	public final boolean isRunning() {
-		return this.pollingThreadActive[0];
+	public boolean isRunning() {
+		return this.pollingThread != null;
 	}
 
 	/**
@@ -120,69 +138,43 @@ public abstract class MessagesIOHandler {
 	 * @since 1.0
 	 */
 	private final void poll() throws IOException {
-		// Read input
-		int length = this.inputStream.readInt();
-
-		byte[] data = new byte[length];
-		for (int i = 0; i < length; i++)
-			data[i] = inputStream.readByte();
-
-		try {
-			switch (Message.getMessageType(data)) {
-			case FIELD_CHANGE:
-				// This calls the setter which in turn will call the onUpdate method
-				new EmotionUpdateMessage().fromBytesArray(data, this.emotionsInterface);
-				break;
-
-			case NOTIFY_USER:
-				UserNotification notif = new UserNotification("", "");
-
-				new NotifyUserMessage().fromBytesArray(data, notif);
-
-				this.onNotification(notif);
-				break;
-
-			case SIGNAL_STRENGTH_RESP:
-				this.onSignalStrength((new SignalStrengthMessage()).fromBytes(data));
-				break;
+		// Read input, the mode is read again after every read so that a mode set
+		// while this thread was blocked applies to the bytes that woke it
+		FrameReader reader = this.frameReader;
+		ByteBuffer frame;
+		while ((frame = reader.bufferedFrame(this.getInboundFramingMode())) == null) {
+			// Acknowledge a burst once it has all been read, before blocking
+			this.sendDueAck();
+			reader.fill();
+		}
 
-			case SIGNAL_STRENGTH_REQ:
-				this.onSignalStrengthReq();
-				break;
+		this.dispatchLinkFrame(frame);
+	}
 
-			case DEAD_ROBOT:
-				this.onDeathMessage();
-				break;
+	/**
+	 * Adds the frame to the frame writer's buffer
+	 * 
+	 * @throws IOException if there are no streams yet
+	 * @since 1.3
+	 */
+	@Override
+	void writeFrame(Message message, FramingMode mode) throws IOException {
+		if (this.frameWriter == null)
+			throw new IOException("Error no output stream has been set.");
 
-			default:
-				System.out.println("ERROR: Bad message type not found.");
-				break;
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		this.frameWriter.write(message, mode);
 	}
 
 	/**
-	 * This method is blocking and will send the desired message to the user, an
-	 * exception will be thrown if the socket is interrupted or if there is no
-	 * socket
+	 * Flushes the frame writer, must hold the write lock
 	 * 
-	 * @param message to send
 	 * @throws IOException
-	 * @since 1.0
+	 * @since 1.1
 	 */
-	public synchronized void sendMessage(Message message) throws IOException {
-		if (this.outputStream == null)
-			throw new IOException();
-
-		byte[] data = message.getByteArray();
-
+	@Override
+	void flushFrames() throws IOException {
 		try {
-			this.outputStream.writeInt(data.length);
-			for (int i = 0; i < data.length; i++)
-				this.outputStream.writeByte(data[i]);
-			this.outputStream.flush();
+			this.frameWriter.flush();
 		} catch (IOException e) {
 			e.printStackTrace();
 			this.onIOException(null);
@@ -190,35 +182,4 @@ public abstract class MessagesIOHandler {
 		}
 	}
 
-	/**
-	 * This method should be overriden by the implementation of the this class. This
-	 * method will called when a user notification event is called. It should be set
-	 * to an empty function if the implementation does not wupport user
-	 * notifications (robot)
-	 * 
-	 * @param notification
-	 * @since 1.0
-	 */
-	protected abstract void onNotification(UserNotification notification);
-
-	/**
-	 * When the polling thread has an exception this method is called. This runs on
-	 * the same thread as the polling thread
-	 * 
-	 * @since 1.0
-	 */
-	protected abstract void onIOException(IOException e);
-
-	/**
-	 * Override this method to react to signal strength receive.
-	 * 
-	 * @param strength
-	 * @since 1.1
-	 */
-	protected abstract void onSignalStrength(double strength);
-
-	protected abstract void onSignalStrengthReq();
-
-	protected abstract void onDeathMessage();
-
 }
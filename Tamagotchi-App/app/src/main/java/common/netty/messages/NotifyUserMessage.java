@@ -1,17 +1,27 @@
 package common.netty.messages;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
- * This is for sterlisation and desterlisation of user notify messages
+ * This is for sterlisation and desterlisation of user notify messages. The
+ * strings are sent either as UTF-16 (NOTIFY_USER, understood by every robot) or
+ * as UTF-8 (NOTIFY_USER_UTF8), which is about half the size for plain text.
  * 
  * @author danny
- * @version 1.0
+ * @version 1.1
  */
 public final class NotifyUserMessage extends Message {
 
 	private String notifTitle, notifMessage;
 	private final int BASE_LENGTH = 1 + 2 * Integer.BYTES;;
+	private boolean utf8;
+	private int titleUtf8Length, messageUtf8Length;
+
+	/**
+	 * Only used when desterlising UTF-8 messages
+	 */
+	private StringPool stringPool;
 
 	@Override
 	public String toString() {
@@ -32,6 +42,18 @@ public final class NotifyUserMessage extends Message {
 	 *      Page</a>
 	 */
 	public NotifyUserMessage(UserNotification notification) {
+		this(notification, false);
+	}
+
+	/**
+	 * only to be used for sterlisation
+	 * 
+	 * @param notification -> the notification
+	 * @param utf8         -> true to send the strings as UTF-8, the receiver must
+	 *                     support NOTIFY_USER_UTF8
+	 * @since 1.1
+	 */
+	public NotifyUserMessage(UserNotification notification, boolean utf8) {
 		this();
 
 		if (notification.getNotifTitle() == null || notification.getNotifMessage() == null)
@@ -39,6 +61,12 @@ public final class NotifyUserMessage extends Message {
 
 		this.notifTitle = notification.getNotifTitle();
 		this.notifMessage = notification.getNotifMessage();
+		this.utf8 = utf8;
+
+		if (utf8) {
+			this.titleUtf8Length = utf8Length(this.notifTitle);
+			this.messageUtf8Length = utf8Length(this.notifMessage);
+		}
 	}
 
 	/**
@@ -52,40 +80,46 @@ public final class NotifyUserMessage extends Message {
 
 	@Override
 	public MessageType getMessageType() {
-		return MessageType.NOTIFY_USER;
+		return this.utf8 ? MessageType.NOTIFY_USER_UTF8 : MessageType.NOTIFY_USER;
 	}
 
 	@Override
-	public byte[] getByteArray() {
-		int lenTitle = this.notifTitle.length(), lenMessage = this.notifMessage.length();
+	public int getLength() {
+		if (this.utf8) {
+			// 1 byte for the header, 2 variable length byte counts then the strings
+			return 1 + VarInts.length(this.titleUtf8Length) + VarInts.length(this.messageUtf8Length)
+					+ this.titleUtf8Length + this.messageUtf8Length;
+		}
 
 		// 1 byte for the header, 2 length integers then the strings
-		byte[] bytes = new byte[BASE_LENGTH + (lenTitle + lenMessage) * Character.BYTES];
-		bytes[0] = super.getBaseHeader();
+		return BASE_LENGTH + (this.notifTitle.length() + this.notifMessage.length()) * Character.BYTES;
+	}
 
-		// Add lengths
-		for (int i = 0; i < Integer.BYTES; i++)
-			bytes[1 + i] = (byte) ((lenTitle >> (i * 8)) & BYTE_BIT_MASK);
+	@Override
+	public void encodeInto(ByteBuffer buffer) {
+		if (this.utf8) {
+			buffer.put(super.getBaseHeader());
+			VarInts.put(buffer, this.titleUtf8Length);
+			VarInts.put(buffer, this.messageUtf8Length);
+			putUtf8(buffer, this.notifTitle);
+			putUtf8(buffer, this.notifMessage);
+			return;
+		}
 
-		for (int i = 0; i < Integer.BYTES; i++)
-			bytes[1 + Integer.BYTES + i] = (byte) ((lenMessage >> (i * 8)) & BYTE_BIT_MASK);
+		int lenTitle = this.notifTitle.length(), lenMessage = this.notifMessage.length();
 
-		// Add strings
-		char[] titleArr = this.notifTitle.toCharArray(), messageArr = this.notifMessage.toCharArray();
+		buffer.put(super.getBaseHeader());
 
-		for (int i = 0; i < lenTitle; i++) {
-			int baseIndex = BASE_LENGTH + i * Character.BYTES;
-			bytes[baseIndex] = (byte) ((byte) titleArr[i] & BYTE_BIT_MASK);
-			bytes[baseIndex + 1] = (byte) ((byte) (titleArr[i] >> 8) & BYTE_BIT_MASK);
-		}
+		// Add lengths
+		putLittleEndian(buffer, lenTitle, Integer.BYTES);
+		putLittleEndian(buffer, lenMessage, Integer.BYTES);
 
-		for (int i = 0; i < lenMessage; i++) {
-			int baseIndex = BASE_LENGTH + lenTitle * Character.BYTES + i * Character.BYTES;
-			bytes[baseIndex] = (byte) ((byte) messageArr[i] & BYTE_BIT_MASK);
-			bytes[baseIndex + 1] = (byte) ((byte) (messageArr[i] >> 8) & BYTE_BIT_MASK);
-		}
+		// Add strings
+		for (int i = 0; i < lenTitle; i++)
+			putLittleEndian(buffer, this.notifTitle.charAt(i), Character.BYTES);
 
-		return bytes;
+		for (int i = 0; i < lenMessage; i++)
+			putLittleEndian(buffer, this.notifMessage.charAt(i), Character.BYTES);
 	}
 
 	/**
@@ -99,58 +133,159 @@ public final class NotifyUserMessage extends Message {
 	 * @since 1.0
 	 */
 	public void fromBytesArray(byte[] bytes, UserNotification dest) throws IOException {
-		// Check for valid message
 		if (bytes == null)
 			throw new NullPointerException("Error: null input");
 
-		byte type = (byte) (bytes[0] & NIBBLE_BIT_MASK);
+		this.decodeFrom(ByteBuffer.wrap(bytes), dest);
+	}
 
-		if (bytes.length < BASE_LENGTH) {
-			throw new IOException(
-					String.format("Error this message is of the wrong length (%d instead" + " of at least length %d)",
-							bytes.length, BASE_LENGTH));
-		}
+	/**
+	 * This will desterlise the message from the buffer's position to its limit to
+	 * the UserNotification object sent to it. The buffer's position is moved to
+	 * the end of the message.
+	 * 
+	 * @param buffer           -> the raw data to desterlise
+	 * @param UserNotification -> the object to write the data to after
+	 *                         desterlisation
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.1
+	 */
+	public void decodeFrom(ByteBuffer buffer, UserNotification dest) throws IOException {
+		if (buffer == null)
+			throw new NullPointerException("Error: null input");
 
-		if (type != getMessageType().getTypeNibble()) {
-			throw new IOException(
-					String.format("Error this message is of the wrong " + "type (type %d instead of expected type %d).",
-							type, getMessageType().getTypeNibble()));
-		}
+		// The type picks the encoding, this decoder reads either
+		this.utf8 = buffer.hasRemaining()
+				&& MessageType.fromTypeNibble(buffer.get(buffer.position())) == MessageType.NOTIFY_USER_UTF8;
 
-		// Get lengths
-		int lenTitle = 0, lenMessage = 0;
+		if (this.utf8) {
+			this.decodeUtf8(buffer, dest);
+			return;
+		}
 
-		for (int i = 0; i < Integer.BYTES; i++)
-			lenTitle |= bytes[1 + i] << (8 * i);
+		// Check for valid message
+		super.checkHeader(buffer, BASE_LENGTH, Integer.MAX_VALUE);
+		final int length = buffer.remaining();
+		buffer.get();
 
-		for (int i = 0; i < Integer.BYTES; i++)
-			lenMessage |= bytes[1 + Integer.BYTES + i] << (8 * i);
+		// Get lengths
+		int lenTitle = getLittleEndian(buffer, Integer.BYTES);
+		int lenMessage = getLittleEndian(buffer, Integer.BYTES);
 
 		// Check lengths make sense
-		final int len = BASE_LENGTH + (lenTitle + lenMessage) * Character.BYTES;
-		if (bytes.length != len) {
+		if (lenTitle < 0 || lenMessage < 0
+				|| (long) BASE_LENGTH + ((long) lenTitle + lenMessage) * Character.BYTES != length) {
 			throw new IOException(String.format("Error this message is of the wrong length (%d instead" + " of %d)",
-					bytes.length, len));
+					length, BASE_LENGTH + ((long) lenTitle + lenMessage) * Character.BYTES));
 		}
 
 		// Read chars
 		char[] titleArr = new char[lenTitle], messageArr = new char[lenMessage];
 
-		for (int i = 0; i < lenTitle; i++) {
-			int baseIndex = BASE_LENGTH + i * Character.BYTES;
-			titleArr[i] = (char) bytes[baseIndex];
-			titleArr[i] |= (char) bytes[baseIndex + 1] << 8;
-		}
+		for (int i = 0; i < lenTitle; i++)
+			titleArr[i] = (char) getLittleEndian(buffer, Character.BYTES);
 
-		for (int i = 0; i < lenMessage; i++) {
-			int baseIndex = BASE_LENGTH + lenTitle * Character.BYTES + i * Character.BYTES;
-			messageArr[i] = (char) bytes[baseIndex];
-			messageArr[i] |= (char) bytes[baseIndex + 1] << 8;
-		}
+		for (int i = 0; i < lenMessage; i++)
+			messageArr[i] = (char) getLittleEndian(buffer, Character.BYTES);
 
 		// Put strings in object
 		dest.setNotifTitle(new String(titleArr));
 		dest.setNotifMessage(new String(messageArr));
 	}
 
+	/**
+	 * Reads a NOTIFY_USER_UTF8 message. Recently seen strings are shared rather
+	 * than decoded again.
+	 * 
+	 * @since 1.1
+	 */
+	private void decodeUtf8(ByteBuffer buffer, UserNotification dest) throws IOException {
+		super.checkHeader(buffer, 3, Integer.MAX_VALUE);
+		buffer.get();
+
+		int lenTitle = VarInts.get(buffer);
+		int lenMessage = VarInts.get(buffer);
+
+		if ((long) lenTitle + lenMessage != buffer.remaining()) {
+			throw new IOException(String.format("Error this message is of the wrong length (%d bytes of text instead"
+					+ " of %d)", buffer.remaining(), (long) lenTitle + lenMessage));
+		}
+
+		if (this.stringPool == null)
+			this.stringPool = new StringPool();
+
+		dest.setNotifTitle(this.stringPool.get(buffer, lenTitle));
+		dest.setNotifMessage(this.stringPool.get(buffer, lenMessage));
+	}
+
+	/**
+	 * @return the number of bytes putUtf8 writes for the string
+	 */
+	private static int utf8Length(String string) {
+		int length = 0;
+
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+					&& Character.isLowSurrogate(string.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// Unpaired surrogates are sent as '?'
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+
+		return length;
+	}
+
+	/**
+	 * Encodes the string as UTF-8 directly into the buffer
+	 */
+	private static void putUtf8(ByteBuffer buffer, String string) {
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+					&& Character.isLowSurrogate(string.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, string.charAt(++i));
+				buffer.put((byte) (0xF0 | codePoint >> 18));
+				buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+
+	private static void putLittleEndian(ByteBuffer buffer, int value, int bytes) {
+		for (int i = 0; i < bytes; i++)
+			buffer.put((byte) ((value >> (i * 8)) & BYTE_BIT_MASK));
+	}
+
+	private static int getLittleEndian(ByteBuffer buffer, int bytes) {
+		int value = 0;
+		for (int i = 0; i < bytes; i++)
+			value |= (buffer.get() & 0xFF) << (8 * i);
+
+		return value;
+	}
+
 }
@@ -0,0 +1,598 @@
+package common.netty.messages;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded queue of messages waiting to be sent. Any number of threads can add
+ * to it and a single writer thread drains it. Each message goes in the lane of
+ * its type's priority and a lane is only drained once every higher lane is
+ * empty, so a critical message never waits behind bulk traffic that was queued
+ * before it. A type can also have a send policy, which holds its keyed messages
+ * back to be merged and limits how fast they are released to the lanes.
+ * 
+ * @author Danny
+ * @version 1.2
+ * @see common.netty.messages.MessagesIOHandler#sendAsync(Message)
+ */
+public final class OutboundMessageQueue {
+
+	public static final int DEFAULT_CAPACITY = 256;
+	private static final MessagePriority[] LANES = MessagePriority.values();
+
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = this.lock.newCondition();
+	private final Condition notFull = this.lock.newCondition();
+
+	/**
+	 * One ring per lane with the time each message was queued, all guarded by lock
+	 */
+	private final Message[][] rings;
+	private final long[][] queuedAt;
+	private final int[] heads, counts;
+	private int totalCount;
+	private int highWaterMark;
+	private long enqueuedCount, droppedCount, rejectedCount;
+
+	private final MessagePriority[] priorities = new MessagePriority[MessageType.TYPE_COUNT];
+	private final LatencyHistogram[] latencies = new LatencyHistogram[LANES.length];
+
+	/**
+	 * The send policy and token bucket of each type nibble, and the keyed messages
+	 * held back by the policies with the time the first of each was held, all
+	 * guarded by lock
+	 */
+	private final SendPolicy[] sendPolicies = new SendPolicy[MessageType.TYPE_COUNT];
+	private final double[] tokens = new double[MessageType.TYPE_COUNT];
+	private final long[] refilledAt = new long[MessageType.TYPE_COUNT];
+	private final Message[] held = new Message[Message.MAX_CONFLATION_KEY + 1];
+	private final long[] heldSince = new long[Message.MAX_CONFLATION_KEY + 1];
+	private final int[] heldKeys = new int[Message.MAX_CONFLATION_KEY + 1];
+	private int heldCount;
+	private long coalescedCount, throttledCount;
+
+	/**
+	 * Creates a queue with the default capacity that blocks when full
+	 * 
+	 * @since 1.0
+	 */
+	public OutboundMessageQueue() {
+		this(DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+	}
+
+	/**
+	 * @param capacity the maximum number of queued messages in each lane
+	 * @param policy   what to do when a lane is full
+	 * @since 1.0
+	 */
+	public OutboundMessageQueue(int capacity, OverflowPolicy policy) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1.");
+		if (policy == null)
+			throw new NullPointerException("Error: null policy");
+
+		this.capacity = capacity;
+		this.policy = policy;
+		this.rings = new Message[LANES.length][capacity];
+		this.queuedAt = new long[LANES.length][capacity];
+		this.heads = new int[LANES.length];
+		this.counts = new int[LANES.length];
+
+		for (int i = 0; i < LANES.length; i++)
+			this.latencies[i] = new LatencyHistogram();
+
+		for (int i = 0; i < MessageType.TYPE_COUNT; i++)
+			this.priorities[i] = MessagePriority.NORMAL;
+
+		this.setPriority(MessageType.DEAD_ROBOT, MessagePriority.CRITICAL);
+		this.setPriority(MessageType.NOTIFY_USER, MessagePriority.CRITICAL);
+		this.setPriority(MessageType.NOTIFY_USER_UTF8, MessagePriority.CRITICAL);
+		this.setPriority(MessageType.PING, MessagePriority.CRITICAL);
+		this.setPriority(MessageType.ACK, MessagePriority.CRITICAL);
+		this.setPriority(MessageType.FIELD_CHANGE, MessagePriority.BULK);
+		this.setPriority(MessageType.CUBE_STATE_UPDATE, MessagePriority.BULK);
+	}
+
+	/**
+	 * Sets the lane that messages of a type are queued in, messages already queued
+	 * stay where they are
+	 * 
+	 * @param type     the message type
+	 * @param priority the lane for the type
+	 * @since 1.1
+	 */
+	public void setPriority(MessageType type, MessagePriority priority) {
+		if (priority == null)
+			throw new NullPointerException("Error: null priority");
+
+		this.lock.lock();
+		try {
+			this.priorities[type.getTypeNibble() & Message.NIBBLE_BIT_MASK] = priority;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Sets how messages of a type are merged and rate limited, messages already
+	 * in a lane are sent as they are
+	 * 
+	 * @param type   the message type
+	 * @param policy the policy, or null to queue every message straight away
+	 * @since 1.2
+	 */
+	public void setSendPolicy(MessageType type, SendPolicy policy) {
+		int typeNibble = type.getTypeNibble() & Message.NIBBLE_BIT_MASK;
+
+		this.lock.lock();
+		try {
+			this.sendPolicies[typeNibble] = policy;
+			this.tokens[typeNibble] = policy == null ? 0 : policy.getBurst();
+			this.refilledAt[typeNibble] = System.nanoTime();
+
+			// Held messages of the type are released on the writer's next look
+			if (this.heldCount > 0)
+				this.notEmpty.signal();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @param type the message type
+	 * @return SendPolicy -> the type's send policy, or null if it doesn't have one
+	 * @since 1.2
+	 */
+	public SendPolicy getSendPolicy(MessageType type) {
+		this.lock.lock();
+		try {
+			return this.sendPolicies[type.getTypeNibble() & Message.NIBBLE_BIT_MASK];
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @param type the message type
+	 * @return MessagePriority -> the lane that messages of the type are queued in
+	 * @since 1.1
+	 */
+	public MessagePriority getPriority(MessageType type) {
+		this.lock.lock();
+		try {
+			return this.priorities[type.getTypeNibble() & Message.NIBBLE_BIT_MASK];
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the message to its lane, applying the overflow policy if the lane is
+	 * full. If its type has a send policy a keyed message is held back instead,
+	 * replacing any held message with the same key, and a message without a key
+	 * is refused once the type's rate is used up.
+	 * 
+	 * @param message to queue
+	 * @return boolean -> false if the message was not queued
+	 * @throws InterruptedException if interrupted while blocked
+	 * @since 1.0
+	 */
+	public boolean offer(Message message) throws InterruptedException {
+		if (message == null)
+			throw new NullPointerException("Error: null message");
+
+		this.lock.lockInterruptibly();
+		try {
+			int typeNibble = message.getMessageType().getTypeNibble() & Message.NIBBLE_BIT_MASK;
+			SendPolicy sendPolicy = this.sendPolicies[typeNibble];
+
+			if (sendPolicy != null) {
+				long now = System.nanoTime();
+				int key = message.getConflationKey();
+
+				if (sendPolicy.isLatestWins() && key >= 0 && key <= Message.MAX_CONFLATION_KEY) {
+					if (this.held[key] != null) {
+						this.coalescedCount++;
+					} else {
+						this.heldKeys[this.heldCount++] = key;
+						this.heldSince[key] = now;
+					}
+
+					this.held[key] = message;
+					this.enqueuedCount++;
+
+					// The writer works out when to release it
+					this.notEmpty.signal();
+					return true;
+				}
+
+				if (sendPolicy.isRateLimited() && !this.takeToken(typeNibble, sendPolicy, now)) {
+					this.throttledCount++;
+					return false;
+				}
+			}
+
+			int lane = this.priorities[typeNibble].ordinal();
+
+			while (this.counts[lane] == this.capacity) {
+				switch (this.policy) {
+				case BLOCK:
+					this.notFull.await();
+					break;
+
+				case DROP_OLDEST:
+					this.rings[lane][this.heads[lane]] = null;
+					this.heads[lane] = (this.heads[lane] + 1) % this.capacity;
+					this.counts[lane]--;
+					this.totalCount--;
+					this.droppedCount++;
+					break;
+
+				default:
+					this.rejectedCount++;
+					return false;
+				}
+			}
+
+			int tail = (this.heads[lane] + this.counts[lane]) % this.capacity;
+			this.rings[lane][tail] = message;
+			this.queuedAt[lane][tail] = System.nanoTime();
+			this.counts[lane]++;
+			this.totalCount++;
+			this.enqueuedCount++;
+			if (this.totalCount > this.highWaterMark)
+				this.highWaterMark = this.totalCount;
+
+			this.notEmpty.signal();
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for at least one message then moves as many as fit into the batch,
+	 * highest lane first and in order within a lane
+	 * 
+	 * @param batch    to fill from the start
+	 * @param queuedAt filled with the System.nanoTime each message was queued at
+	 * @return int -> the number of messages put in the batch
+	 * @throws InterruptedException if interrupted while waiting
+	 * @since 1.1
+	 */
+	int drainTo(Message[] batch, long[] queuedAt) throws InterruptedException {
+		this.lock.lockInterruptibly();
+		try {
+			while (true) {
+				long wait = this.releaseHeld(System.nanoTime());
+				if (this.totalCount > 0)
+					break;
+
+				if (wait == Long.MAX_VALUE)
+					this.notEmpty.await();
+				else
+					this.notEmpty.awaitNanos(wait);
+			}
+
+			int drained = 0;
+			for (int lane = 0; lane < LANES.length && drained < batch.length; lane++) {
+				Message[] ring = this.rings[lane];
+
+				while (this.counts[lane] > 0 && drained < batch.length) {
+					int head = this.heads[lane];
+					batch[drained] = ring[head];
+					queuedAt[drained] = this.queuedAt[lane][head];
+					ring[head] = null;
+
+					this.heads[lane] = (head + 1) % this.capacity;
+					this.counts[lane]--;
+					drained++;
+				}
+			}
+
+			this.totalCount -= drained;
+			this.notFull.signalAll();
+			return drained;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the held messages whose coalescing window is over to their lanes, as
+	 * long as their type has a token. A message whose lane has no room stays held,
+	 * as the writer thread must not block, and moves once drainTo has emptied the
+	 * lane. Its token is only taken when it moves. Must hold the lock.
+	 * 
+	 * @param now System.nanoTime
+	 * @return long -> the nanoseconds until the next held message is due, or
+	 *         Long.MAX_VALUE if none are held
+	 * @since 1.2
+	 */
+	private long releaseHeld(long now) {
+		long next = Long.MAX_VALUE;
+
+		for (int i = 0; i < this.heldCount;) {
+			int key = this.heldKeys[i];
+			Message message = this.held[key];
+			int typeNibble = message.getMessageType().getTypeNibble() & Message.NIBBLE_BIT_MASK;
+			SendPolicy sendPolicy = this.sendPolicies[typeNibble];
+			int lane = this.priorities[typeNibble].ordinal();
+
+			// A type whose policy was removed sends what it held straight away
+			long due = sendPolicy == null ? now : this.heldSince[key] + sendPolicy.getCoalesceNanos();
+			if (due <= now && this.counts[lane] == this.capacity) {
+				// The newest value, so it waits for room rather than being dropped
+				next = 0;
+				i++;
+				continue;
+			}
+
+			if (due <= now && sendPolicy != null && sendPolicy.isRateLimited()) {
+				long tokenWait = this.tokenWait(typeNibble, sendPolicy, now);
+				if (tokenWait == 0)
+					this.tokens[typeNibble]--;
+				else
+					due = now + tokenWait;
+			}
+
+			if (due > now) {
+				next = Math.min(next, due - now);
+				i++;
+				continue;
+			}
+
+			this.held[key] = null;
+			this.heldKeys[i] = this.heldKeys[--this.heldCount];
+
+			int tail = (this.heads[lane] + this.counts[lane]) % this.capacity;
+			this.rings[lane][tail] = message;
+			this.queuedAt[lane][tail] = this.heldSince[key];
+			this.counts[lane]++;
+			this.totalCount++;
+			if (this.totalCount > this.highWaterMark)
+				this.highWaterMark = this.totalCount;
+		}
+
+		return next;
+	}
+
+	/**
+	 * Takes a token from the type's bucket if it has one, must hold the lock
+	 * 
+	 * @return boolean -> true if a token was taken
+	 * @since 1.2
+	 */
+	private boolean takeToken(int typeNibble, SendPolicy sendPolicy, long now) {
+		if (this.tokenWait(typeNibble, sendPolicy, now) != 0)
+			return false;
+
+		this.tokens[typeNibble]--;
+		return true;
+	}
+
+	/**
+	 * Refills the type's bucket for the time since it was last refilled, must hold
+	 * the lock
+	 * 
+	 * @return long -> 0 if the bucket has a token, otherwise the nanoseconds until
+	 *         it will
+	 * @since 1.2
+	 */
+	private long tokenWait(int typeNibble, SendPolicy sendPolicy, long now) {
+		double rate = sendPolicy.getRatePerSecond() / 1e9;
+		this.tokens[typeNibble] = Math.min(sendPolicy.getBurst(),
+				this.tokens[typeNibble] + (now - this.refilledAt[typeNibble]) * rate);
+		this.refilledAt[typeNibble] = now;
+
+		if (this.tokens[typeNibble] >= 1)
+			return 0;
+
+		return (long) Math.ceil((1 - this.tokens[typeNibble]) / rate);
+	}
+
+	/**
+	 * Puts a batch from drainTo that could not be written back at the front of its
+	 * lanes, so that it is sent first and in its original order once the link is
+	 * back. A lane without room keeps its newer messages and the requeued ones
+	 * that don't fit are dropped, whatever the overflow policy, as the writer
+	 * thread must not block.
+	 * 
+	 * @param batch    the messages from drainTo
+	 * @param queuedAt the times from drainTo
+	 * @param offset   of the first message to put back
+	 * @param count    the number of messages to put back
+	 * @since 1.1
+	 */
+	void requeue(Message[] batch, long[] queuedAt, int offset, int count) {
+		this.lock.lock();
+		try {
+			// Backwards, as each message goes in front of the one after it
+			for (int i = offset + count - 1; i >= offset; i--) {
+				int lane = this.priorities[batch[i].getMessageType().getTypeNibble() & Message.NIBBLE_BIT_MASK]
+						.ordinal();
+
+				if (this.counts[lane] == this.capacity) {
+					this.droppedCount++;
+					continue;
+				}
+
+				int head = (this.heads[lane] + this.capacity - 1) % this.capacity;
+				this.rings[lane][head] = batch[i];
+				this.queuedAt[lane][head] = queuedAt[i];
+				this.heads[lane] = head;
+				this.counts[lane]++;
+				this.totalCount++;
+			}
+
+			if (this.totalCount > this.highWaterMark)
+				this.highWaterMark = this.totalCount;
+			if (this.totalCount > 0)
+				this.notEmpty.signal();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Records how long each message in the batch took from being queued to being
+	 * written, in the latency of its lane
+	 * 
+	 * @param batch    the messages that were written
+	 * @param queuedAt the times from drainTo
+	 * @param count    the number of messages in the batch
+	 * @since 1.1
+	 */
+	void recordSent(Message[] batch, long[] queuedAt, int count) {
+		long now = System.nanoTime();
+
+		for (int i = 0; i < count; i++) {
+			MessagePriority lane = this.getPriority(batch[i].getMessageType());
+			this.latencies[lane.ordinal()].record(now - queuedAt[i]);
+		}
+	}
+
+	/**
+	 * @param priority the lane
+	 * @return LatencyHistogram -> the time from queued to written of the messages
+	 *         sent from the lane
+	 * @since 1.1
+	 */
+	public LatencyHistogram getLatency(MessagePriority priority) {
+		return this.latencies[priority.ordinal()];
+	}
+
+	/**
+	 * @return int -> the number of messages waiting to be sent
+	 * @since 1.0
+	 */
+	public int size() {
+		this.lock.lock();
+		try {
+			return this.totalCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @param priority the lane
+	 * @return int -> the number of messages waiting in the lane
+	 * @since 1.1
+	 */
+	public int size(MessagePriority priority) {
+		this.lock.lock();
+		try {
+			return this.counts[priority.ordinal()];
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return int -> the most messages that have been waiting at once
+	 * @since 1.0
+	 */
+	public int getHighWaterMark() {
+		this.lock.lock();
+		try {
+			return this.highWaterMark;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return long -> the number of messages that have been queued
+	 * @since 1.0
+	 */
+	public long getEnqueuedCount() {
+		this.lock.lock();
+		try {
+			return this.enqueuedCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return long -> the number of queued messages dropped by DROP_OLDEST
+	 * @since 1.0
+	 */
+	public long getDroppedCount() {
+		this.lock.lock();
+		try {
+			return this.droppedCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return int -> the number of keyed messages held back by send policies
+	 * @since 1.2
+	 */
+	public int getHeldCount() {
+		this.lock.lock();
+		try {
+			return this.heldCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return long -> the number of held messages replaced by newer ones with the
+	 *         same key
+	 * @since 1.2
+	 */
+	public long getCoalescedCount() {
+		this.lock.lock();
+		try {
+			return this.coalescedCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return long -> the number of messages refused by a send policy's rate limit
+	 * @since 1.2
+	 */
+	public long getThrottledCount() {
+		this.lock.lock();
+		try {
+			return this.throttledCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return long -> the number of messages refused by FAIL
+	 * @since 1.0
+	 */
+	public long getRejectedCount() {
+		this.lock.lock();
+		try {
+			return this.rejectedCount;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * @return int -> the capacity of each lane
+	 * @since 1.0
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	public OverflowPolicy getPolicy() {
+		return this.policy;
+	}
+
+}
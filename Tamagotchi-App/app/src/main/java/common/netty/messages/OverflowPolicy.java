@@ -0,0 +1,25 @@
+package common.netty.messages;
+
+/**
+ * What an OutboundMessageQueue does with a message when it is full
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.OutboundMessageQueue
+ */
+public enum OverflowPolicy {
+
+	/**
+	 * The sender waits until there is space
+	 */
+	BLOCK,
+	/**
+	 * The oldest queued message is dropped to make space
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new message is not queued and the send returns false
+	 */
+	FAIL;
+
+}
@@ -0,0 +1,86 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import common.netty.messages.codec.WireField;
+import common.netty.messages.codec.WireMessage;
+import common.netty.messages.codec.WireType;
+
+/**
+ * A ping or the pong that echoes it, used to measure the round trip time of the
+ * link. The timestamp is the sender's System.nanoTime and is only ever compared
+ * by the sender, so the clocks of the two ends do not need to agree.
+ * 
+ * @author Danny
+ * @version 1.1
+ */
+@WireMessage
+public final class PingMessage extends Message {
+
+	/**
+	 * Written as 0 for a ping and 1 for a pong
+	 */
+	@WireField(WireType.BOOLEAN)
+	boolean pong;
+	@WireField(WireType.INT64)
+	long timestamp;
+
+	/**
+	 * Only to be used to get an object for sterlisation
+	 * 
+	 * @param pong      -> false for a ping, true for the reply to one
+	 * @param timestamp -> the System.nanoTime of the ping
+	 * @since 1.0
+	 */
+	public PingMessage(boolean pong, long timestamp) {
+		this();
+		this.pong = pong;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Only to be used to get an object for desterlisation
+	 * 
+	 * @since 1.0
+	 */
+	public PingMessage() {
+		super(ResponseCode.SEND_DATA);
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.PING;
+	}
+
+	@Override
+	public int getLength() {
+		return PingMessageCodec.length(this);
+	}
+
+	@Override
+	public void encodeInto(ByteBuffer buffer) {
+		PingMessageCodec.encode(this, buffer);
+	}
+
+	/**
+	 * Reads the message from the buffer's position to its limit into this object,
+	 * the position is moved to the end of the message
+	 * 
+	 * @param buffer -> raw data
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.0
+	 */
+	public void decodeFrom(ByteBuffer buffer) throws IOException {
+		PingMessageCodec.decode(buffer, this);
+	}
+
+	public boolean isPong() {
+		return this.pong;
+	}
+
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+}
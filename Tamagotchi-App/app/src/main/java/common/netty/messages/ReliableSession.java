@@ -0,0 +1,146 @@
+package common.netty.messages;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The sending half of reliable delivery. Messages are given sequence numbers
+ * and kept until the peer acknowledges them, at most a window of them at a
+ * time, so that what was in flight when a link dropped can be resent on the
+ * next one.
+ * 
+ * @author Danny
+ * @version 1.1
+ * @see common.netty.messages.SequenceTracker
+ */
+final class ReliableSession {
+
+	private final short epoch;
+	private final SequencedMessage[] window;
+
+	/**
+	 * The oldest unacknowledged sequence number and the next one to give out,
+	 * guarded by this
+	 */
+	private int oldest = 1, next = 1;
+	private boolean closed;
+
+	/**
+	 * @param windowSize the most messages that can be unacknowledged at once
+	 * @since 1.0
+	 */
+	ReliableSession(int windowSize) {
+		if (windowSize < 1)
+			throw new IllegalArgumentException("Error: the window must hold at least one message");
+
+		this.window = new SequencedMessage[windowSize];
+
+		// Never 0, so a receiver that has seen nothing yet can't mistake it for a resend
+		short epoch;
+		do {
+			epoch = (short) ThreadLocalRandom.current().nextInt();
+		} while (epoch == 0);
+		this.epoch = epoch;
+	}
+
+	/**
+	 * Gives the message the next sequence number and keeps it until acknowledged
+	 * 
+	 * @param message the message to send
+	 * @return SequencedMessage -> the message to write, or null if the window is
+	 *         full or the session is closed
+	 * @since 1.0
+	 */
+	synchronized SequencedMessage tryWrap(Message message) {
+		if (this.closed || this.next - this.oldest == this.window.length)
+			return null;
+
+		SequencedMessage sequenced = new SequencedMessage(this.epoch, this.next, message);
+		this.window[this.next % this.window.length] = sequenced;
+		this.next++;
+		return sequenced;
+	}
+
+	/**
+	 * Blocks while the window is full and the session is open
+	 * 
+	 * @throws InterruptedException if interrupted while waiting
+	 * @since 1.0
+	 */
+	synchronized void awaitSpace() throws InterruptedException {
+		while (!this.closed && this.next - this.oldest == this.window.length)
+			this.wait();
+	}
+
+	/**
+	 * Stops the session sequencing anything more, for a peer that doesn't
+	 * understand it, and wakes a writer waiting for space
+	 * 
+	 * @since 1.1
+	 */
+	synchronized void close() {
+		this.closed = true;
+		this.notifyAll();
+	}
+
+	/**
+	 * @return boolean -> true once closed
+	 * @since 1.1
+	 */
+	synchronized boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Forgets every message up to and including the sequence number
+	 * 
+	 * @param epoch    the epoch the peer is acknowledging, acks for another epoch
+	 *                 are ignored
+	 * @param sequence the highest sequence number the peer has
+	 * @since 1.0
+	 */
+	synchronized void onAck(short epoch, int sequence) {
+		if (epoch != this.epoch)
+			return;
+
+		// Ignore acks for messages that haven't been sent
+		int last = Math.min(sequence, this.next - 1);
+		if (last < this.oldest)
+			return;
+
+		while (this.oldest <= last) {
+			this.window[this.oldest % this.window.length] = null;
+			this.oldest++;
+		}
+
+		this.notifyAll();
+	}
+
+	/**
+	 * @return SequencedMessage[] -> the unacknowledged messages, oldest first
+	 * @since 1.0
+	 */
+	synchronized SequencedMessage[] unacknowledged() {
+		SequencedMessage[] messages = new SequencedMessage[this.next - this.oldest];
+		for (int i = 0; i < messages.length; i++)
+			messages[i] = this.window[(this.oldest + i) % this.window.length];
+
+		return messages;
+	}
+
+	/**
+	 * @return int -> the number of unacknowledged messages
+	 * @since 1.0
+	 */
+	synchronized int getInFlight() {
+		return this.next - this.oldest;
+	}
+
+	/**
+	 * @return int -> the most messages that can be unacknowledged at once
+	 * @since 1.0
+	 */
+	int getWindowSize() {
+		return this.window.length;
+	}
+
+}
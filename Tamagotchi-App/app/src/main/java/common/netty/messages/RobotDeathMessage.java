@@ -1,5 +1,7 @@
 package common.netty.messages;
 
+import java.nio.ByteBuffer;
+
 public class RobotDeathMessage extends Message {
 
     public RobotDeathMessage() {
@@ -12,8 +14,13 @@ public class RobotDeathMessage extends Message {
     }
 
     @Override
-    public byte[] getByteArray() {
-        return new byte[] {super.getBaseHeader()};
+    public int getLength() {
+        return 1;
+    }
+
+    @Override
+    public void encodeInto(ByteBuffer buffer) {
+        buffer.put(super.getBaseHeader());
     }
 
 }
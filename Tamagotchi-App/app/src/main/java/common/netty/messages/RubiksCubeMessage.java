@@ -1,26 +1,44 @@
 package common.netty.messages;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
+import common.netty.messages.codec.WireField;
+import common.netty.messages.codec.WireMessage;
+import common.netty.messages.codec.WireType;
+
 /**
  * Rubiks Cube Message to the EV3
- * @version 1.0
+ * @version 1.2
  * @author James
  */
+@WireMessage
 public class RubiksCubeMessage extends Message {
-    private static HashMap<String, Integer> cubeMessageConvert = new HashMap<String, Integer>();
+    private static final HashMap<String, Integer> cubeMessageConvert = new HashMap<String, Integer>();
 
-    private int rotationCode;
-    private int movesToSolve;
+    @WireField(WireType.INT8)
+    int rotationCode;
+    @WireField(WireType.UINT8)
+    int movesToSolve;
+
+    static {
+        fillConversionHashmap();
+    }
 
     public RubiksCubeMessage(String rotation, int moves){
-        super(ResponseCode.SEND_DATA);
+        this();
 
-        fillConversionHashmap();
         movesToSolve = moves;
-        rotationCode = cubeMessageConvert.get(rotation);
+        Integer code = cubeMessageConvert.get(rotation);
+        rotationCode = code == null ? cubeMessageConvert.get("N") : code;
+    }
 
+    /**
+     * Only to be used to get an object for desterlisation
+     */
+    public RubiksCubeMessage() {
+        super(ResponseCode.SEND_DATA);
     }
 
     @Override
@@ -29,15 +47,34 @@ public class RubiksCubeMessage extends Message {
     }
 
     @Override
-    public byte[] getByteArray() {
-        byte[] returnArray = new byte[3];
-        returnArray[0] = super.getBaseHeader();
-        returnArray[1] = (byte) rotationCode;
-        returnArray[2] = (byte) movesToSolve;
-        return returnArray;
+    public int getLength() {
+        return RubiksCubeMessageCodec.length(this);
+    }
+
+    @Override
+    public void encodeInto(ByteBuffer buffer) {
+        RubiksCubeMessageCodec.encode(this, buffer);
+    }
+
+    /**
+     * Reads the rotation and moves to solve from the buffer's position to its
+     * limit into this object, the position is moved to the end of the message
+     * @param buffer -> raw data
+     * @throws IOException if the bytes are invalid
+     */
+    public void decodeFrom(ByteBuffer buffer) throws IOException {
+        RubiksCubeMessageCodec.decode(buffer, this);
+    }
+
+    public int getRotationCode() {
+        return rotationCode;
+    }
+
+    public int getMovesToSolve() {
+        return movesToSolve;
     }
 
-    private void fillConversionHashmap(){
+    private static void fillConversionHashmap(){
         cubeMessageConvert.put("N", -1);
         cubeMessageConvert.put("R", 0);
         cubeMessageConvert.put("'R", 1);
@@ -0,0 +1,21 @@
+package common.netty.messages;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * Attached to the keys registered with a MessagesEventLoop, called on the event
+ * loop thread when the key is selected
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.MessagesEventLoop
+ */
+interface SelectionHandler {
+
+	/**
+	 * @param key the key that is ready
+	 * @since 1.0
+	 */
+	void onSelected(SelectionKey key);
+
+}
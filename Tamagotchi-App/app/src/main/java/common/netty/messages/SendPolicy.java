@@ -0,0 +1,109 @@
+package common.netty.messages;
+
+/**
+ * Limits how fast messages of one type are sent. Messages with a conflation
+ * key can be held for a coalescing window and replaced by newer ones with the
+ * same key, so however fast they are made only the newest reaches the peer, at
+ * no more than the rate. Messages without a key are refused once the rate is
+ * used up, as there is nothing to merge them with.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.OutboundMessageQueue#setSendPolicy(MessageType,
+ *      SendPolicy)
+ */
+public final class SendPolicy {
+
+	private final double ratePerSecond;
+	private final int burst;
+	private final long coalesceNanos;
+	private final boolean latestWins;
+
+	/**
+	 * @param ratePerSecond  the most messages of the type sent each second on
+	 *                       average, 0 for no limit
+	 * @param burst          the most messages that can be sent at once after a
+	 *                       quiet spell
+	 * @param coalesceMillis how long a keyed message waits for newer ones with the
+	 *                       same key before it is sent
+	 * @param latestWins     true to replace a waiting message with a newer one
+	 *                       with the same key, otherwise keyed messages are
+	 *                       treated like any other
+	 * @since 1.0
+	 */
+	public SendPolicy(double ratePerSecond, int burst, long coalesceMillis, boolean latestWins) {
+		if (ratePerSecond < 0 || burst < 1 || coalesceMillis < 0)
+			throw new IllegalArgumentException("Invalid rate, burst or coalescing window.");
+
+		this.ratePerSecond = ratePerSecond;
+		this.burst = burst;
+		this.coalesceNanos = coalesceMillis * 1000000L;
+		this.latestWins = latestWins;
+	}
+
+	/**
+	 * Keeps only the newest message of each key and sends it after the window,
+	 * without a rate limit
+	 * 
+	 * @param coalesceMillis how long a message waits for newer ones
+	 * @return SendPolicy -> the policy
+	 * @since 1.0
+	 */
+	public static SendPolicy latestWins(long coalesceMillis) {
+		return new SendPolicy(0, 1, coalesceMillis, true);
+	}
+
+	/**
+	 * @return double -> the rate limit in messages per second, 0 if there isn't
+	 *         one
+	 * @since 1.0
+	 */
+	public double getRatePerSecond() {
+		return this.ratePerSecond;
+	}
+
+	/**
+	 * @return int -> the most messages sent at once
+	 * @since 1.0
+	 */
+	public int getBurst() {
+		return this.burst;
+	}
+
+	/**
+	 * @return long -> how long a keyed message waits for newer ones, in
+	 *         nanoseconds
+	 * @since 1.0
+	 */
+	public long getCoalesceNanos() {
+		return this.coalesceNanos;
+	}
+
+	/**
+	 * @return boolean -> whether a waiting message is replaced by a newer one with
+	 *         the same key
+	 * @since 1.0
+	 */
+	public boolean isLatestWins() {
+		return this.latestWins;
+	}
+
+	/**
+	 * @return boolean -> whether there is a rate limit
+	 * @since 1.0
+	 */
+	boolean isRateLimited() {
+		return this.ratePerSecond > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "SendPolicy{" +
+				"ratePerSecond=" + ratePerSecond +
+				", burst=" + burst +
+				", coalesceNanos=" + coalesceNanos +
+				", latestWins=" + latestWins +
+				'}';
+	}
+
+}
@@ -0,0 +1,57 @@
+package common.netty.messages;
+
+/**
+ * The receiving half of reliable delivery. Remembers the last sequence number
+ * received from the peer so that resent messages are only acted on once, and
+ * works out when an acknowledgement is due. Only used by the reading thread.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.ReliableSession
+ */
+final class SequenceTracker {
+
+	private short peerEpoch;
+	private int lastReceived, lastAcknowledged;
+	private boolean duplicateReceived;
+
+	/**
+	 * @param epoch    the epoch of the message
+	 * @param sequence the sequence number of the message
+	 * @return boolean -> true if the message is new and should be dispatched
+	 * @since 1.0
+	 */
+	boolean accept(short epoch, int sequence) {
+		if (epoch != this.peerEpoch) {
+			// The peer has restarted, everything it sends is new
+			this.peerEpoch = epoch;
+			this.lastReceived = 0;
+			this.lastAcknowledged = 0;
+		}
+
+		if (sequence <= this.lastReceived) {
+			// A resend of something already acted on, the peer must not have the
+			// ack so send it again
+			this.duplicateReceived = true;
+			return false;
+		}
+
+		this.lastReceived = sequence;
+		return true;
+	}
+
+	/**
+	 * @return AckMessage -> the acknowledgement to send, or null if the peer is up
+	 *         to date
+	 * @since 1.0
+	 */
+	AckMessage takeAck() {
+		if (this.lastReceived == this.lastAcknowledged && !this.duplicateReceived)
+			return null;
+
+		this.lastAcknowledged = this.lastReceived;
+		this.duplicateReceived = false;
+		return new AckMessage(this.peerEpoch, this.lastReceived);
+	}
+
+}
@@ -0,0 +1,118 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An envelope that gives a message a sequence number, so that the receiver can
+ * acknowledge it and drop it if it arrives twice after a reconnect. The epoch
+ * is picked at random by each sender so that a receiver can tell a restarted
+ * sender from a resend.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.AckMessage
+ */
+public final class SequencedMessage extends Message {
+
+	/**
+	 * The header, the epoch and at least one byte of the sequence number
+	 */
+	private static final int MIN_LENGTH = 1 + Short.BYTES + 1;
+
+	private short epoch;
+	private int sequence;
+	private Message message;
+
+	/**
+	 * Only to be used to get an object for sterlisation
+	 * 
+	 * @param epoch    -> the sender's epoch
+	 * @param sequence -> the sequence number, from 1
+	 * @param message  -> the message to send
+	 * @since 1.0
+	 */
+	public SequencedMessage(short epoch, int sequence, Message message) {
+		this();
+
+		if (message == null)
+			throw new NullPointerException("Error: null message");
+
+		this.epoch = epoch;
+		this.sequence = sequence;
+		this.message = message;
+	}
+
+	/**
+	 * Only to be used to get an object for desterlisation
+	 * 
+	 * @since 1.0
+	 */
+	public SequencedMessage() {
+		super(ResponseCode.SEND_DATA);
+	}
+
+	@Override
+	public MessageType getMessageType() {
+		return MessageType.SEQUENCED;
+	}
+
+	@Override
+	public int getLength() {
+		return 1 + Short.BYTES + VarInts.length(this.sequence) + this.message.getLength();
+	}
+
+	@Override
+	public void encodeInto(ByteBuffer buffer) {
+		buffer.put(super.getBaseHeader());
+		buffer.putShort(this.epoch);
+		VarInts.put(buffer, this.sequence);
+		this.message.encodeInto(buffer);
+	}
+
+	/**
+	 * Reads the envelope from the buffer's position, leaving the position at the
+	 * start of the message inside it
+	 * 
+	 * @param buffer -> raw data
+	 * @throws IOException if the bytes are invalid
+	 * @since 1.0
+	 */
+	public void decodeFrom(ByteBuffer buffer) throws IOException {
+		super.checkHeader(buffer, MIN_LENGTH, Integer.MAX_VALUE);
+		buffer.get();
+
+		this.epoch = buffer.getShort();
+		this.sequence = VarInts.get(buffer);
+		this.message = null;
+
+		if (!buffer.hasRemaining())
+			throw new IOException("Error the sequenced message is empty.");
+	}
+
+	public short getEpoch() {
+		return epoch;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return Message -> the message in the envelope, null once desterlised as the
+	 *         message is left in the buffer
+	 */
+	public Message getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return "SequencedMessage{" +
+				"epoch=" + epoch +
+				", sequence=" + sequence +
+				", message=" + message +
+				'}';
+	}
+
+}
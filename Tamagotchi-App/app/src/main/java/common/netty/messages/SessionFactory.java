@@ -0,0 +1,27 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Makes the handler for each robot a SessionManager accepts, each one should
+ * have its own EmotionsInterface so that the robots' states stay apart
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.SessionManager
+ */
+public interface SessionFactory {
+
+	/**
+	 * Called on the event loop thread for every accepted connection
+	 * 
+	 * @param channel   the robot's connection
+	 * @param eventLoop the loop the handler must use
+	 * @return ChannelMessagesIOHandler -> the robot's handler
+	 * @throws IOException if the handler can't be made, the channel is closed
+	 * @since 1.0
+	 */
+	ChannelMessagesIOHandler createSession(SocketChannel channel, MessagesEventLoop eventLoop) throws IOException;
+
+}
@@ -0,0 +1,28 @@
+package common.netty.messages;
+
+/**
+ * Told when a SessionManager gains or loses a robot
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.SessionManager
+ */
+public interface SessionListener {
+
+	/**
+	 * Called on the event loop thread once the session is reading
+	 * 
+	 * @param session the new robot's handler
+	 * @since 1.0
+	 */
+	void onSessionOpened(ChannelMessagesIOHandler session);
+
+	/**
+	 * Called once the session's connection has failed or the manager was closed
+	 * 
+	 * @param session the robot's handler
+	 * @since 1.0
+	 */
+	void onSessionClosed(ChannelMessagesIOHandler session);
+
+}
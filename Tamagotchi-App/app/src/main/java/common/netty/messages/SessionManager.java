@@ -0,0 +1,268 @@
+package common.netty.messages;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Accepts any number of robots on one port and keeps a
+ * ChannelMessagesIOHandler for each of them. Accepting, reading and writing
+ * all happen on one MessagesEventLoop, so the number of robots costs no
+ * threads, and broadcast sends a message to every robot without blocking.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.SessionFactory
+ */
+public final class SessionManager implements Closeable {
+
+	private final MessagesEventLoop eventLoop;
+	private final SessionFactory factory;
+	private final CopyOnWriteArrayList<ChannelMessagesIOHandler> sessions = new CopyOnWriteArrayList<ChannelMessagesIOHandler>();
+	private volatile SessionListener listener;
+	private volatile boolean closed;
+
+	/**
+	 * Guarded by this
+	 */
+	private ServerSocketChannel serverChannel;
+
+	private final SelectionHandler acceptHandler = new SelectionHandler() {
+		@Override
+		public void onSelected(SelectionKey key) {
+			accept((ServerSocketChannel) key.channel());
+		}
+	};
+
+	/**
+	 * @param eventLoop the loop that the sessions are read and written on, it must
+	 *                  be started
+	 * @param factory   makes the handler for each robot
+	 * @since 1.0
+	 */
+	public SessionManager(MessagesEventLoop eventLoop, SessionFactory factory) {
+		if (eventLoop == null || factory == null)
+			throw new NullPointerException("Error: null event loop or factory");
+
+		this.eventLoop = eventLoop;
+		this.factory = factory;
+	}
+
+	/**
+	 * @param listener told about sessions opening and closing, or null
+	 * @since 1.0
+	 */
+	public void setSessionListener(SessionListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts accepting robots on the port
+	 * 
+	 * @param port to listen on
+	 * @throws IOException           if the port can't be bound
+	 * @throws IllegalStateException if the manager is already listening or was
+	 *                               closed
+	 * @since 1.0
+	 */
+	public synchronized void listen(int port) throws IOException {
+		if (this.closed || this.serverChannel != null)
+			throw new IllegalStateException("The session manager is already listening or closed.");
+
+		final ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			channel.configureBlocking(false);
+			channel.bind(new InetSocketAddress(port));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		this.serverChannel = channel;
+
+		// Keys must only be changed on the event loop thread
+		this.eventLoop.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					channel.register(eventLoop.getSelector(), SelectionKey.OP_ACCEPT, acceptHandler);
+				} catch (ClosedChannelException e) {
+					// Closed before it was registered
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return int -> the port being listened on, or -1 if not listening
+	 * @since 1.0
+	 */
+	public synchronized int getPort() {
+		if (this.serverChannel == null)
+			return -1;
+
+		return this.serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Sends the message to every robot, the sends only queue the frame for the
+	 * event loop so a slow robot holds up none of the others. Robots whose
+	 * connection has closed are dropped, a robot whose framing can't carry the
+	 * message is skipped.
+	 * 
+	 * @param message to send
+	 * @return int -> the number of robots the message was queued for
+	 * @since 1.0
+	 */
+	public int broadcast(Message message) {
+		int sent = 0;
+
+		for (ChannelMessagesIOHandler session : this.sessions) {
+			try {
+				session.sendMessage(message);
+				sent++;
+			} catch (MessageTooLongException e) {
+				// The link is fine, only this message can't go on it
+			} catch (IOException e) {
+				this.onSessionClosed(session);
+			}
+		}
+
+		return sent;
+	}
+
+	/**
+	 * @return List -> the robots connected now
+	 * @since 1.0
+	 */
+	public List<ChannelMessagesIOHandler> getSessions() {
+		return Collections.unmodifiableList(new ArrayList<ChannelMessagesIOHandler>(this.sessions));
+	}
+
+	/**
+	 * @return int -> the number of robots connected now
+	 * @since 1.0
+	 */
+	public int getSessionCount() {
+		return this.sessions.size();
+	}
+
+	/**
+	 * Stops accepting robots and closes every session, the event loop is left
+	 * running
+	 * 
+	 * @since 1.0
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (this.closed)
+				return;
+
+			this.closed = true;
+
+			if (this.serverChannel != null) {
+				try {
+					this.serverChannel.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		for (ChannelMessagesIOHandler session : this.sessions) {
+			session.shutdown();
+
+			try {
+				session.getChannel().close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			this.onSessionClosed(session);
+		}
+	}
+
+	/**
+	 * Accepts every pending connection, on the event loop thread
+	 * 
+	 * @param serverChannel the channel that is ready
+	 * @since 1.0
+	 */
+	private void accept(ServerSocketChannel serverChannel) {
+		while (true) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+
+			if (channel == null)
+				return;
+
+			this.open(channel);
+		}
+	}
+
+	private void open(SocketChannel channel) {
+		ChannelMessagesIOHandler session;
+		try {
+			session = this.factory.createSession(channel, this.eventLoop);
+		} catch (IOException e) {
+			e.printStackTrace();
+			closeQuietly(channel);
+			return;
+		}
+
+		// The session can't fail before this, its channel is registered by a task
+		// that runs after this one
+		session.setSessionManager(this);
+		this.sessions.add(session);
+
+		if (this.closed) {
+			// close() may have missed it
+			session.shutdown();
+			closeQuietly(channel);
+			this.onSessionClosed(session);
+			return;
+		}
+
+		SessionListener listener = this.listener;
+		if (listener != null)
+			listener.onSessionOpened(session);
+	}
+
+	/**
+	 * Forgets the session, called when its connection fails
+	 * 
+	 * @param session the session that closed
+	 * @since 1.0
+	 */
+	void onSessionClosed(ChannelMessagesIOHandler session) {
+		if (!this.sessions.remove(session))
+			return;
+
+		SessionListener listener = this.listener;
+		if (listener != null)
+			listener.onSessionClosed(session);
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -1,16 +1,22 @@
 package common.netty.messages;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import common.netty.messages.codec.WireField;
+import common.netty.messages.codec.WireMessage;
+import common.netty.messages.codec.WireType;
 
 /**
  * Signal strength (RESP) message
- * @version 1.0
+ * @version 1.2
  * @author Danny
  */
+@WireMessage
 public class SignalStrengthMessage extends Message {
 
-    private double signalStrength;
-    private static final int LENGTH = 1 + Double.BYTES;
+    @WireField(WireType.FLOAT64)
+    double signalStrength;
 
     public SignalStrengthMessage() {
         super(ResponseCode.SEND_DATA);
@@ -26,16 +32,22 @@ public class SignalStrengthMessage extends Message {
         return MessageType.SIGNAL_STRENGTH_RESP;
     }
 
+    /**
+     * Only the newest reading matters
+     */
     @Override
-    public byte[] getByteArray() {
-        byte[] bytes = new byte[LENGTH];
-        bytes[0] = super.getBaseHeader();
+    public int getConflationKey() {
+        return this.conflationKey(0);
+    }
 
-        long bits = Double.doubleToRawLongBits(this.signalStrength);
-        for (int i = 0; i < Double.BYTES; i++)
-            bytes[1 + i] = (byte) ((bits >> Double.BYTES - 1 - i) & BYTE_BIT_MASK);
+    @Override
+    public int getLength() {
+        return SignalStrengthMessageCodec.length(this);
+    }
 
-        return bytes;
+    @Override
+    public void encodeInto(ByteBuffer buffer) {
+        SignalStrengthMessageCodec.encode(this, buffer);
     }
 
     /**
@@ -45,27 +57,21 @@ public class SignalStrengthMessage extends Message {
      * @throws IOException
      */
     public double fromBytes(byte[] bytes) throws IOException {
-        // Check for valid message
         if (bytes == null)
             throw new NullPointerException("Error: null input");
 
-        if (bytes.length != LENGTH) {
-            throw new IOException(String.format("Error this message is of the wrong length (%d instead" + " of %d)",
-                    bytes.length, LENGTH));
-        }
-
-        byte type = (byte) (bytes[0] & NIBBLE_BIT_MASK);
-
-        if (type != getMessageType().getTypeNibble()) {
-            throw new IOException(
-                    String.format("Error this message is of the wrong " + "type (type %d instead of expected type %d).",
-                            type, getMessageType().getTypeNibble()));
-        }
-
-        long bits = 0x0;
-        for (int i = 0; i < Double.BYTES; i++)
-            bits |= (byte) ((bytes[i + 1] << Double.BYTES - 1 - i) & BYTE_BIT_MASK);
+        return this.decodeFrom(ByteBuffer.wrap(bytes));
+    }
 
-        return Double.longBitsToDouble(bits);
+    /**
+     * Gets the signal strength from the buffer's position to its limit, the
+     * position is moved to the end of the message
+     * @param buffer -> raw data
+     * @return double - signal strength read from the device
+     * @throws IOException
+     */
+    public double decodeFrom(ByteBuffer buffer) throws IOException {
+        SignalStrengthMessageCodec.decode(buffer, this);
+        return this.signalStrength;
     }
 }
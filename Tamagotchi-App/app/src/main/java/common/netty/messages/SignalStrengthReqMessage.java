@@ -1,5 +1,7 @@
 package common.netty.messages;
 
+import java.nio.ByteBuffer;
+
 public class SignalStrengthReqMessage extends Message {
 
     public SignalStrengthReqMessage() {
@@ -8,12 +10,17 @@ public class SignalStrengthReqMessage extends Message {
 
     @Override
     public MessageType getMessageType() {
-        return MessageType.SIGNAL_STRENGTH_RESP;
+        return MessageType.SIGNAL_STRENGTH_REQ;
+    }
+
+    @Override
+    public int getLength() {
+        return 1;
     }
 
     @Override
-    public byte[] getByteArray() {
-        return new byte[] {super.getBaseHeader()};
+    public void encodeInto(ByteBuffer buffer) {
+        buffer.put(super.getBaseHeader());
     }
 
 }
@@ -0,0 +1,82 @@
+package common.netty.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A small cache from UTF-8 bytes to the decoded String, so that text that keeps
+ * arriving (like "I'm hungry") is only decoded once. Each slot holds the last
+ * string that hashed to it. Not thread safe, each decoder has its own pool.
+ * 
+ * @author Danny
+ * @version 1.0
+ */
+final class StringPool {
+
+	/**
+	 * Longer strings are decoded every time rather than kept
+	 */
+	static final int MAX_POOLED_LENGTH = 128;
+	private static final int SLOTS = 64;
+
+	private final byte[][] keys = new byte[SLOTS][];
+	private final String[] values = new String[SLOTS];
+	private byte[] scratch = new byte[MAX_POOLED_LENGTH];
+
+	/**
+	 * Decodes the bytes at the buffer's position, the position is moved past them
+	 * 
+	 * @param buffer to read from
+	 * @param length the number of UTF-8 bytes
+	 * @return String -> the decoded string, shared with earlier calls for the same
+	 *         bytes
+	 * @since 1.0
+	 */
+	String get(ByteBuffer buffer, int length) {
+		int offset = buffer.position();
+		buffer.position(offset + length);
+
+		if (length > MAX_POOLED_LENGTH)
+			return decode(buffer, offset, length);
+
+		int hash = 1;
+		for (int i = 0; i < length; i++)
+			hash = 31 * hash + buffer.get(offset + i);
+
+		int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+		byte[] key = this.keys[slot];
+
+		if (key != null && key.length == length) {
+			boolean equal = true;
+			for (int i = 0; i < length && equal; i++)
+				equal = key[i] == buffer.get(offset + i);
+
+			if (equal)
+				return this.values[slot];
+		}
+
+		String value = decode(buffer, offset, length);
+
+		key = new byte[length];
+		for (int i = 0; i < length; i++)
+			key[i] = buffer.get(offset + i);
+
+		this.keys[slot] = key;
+		this.values[slot] = value;
+		return value;
+	}
+
+	private String decode(ByteBuffer buffer, int offset, int length) {
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+
+		if (this.scratch.length < length)
+			this.scratch = new byte[length];
+
+		for (int i = 0; i < length; i++)
+			this.scratch[i] = buffer.get(offset + i);
+
+		return new String(this.scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+}
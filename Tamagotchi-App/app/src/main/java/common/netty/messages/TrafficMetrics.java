@@ -0,0 +1,150 @@
+package common.netty.messages;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the traffic of a MessagesIOHandler for each type nibble. The counters
+ * are striped so that the reading and writing threads do not contend on them.
+ * 
+ * @author Danny
+ * @version 1.1
+ * @see common.netty.messages.MessagesIOHandler#getTrafficMetrics()
+ */
+public final class TrafficMetrics {
+
+	private final LongAdder[] framesIn = newAdders();
+	private final LongAdder[] framesOut = newAdders();
+	private final LongAdder[] bytesIn = newAdders();
+	private final LongAdder[] bytesOut = newAdders();
+	private final LongAdder[] decodeErrors = newAdders();
+	private final LongAdder corruptFrames = new LongAdder();
+	private final LongAdder oversizeMessages = new LongAdder();
+	private final LatencyHistogram[] dispatchTimes = new LatencyHistogram[MessageType.TYPE_COUNT];
+
+	TrafficMetrics() {
+		for (int i = 0; i < MessageType.TYPE_COUNT; i++)
+			this.dispatchTimes[i] = new LatencyHistogram();
+	}
+
+	private static LongAdder[] newAdders() {
+		LongAdder[] adders = new LongAdder[MessageType.TYPE_COUNT];
+		for (int i = 0; i < adders.length; i++)
+			adders[i] = new LongAdder();
+
+		return adders;
+	}
+
+	/**
+	 * @param typeNibble the type of the frame that was read
+	 * @param length     the length of the message in the frame
+	 * @since 1.0
+	 */
+	void recordInbound(int typeNibble, int length) {
+		this.framesIn[typeNibble].increment();
+		this.bytesIn[typeNibble].add(length);
+	}
+
+	/**
+	 * @param message the message that was written
+	 * @since 1.0
+	 */
+	void recordOutbound(Message message) {
+		int typeNibble = message.getMessageType().getTypeNibble() & Message.NIBBLE_BIT_MASK;
+		this.framesOut[typeNibble].increment();
+		this.bytesOut[typeNibble].add(message.getLength());
+	}
+
+	/**
+	 * @param typeNibble the type of the frame that could not be decoded
+	 * @since 1.0
+	 */
+	void recordDecodeError(int typeNibble) {
+		this.decodeErrors[typeNibble].increment();
+	}
+
+	/**
+	 * Counts a run of bytes dropped while resynchronising after a corrupt frame
+	 * 
+	 * @since 1.1
+	 */
+	void recordCorruptFrame() {
+		this.corruptFrames.increment();
+	}
+
+	/**
+	 * Counts a message that was refused or dropped because it is too long for the
+	 * outbound framing
+	 * 
+	 * @since 1.1
+	 */
+	void recordOversizeMessage() {
+		this.oversizeMessages.increment();
+	}
+
+	/**
+	 * @param typeNibble the type of the frame
+	 * @param nanos      the time from the frame being read to its callback
+	 *                   returning
+	 * @since 1.0
+	 */
+	void recordDispatch(int typeNibble, long nanos) {
+		this.dispatchTimes[typeNibble].record(nanos);
+	}
+
+	/**
+	 * @return long -> the number of times the reader dropped a corrupt frame and
+	 *         resynchronised, only CHECKED framing can do this
+	 * @since 1.1
+	 */
+	public long getCorruptFrameCount() {
+		return this.corruptFrames.sum();
+	}
+
+	/**
+	 * @return long -> the number of messages that were refused or dropped
+	 *         because they were too long for the outbound framing, only CHECKED
+	 *         framing has a limit that messages reach
+	 * @since 1.1
+	 */
+	public long getOversizeMessageCount() {
+		return this.oversizeMessages.sum();
+	}
+
+	/**
+	 * @param type the message type
+	 * @return TrafficSnapshot -> the counters for the type as they are now
+	 * @since 1.0
+	 */
+	public TrafficSnapshot snapshot(MessageType type) {
+		return this.snapshot(type.getTypeNibble() & Message.NIBBLE_BIT_MASK);
+	}
+
+	/**
+	 * @return List -> a snapshot of every type nibble that has seen traffic,
+	 *         including nibbles without a known message type
+	 * @since 1.0
+	 */
+	public List<TrafficSnapshot> snapshotAll() {
+		List<TrafficSnapshot> snapshots = new ArrayList<TrafficSnapshot>();
+
+		for (int i = 0; i < MessageType.TYPE_COUNT; i++) {
+			TrafficSnapshot snapshot = this.snapshot(i);
+			if (snapshot.getFramesIn() > 0 || snapshot.getFramesOut() > 0)
+				snapshots.add(snapshot);
+		}
+
+		return snapshots;
+	}
+
+	private TrafficSnapshot snapshot(int typeNibble) {
+		LatencyHistogram dispatchTime = this.dispatchTimes[typeNibble];
+
+		return new TrafficSnapshot(typeNibble, this.framesIn[typeNibble].sum(), this.framesOut[typeNibble].sum(),
+				this.bytesIn[typeNibble].sum(), this.bytesOut[typeNibble].sum(), this.decodeErrors[typeNibble].sum(),
+				dispatchTime.getMean(), dispatchTime.getPercentile(50), dispatchTime.getPercentile(99),
+				dispatchTime.getMax());
+	}
+
+}
@@ -0,0 +1,96 @@
+package common.netty.messages;
+
+/**
+ * The traffic of one type nibble at the time the snapshot was taken
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.TrafficMetrics
+ */
+public final class TrafficSnapshot {
+
+	private final int typeNibble;
+	private final long framesIn, framesOut, bytesIn, bytesOut, decodeErrors;
+	private final long meanDispatchNanos, p50DispatchNanos, p99DispatchNanos, maxDispatchNanos;
+
+	TrafficSnapshot(int typeNibble, long framesIn, long framesOut, long bytesIn, long bytesOut, long decodeErrors,
+			long meanDispatchNanos, long p50DispatchNanos, long p99DispatchNanos, long maxDispatchNanos) {
+		this.typeNibble = typeNibble;
+		this.framesIn = framesIn;
+		this.framesOut = framesOut;
+		this.bytesIn = bytesIn;
+		this.bytesOut = bytesOut;
+		this.decodeErrors = decodeErrors;
+		this.meanDispatchNanos = meanDispatchNanos;
+		this.p50DispatchNanos = p50DispatchNanos;
+		this.p99DispatchNanos = p99DispatchNanos;
+		this.maxDispatchNanos = maxDispatchNanos;
+	}
+
+	public int getTypeNibble() {
+		return typeNibble;
+	}
+
+	/**
+	 * @return MessageType -> the type of the nibble, null if it isn't a known type
+	 */
+	public MessageType getMessageType() {
+		return MessageType.fromTypeNibble(typeNibble);
+	}
+
+	public long getFramesIn() {
+		return framesIn;
+	}
+
+	public long getFramesOut() {
+		return framesOut;
+	}
+
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * @return long -> frames that failed to decode, or had no handler
+	 */
+	public long getDecodeErrors() {
+		return decodeErrors;
+	}
+
+	public long getMeanDispatchNanos() {
+		return meanDispatchNanos;
+	}
+
+	public long getP50DispatchNanos() {
+		return p50DispatchNanos;
+	}
+
+	public long getP99DispatchNanos() {
+		return p99DispatchNanos;
+	}
+
+	public long getMaxDispatchNanos() {
+		return maxDispatchNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "TrafficSnapshot{" +
+				"type=" + (getMessageType() == null ? "nibble " + typeNibble : getMessageType()) +
+				", framesIn=" + framesIn +
+				", framesOut=" + framesOut +
+				", bytesIn=" + bytesIn +
+				", bytesOut=" + bytesOut +
+				", decodeErrors=" + decodeErrors +
+				", meanDispatchNanos=" + meanDispatchNanos +
+				", p50DispatchNanos=" + p50DispatchNanos +
+				", p99DispatchNanos=" + p99DispatchNanos +
+				", maxDispatchNanos=" + maxDispatchNanos +
+				'}';
+	}
+
+}
@@ -0,0 +1,72 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned variable length integers, 7 bits per byte with the top bit set on
+ * every byte but the last
+ * 
+ * @author Danny
+ * @version 1.0
+ */
+final class VarInts {
+
+	private static final int MAX_LENGTH = 5;
+
+	private VarInts() {
+	}
+
+	/**
+	 * @param value a non-negative value
+	 * @return int -> the number of bytes put will write
+	 * @since 1.0
+	 */
+	static int length(int value) {
+		int length = 1;
+		for (value >>>= 7; value != 0; value >>>= 7)
+			length++;
+
+		return length;
+	}
+
+	/**
+	 * @param buffer to write the value to
+	 * @param value  a non-negative value
+	 * @since 1.0
+	 */
+	static void put(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+
+		buffer.put((byte) value);
+	}
+
+	/**
+	 * @param buffer to read the value from
+	 * @return int -> the value
+	 * @throws IOException if the value is too long or the buffer ends
+	 * @since 1.0
+	 */
+	static int get(ByteBuffer buffer) throws IOException {
+		int value = 0;
+
+		for (int i = 0; i < MAX_LENGTH; i++) {
+			if (!buffer.hasRemaining())
+				throw new IOException("Error the message ends inside a variable length integer.");
+
+			int next = buffer.get();
+			value |= (next & 0x7F) << (7 * i);
+			if ((next & 0x80) == 0) {
+				if (value < 0)
+					throw new IOException(String.format("Invalid variable length integer %d.", value));
+				return value;
+			}
+		}
+
+		throw new IOException("Error the variable length integer is too long.");
+	}
+
+}
@@ -0,0 +1,30 @@
+package common.netty.messages.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A field of a WireMessage that is sent on the wire
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.codec.WireMessage
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface WireField {
+
+	/**
+	 * @return WireType -> how the field is written
+	 */
+	WireType value();
+
+	/**
+	 * @return int -> for the fixed point types, what the value is multiplied by
+	 *         before it is rounded and written
+	 */
+	int scale() default 1;
+
+}
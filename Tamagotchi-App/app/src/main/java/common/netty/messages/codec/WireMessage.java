@@ -0,0 +1,25 @@
+package common.netty.messages.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a message class whose encoding is generated from its WireField fields.
+ * The codecgen annotation processor writes a package-private codec class named
+ * after the message with Codec on the end, which has static length, encode and
+ * decode methods that the message's own methods call. The fields are written
+ * after the header in the order they are declared.
+ * 
+ * The message must be in common.netty.messages, have a constructor with no
+ * arguments and its WireField fields must not be private, static or final.
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.codec.WireField
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface WireMessage {
+}
@@ -0,0 +1,80 @@
+package common.netty.messages.codec;
+
+/**
+ * How a WireField is written, multi-byte values are big endian
+ * 
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.codec.WireField
+ */
+public enum WireType {
+
+	/**
+	 * One signed byte, for byte, short, int and long fields
+	 */
+	INT8(1),
+	/**
+	 * One unsigned byte, for short, int and long fields
+	 */
+	UINT8(1),
+	/**
+	 * Two signed bytes, for short, int and long fields
+	 */
+	INT16(2),
+	/**
+	 * Four signed bytes, for int and long fields
+	 */
+	INT32(4),
+	/**
+	 * Eight signed bytes, for long fields
+	 */
+	INT64(8),
+	/**
+	 * A variable length unsigned integer of 1 to 5 bytes, for int fields that are
+	 * never negative
+	 */
+	VARINT(-1),
+	/**
+	 * The four byte bits of a float field
+	 */
+	FLOAT32(4),
+	/**
+	 * The eight byte bits of a double field
+	 */
+	FLOAT64(8),
+	/**
+	 * A float or double field times the scale, rounded to one signed byte
+	 */
+	FIXED8(1),
+	/**
+	 * A float or double field times the scale, rounded to two signed bytes
+	 */
+	FIXED16(2),
+	/**
+	 * One byte, 0 or 1, for boolean fields
+	 */
+	BOOLEAN(1);
+
+	private final int width;
+
+	private WireType(int width) {
+		this.width = width;
+	}
+
+	/**
+	 * @return int -> the number of bytes the type is written as, -1 if it varies
+	 * @since 1.0
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * @return boolean -> true for the fixed point types, which use the scale
+	 * @since 1.0
+	 */
+	public boolean isFixedPoint() {
+		return this == FIXED8 || this == FIXED16;
+	}
+
+}
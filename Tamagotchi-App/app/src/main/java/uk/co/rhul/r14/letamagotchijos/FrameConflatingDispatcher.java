@@ -0,0 +1,96 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Passes values from any thread to the UI at most once per display frame. Only the newest value
+ * of each slot is kept, so a burst of updates costs one render per slot on the next frame rather
+ * than a runnable on the main looper for every update.
+ *
+ * @author Danny
+ * @version 1.0
+ */
+public final class FrameConflatingDispatcher implements Choreographer.FrameCallback {
+
+    /**
+     * Shows a slot's value, called on the main thread
+     */
+    public interface Renderer {
+        void render(float value);
+    }
+
+    private final Renderer[] renderers;
+    private final AtomicIntegerArray values;
+    private final AtomicInteger dirtySlots = new AtomicInteger();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Only known once the first frame is scheduled from the main thread
+     */
+    private volatile Choreographer choreographer;
+
+    /**
+     * @param renderers one for each slot, at most 32
+     * @since 1.0
+     */
+    public FrameConflatingDispatcher(Renderer... renderers) {
+        if (renderers.length > Integer.SIZE) {
+            throw new IllegalArgumentException("Error: too many slots");
+        }
+
+        this.renderers = renderers.clone();
+        this.values = new AtomicIntegerArray(renderers.length);
+    }
+
+    /**
+     * Sets the slot's newest value, it is rendered on the next frame. Safe to call from any
+     * thread.
+     *
+     * @param slot  the index of the slot's renderer
+     * @param value the new value
+     * @since 1.0
+     */
+    public void post(int slot, float value) {
+        this.values.set(slot, Float.floatToRawIntBits(value));
+
+        int dirty;
+        do {
+            dirty = this.dirtySlots.get();
+        } while (!this.dirtySlots.compareAndSet(dirty, dirty | 1 << slot));
+
+        if (this.frameScheduled.compareAndSet(false, true)) {
+            Choreographer choreographer = this.choreographer;
+            if (choreographer != null) {
+                choreographer.postFrameCallback(this);
+            } else {
+                // Choreographer.getInstance only works on a looper thread
+                this.mainHandler.post(() -> {
+                    this.choreographer = Choreographer.getInstance();
+                    this.choreographer.postFrameCallback(this);
+                });
+            }
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        // Cleared first so that a value posted while rendering schedules another frame
+        this.frameScheduled.set(false);
+        int dirty = this.dirtySlots.getAndSet(0);
+
+        while (dirty != 0) {
+            int slot = Integer.numberOfTrailingZeros(dirty);
+            dirty &= dirty - 1;
+
+            this.renderers[slot].render(Float.intBitsToFloat(this.values.get(slot)));
+        }
+    }
+
+}
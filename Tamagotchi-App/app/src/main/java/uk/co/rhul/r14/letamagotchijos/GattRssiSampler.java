@@ -0,0 +1,113 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Keeps one GATT connection to the robot open and reads its RSSI every period, rather than
+ * connecting for each request.
+ *
+ * @author Danny
+ * @version 1.0
+ */
+public final class GattRssiSampler implements RssiSampler {
+
+    private static final String TAG = "GattRssiSampler";
+
+    private final Context context;
+    private final BluetoothDevice device;
+    private final RssiWindow window;
+    private final long periodMillis;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Guarded by this
+     */
+    private BluetoothGatt gatt;
+    private boolean connected;
+
+    private final Runnable readTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (GattRssiSampler.this) {
+                if (gatt != null && connected && !gatt.readRemoteRssi()) {
+                    // Busy with another request, try again next period
+                    handler.postDelayed(this, periodMillis);
+                }
+            }
+        }
+    };
+
+    private final BluetoothGattCallback callback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            boolean isConnected = newState == BluetoothProfile.STATE_CONNECTED;
+            synchronized (GattRssiSampler.this) {
+                connected = isConnected;
+            }
+
+            if (isConnected) {
+                handler.post(readTask);
+            } else {
+                // Reconnects on its own as the connection was made with autoConnect
+                handler.removeCallbacks(readTask);
+            }
+        }
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                window.add(rssi);
+            } else {
+                Log.w(TAG, "RSSI read failed with status " + status);
+            }
+
+            handler.postDelayed(readTask, periodMillis);
+        }
+    };
+
+    /**
+     * @param context      to connect with
+     * @param device       the robot
+     * @param window       where the readings go
+     * @param periodMillis the time between readings
+     * @since 1.0
+     */
+    public GattRssiSampler(Context context, BluetoothDevice device, RssiWindow window, long periodMillis) {
+        this.context = context;
+        this.device = device;
+        this.window = window;
+        this.periodMillis = periodMillis;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (this.gatt == null) {
+            this.gatt = this.device.connectGatt(this.context, true, this.callback);
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        this.handler.removeCallbacks(this.readTask);
+
+        if (this.gatt != null) {
+            this.gatt.disconnect();
+            this.gatt.close();
+            this.gatt = null;
+            this.connected = false;
+        }
+    }
+
+    @Override
+    public RssiStats getStats() {
+        return this.window.getStats();
+    }
+
+}
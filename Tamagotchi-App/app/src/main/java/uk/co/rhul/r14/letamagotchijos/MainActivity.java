@@ -7,6 +7,7 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Build;
@@ -30,12 +31,22 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import common.EmotionsInterface;
+import common.netty.messages.ChannelMessagesIOHandler;
+import common.netty.messages.ConnectionManager;
+import common.netty.messages.ConnectionState;
+import common.netty.messages.Connector;
+import common.netty.messages.MessagesEventLoop;
 import common.netty.messages.MessagesIOHandler;
+import common.netty.messages.SessionListener;
+import common.netty.messages.SessionManager;
 import common.netty.messages.SignalStrengthMessage;
 import common.netty.messages.UserNotification;
 
@@ -57,6 +68,12 @@ public class MainActivity extends AppCompatActivity {
             TIRED_TAG = "tired_tag",
             BORED_TAG = "bored_tag",
             HUNGER_TAG = "hunger_tag";
+    // The slots of the emotion display's dispatcher
+    private static final int HAPPINESS_SLOT = 0,
+            FEAR_SLOT = 1,
+            TIRED_SLOT = 2,
+            BOREDOM_SLOT = 3,
+            HUNGER_SLOT = 4;
     private static final MessagesIOHandler[] btConn = new MessagesIOHandler[1];
     private static ServerSocket serverSocket;
     private static Socket socket;
@@ -65,6 +82,17 @@ public class MainActivity extends AppCompatActivity {
     private static InputStream ev3In;
     private static OutputStream ev3Out;
     private static Settings settings;
+    private static ConnectionManager connectionManager;
+    private static RssiSampler rssiSampler;
+    private static final int RSSI_WINDOW_SIZE = 8;
+    private static final long RSSI_PERIOD_MILLIS = 2000;
+    private static final long RSSI_MAX_AGE_MILLIS = 3 * RSSI_PERIOD_MILLIS;
+    private static final ExecutorService CALLBACK_EXECUTOR = Executors.newFixedThreadPool(2);
+
+    // Robots other than the one above connect here, they all share one thread
+    private static final int ROBOT_SESSIONS_PORT = 4201;
+    private static MessagesEventLoop eventLoop;
+    private static SessionManager robotSessions;
 
     public void stateDisconnected() {
         runOnUiThread(() -> {
@@ -197,9 +225,12 @@ public class MainActivity extends AppCompatActivity {
                 })).start();
             }
 
+            startRobotSessions();
+
             // Start rubiks cube interface
             (new Thread(() -> {
-                RubiksCubeDecoder cube = new RubiksCubeDecoder(localAdapter, this.getBaseContext(), btConn);
+                RubiksCubeDecoder cube = new RubiksCubeDecoder(localAdapter, this.getBaseContext(), btConn,
+                        robotSessions);
             })).start();
         }
     }
@@ -244,15 +275,18 @@ public class MainActivity extends AppCompatActivity {
             }
         }
 
+        // Bursts of updates are shown once per frame, with only the newest value of each emotion
+        FrameConflatingDispatcher dispatcher = new FrameConflatingDispatcher(
+                value -> showEmotion(happinessFragment[0], value, value < 0.5f ? "Sad" : "Happy"),
+                value -> showEmotion(fearFragment[0], value, value < 0.5f ? "Scared" : "Not Scared"),
+                value -> showEmotion(tiredFragment[0], value, value < 0.5f ? "Tired" : "Not Tired"),
+                value -> showEmotion(boredomFragment[0], value, value < 0.5f ? "Bored" : "Not Bored"),
+                value -> showEmotion(hungerFragment[0], value, value < 0.5f ? "Hungry" : "Full"));
+
         EmotionsInterface emotionsInterface = new EmotionsInterface() {
             @Override
             public void onBordemSet(float newBordem) {
-                runOnUiThread(() -> {
-                    boredomFragment[0].setEmotionState(newBordem);
-                    String state = newBordem < 0.5f ? "Bored" : "Not Bored";
-
-                    boredomFragment[0].setEmotionStatus(state);
-                });
+                dispatcher.post(BOREDOM_SLOT, newBordem);
             }
 
             @Override
@@ -265,52 +299,41 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             public void onFearSet(float newFear) {
-                runOnUiThread(() -> {
-                    fearFragment[0].setEmotionState(newFear);
-                    String state = newFear < 0.5f ? "Scared" : "Not Scared";
-
-                    fearFragment[0].setEmotionStatus(state);
-                    Log.i(MainActivity.class.toString(), "Fear set");
-                });
+                dispatcher.post(FEAR_SLOT, newFear);
             }
 
             @Override
             public void onHappinessSet(float newEmotion) {
-                runOnUiThread(() -> {
-                    happinessFragment[0].setEmotionState(newEmotion);
-                    String state = newEmotion < 0.5f ? "Sad" : "Happy";
-
-                    happinessFragment[0].setEmotionStatus(state);
-                    Log.i(MainActivity.class.toString(), "Happiness set");
-                });
+                dispatcher.post(HAPPINESS_SLOT, newEmotion);
             }
 
             @Override
             public void onHungerSet(float newHunger) {
-                runOnUiThread(() -> {
-                    hungerFragment[0].setEmotionState(newHunger);
-                    String state = newHunger < 0.5f ? "Hungry" : "Full";
-
-                    hungerFragment[0].setEmotionStatus(state);
-                    Log.i(MainActivity.class.toString(), "Hunger set");
-                });
+                dispatcher.post(HUNGER_SLOT, newHunger);
             }
 
             @Override
             public void onTiredSet(float newTired) {
-                runOnUiThread(() -> {
-                    tiredFragment[0].setEmotionState(newTired);
-                    String state = newTired < 0.5f ? "Tired" : "Not Tired";
-
-                    tiredFragment[0].setEmotionStatus(state);
-                    Log.i(MainActivity.class.toString(), "Tired set");
-                });
+                dispatcher.post(TIRED_SLOT, newTired);
             }
         };
 
         return emotionsInterface;
     }
 
+    /**
+     * Shows an emotion's newest value, on the main thread
+     *
+     * @param fragment the emotion's fragment
+     * @param value    the new value
+     * @param status   the status text for the value
+     * @since 1.1
+     */
+    private static void showEmotion(EmotionDisplayFragment fragment, float value, String status) {
+        fragment.setEmotionState(value);
+        fragment.setEmotionStatus(status);
+    }
+
     /**
      * Starts the bluetooth listener and allows the messages to update the fields.
      *
@@ -339,6 +362,16 @@ public class MainActivity extends AppCompatActivity {
 
 
         Context context = this;
+
+        // Replaces the sampler of a robot set up before this one
+        if (rssiSampler != null) {
+            rssiSampler.stop();
+        }
+
+        rssiSampler = new GattRssiSampler(getBaseContext(), ev3, new RssiWindow(RSSI_WINDOW_SIZE),
+                RSSI_PERIOD_MILLIS);
+        rssiSampler.start();
+
         //Connect to bluetooth
         btConn[0] = new MessagesIOHandler(emotionsInterface) {
             private int id = 0;
@@ -371,23 +404,8 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             protected void onIOException(IOException e) {
-                stateDisconnected();
-
-                disconnect();
-
-                try {
-                    bluetoothConnect(btConn[0]);
-                } catch (IOException ioException) {
-                    ioException.printStackTrace();
-
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException interruptedException) {
-                        interruptedException.printStackTrace();
-                    }
-
-                    onIOException(e);
-                }
+                // The manager disconnects and reconnects on its own thread
+                connectionManager.connectionLost(e);
             }
 
             @Override
@@ -397,25 +415,18 @@ public class MainActivity extends AppCompatActivity {
 
             @Override
             protected void onSignalStrengthReq() {
-                BluetoothGattCallback whatIsAGattAndWhereDoIFindOne = new BluetoothGattCallback() {
-                    @Override
-                    public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-                        super.onReadRemoteRssi(gatt, rssi, status);
-
-                        SignalStrengthMessage msg = new SignalStrengthMessage(rssi);
-                        try {
-                            btConn[0].sendMessage(msg);
-                        } catch (IOException e) {
-                            Log.e(MainActivity.class.toString(), "Error sending rssi.");
-                            e.printStackTrace();
-                        }
-
-                        gatt.disconnect();
-                    }
-                };
+                // Answered from the sampler's readings rather than a new GATT connection
+                RssiStats stats = rssiSampler.getStats();
+                if (stats == null
+                        || System.currentTimeMillis() - stats.getSampledAtMillis() > RSSI_MAX_AGE_MILLIS) {
+                    // The sampler hasn't read the robot recently, e.g. it lost the GATT connection
+                    Log.w(MainActivity.class.toString(), "No recent RSSI readings " + stats);
+                    readSignalStrengthOnce();
+                    return;
+                }
 
-                ev3.connectGatt(getBaseContext(), true, whatIsAGattAndWhereDoIFindOne);
-                Log.i(MainActivity.class.toString(), "Sig strength sent");
+                sendSignalStrength(stats.getMean());
+                Log.i(MainActivity.class.toString(), "Sig strength sent " + stats);
             }
 
             @Override
@@ -425,16 +436,167 @@ public class MainActivity extends AppCompatActivity {
             }
         };
 
-        boolean connected = false;
-        while (!connected) {
-            try {
+        // The callbacks post to the UI thread and can start GATT reads, keep them
+        // off the thread reading the socket
+        btConn[0].setCallbackExecutor(CALLBACK_EXECUTOR);
+
+        // Replaces the manager and handler of a robot set up before this one
+        if (connectionManager != null) {
+            connectionManager.close();
+            connectionManager.getHandler().shutdown();
+        }
+
+        connectionManager = new ConnectionManager(btConn[0], new Connector() {
+            @Override
+            public void connect(MessagesIOHandler handler) throws IOException {
                 Log.i(MainActivity.class.toString(), "Trying to connect");
-                bluetoothConnect(btConn[0]);
-                connected = true;
-            } catch (IOException e) {
-                Log.i(MainActivity.class.toString(), "Connect failed");
-                e.printStackTrace();
+                bluetoothConnect(handler);
+            }
+
+            @Override
+            public void disconnect(MessagesIOHandler handler) {
+                MainActivity.this.disconnect();
+            }
+        });
+        connectionManager.setStateListener((state, attempt) -> {
+            Log.i(MainActivity.class.toString(), "Connection " + state + " after " + attempt + " failed attempts");
+
+            if (state == ConnectionState.CONNECTED) {
+                stateConnected();
+            } else {
+                stateDisconnected();
+            }
+        });
+        connectionManager.connect();
+    }
+
+    /**
+     * Accepts any number of extra robots, each with its own emotions. Their emotions are only
+     * logged, the display shows the main robot.
+     *
+     * @since 1.1
+     */
+    private void startRobotSessions() {
+        try {
+            eventLoop = new MessagesEventLoop();
+            eventLoop.start();
+
+            robotSessions = new SessionManager(eventLoop, (SocketChannel channel, MessagesEventLoop loop) ->
+                    new ChannelMessagesIOHandler(channel, createRobotEmotions(channel), loop) {
+                        @Override
+                        protected void onNotification(UserNotification notification) {
+                            Log.i(MainActivity.class.toString(), "Notif from " + channel + " " + notification);
+                        }
+
+                        @Override
+                        protected void onIOException(IOException e) {
+                            // The session manager forgets the robot, it reconnects as a new session
+                            Log.i(MainActivity.class.toString(), "Robot " + channel + " disconnected");
+                        }
+
+                        @Override
+                        protected void onSignalStrength(double strength) {
+                            //Do nothing
+                        }
+
+                        @Override
+                        protected void onSignalStrengthReq() {
+                            //Only the main robot's signal strength is known
+                        }
+
+                        @Override
+                        protected void onDeathMessage() {
+                            Log.i(MainActivity.class.toString(), "Death recv from " + channel);
+                        }
+                    });
+
+            robotSessions.setSessionListener(new SessionListener() {
+                @Override
+                public void onSessionOpened(ChannelMessagesIOHandler session) {
+                    Log.i(MainActivity.class.toString(), robotSessions.getSessionCount() + " extra robots connected");
+                }
+
+                @Override
+                public void onSessionClosed(ChannelMessagesIOHandler session) {
+                    Log.i(MainActivity.class.toString(), robotSessions.getSessionCount() + " extra robots connected");
+                }
+            });
+            robotSessions.listen(ROBOT_SESSIONS_PORT);
+        } catch (IOException e) {
+            Log.e(MainActivity.class.toString(), "Error accepting extra robots.", e);
+        }
+    }
+
+    private static EmotionsInterface createRobotEmotions(SocketChannel channel) {
+        return new EmotionsInterface() {
+            @Override
+            public void onBordemSet(float newBordem) {
+                Log.d(MainActivity.class.toString(), channel + " boredom " + newBordem);
+            }
+
+            @Override
+            public void onCourageSet(float newEmotion) {
+            }
+
+            @Override
+            public void onCuriositySet(float newEmotion) {
+            }
+
+            @Override
+            public void onFearSet(float newFear) {
+                Log.d(MainActivity.class.toString(), channel + " fear " + newFear);
+            }
+
+            @Override
+            public void onHappinessSet(float newEmotion) {
+                Log.d(MainActivity.class.toString(), channel + " happiness " + newEmotion);
+            }
+
+            @Override
+            public void onHungerSet(float newHunger) {
+                Log.d(MainActivity.class.toString(), channel + " hunger " + newHunger);
             }
+
+            @Override
+            public void onTiredSet(float newTired) {
+                Log.d(MainActivity.class.toString(), channel + " tired " + newTired);
+            }
+        };
+    }
+
+    /**
+     * Reads the RSSI over a new GATT connection and sends it, for when the sampler has nothing
+     * recent to answer with
+     */
+    private void readSignalStrengthOnce() {
+        ev3.connectGatt(getBaseContext(), false, new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    if (!gatt.readRemoteRssi()) {
+                        gatt.close();
+                    }
+                } else {
+                    gatt.close();
+                }
+            }
+
+            @Override
+            public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    sendSignalStrength(rssi);
+                } else {
+                    Log.w(MainActivity.class.toString(), "RSSI read failed with status " + status);
+                }
+
+                gatt.disconnect();
+            }
+        });
+    }
+
+    private static void sendSignalStrength(double strength) {
+        if (!btConn[0].sendAsync(new SignalStrengthMessage(strength))) {
+            Log.e(MainActivity.class.toString(), "Error sending rssi.");
         }
     }
 
@@ -457,15 +619,34 @@ public class MainActivity extends AppCompatActivity {
         ev3Out = socket.getOutputStream();
         handler.setIOStreams(ev3In, ev3Out);
         handler.startPollingThread();
-
-        stateConnected();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (connectionManager != null) {
+            connectionManager.close();
+        }
+
+        // Not in disconnect, the manager calls that before reconnecting and the
+        // handler's queued messages are sent on the new link
+        if (btConn[0] != null) {
+            btConn[0].shutdown();
+        }
+
+        if (rssiSampler != null) {
+            rssiSampler.stop();
+        }
         disconnect();
 
+        if (robotSessions != null) {
+            robotSessions.close();
+        }
+
+        if (eventLoop != null) {
+            eventLoop.stop();
+        }
+
         if (serverSocket != null) {
             try {
                 serverSocket.close();
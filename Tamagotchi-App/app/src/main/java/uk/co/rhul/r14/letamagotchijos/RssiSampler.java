@@ -0,0 +1,32 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+/**
+ * Samples the signal strength of the link to the robot in the background, so that requests for
+ * it are answered from the latest readings instead of waiting on the radio.
+ *
+ * @author Danny
+ * @version 1.0
+ */
+public interface RssiSampler {
+
+    /**
+     * Starts sampling if it isn't already
+     *
+     * @since 1.0
+     */
+    void start();
+
+    /**
+     * Stops sampling and frees the radio, the last readings are kept
+     *
+     * @since 1.0
+     */
+    void stop();
+
+    /**
+     * @return RssiStats -> the readings in the window, or null if there haven't been any yet
+     * @since 1.0
+     */
+    RssiStats getStats();
+
+}
@@ -0,0 +1,77 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+/**
+ * The signal strength readings in an RssiWindow at one point in time
+ *
+ * @author Danny
+ * @version 1.0
+ */
+public final class RssiStats {
+
+    private final int latest, min, max, count;
+    private final double mean;
+    private final long sampledAtMillis;
+
+    RssiStats(int latest, int min, int max, double mean, int count, long sampledAtMillis) {
+        this.latest = latest;
+        this.min = min;
+        this.max = max;
+        this.mean = mean;
+        this.count = count;
+        this.sampledAtMillis = sampledAtMillis;
+    }
+
+    /**
+     * @return int -> the newest reading in dBm
+     */
+    public int getLatest() {
+        return latest;
+    }
+
+    /**
+     * @return int -> the weakest reading in the window in dBm
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * @return int -> the strongest reading in the window in dBm
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * @return double -> the mean of the readings in the window in dBm
+     */
+    public double getMean() {
+        return mean;
+    }
+
+    /**
+     * @return int -> the number of readings in the window
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return long -> when the newest reading was taken, from System.currentTimeMillis
+     */
+    public long getSampledAtMillis() {
+        return sampledAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "RssiStats{" +
+                "latest=" + latest +
+                ", min=" + min +
+                ", max=" + max +
+                ", mean=" + mean +
+                ", count=" + count +
+                '}';
+    }
+
+}
@@ -0,0 +1,59 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+/**
+ * Keeps the last few signal strength readings. The stats are worked out when a reading is added,
+ * which is rare, so that reading them is only a volatile read.
+ *
+ * @author Danny
+ * @version 1.0
+ */
+public final class RssiWindow {
+
+    private final int[] readings;
+    private int next, count;
+    private volatile RssiStats stats;
+
+    /**
+     * @param size the number of readings to keep
+     * @since 1.0
+     */
+    public RssiWindow(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Error: the window must hold a reading");
+        }
+
+        this.readings = new int[size];
+    }
+
+    /**
+     * @param rssi the new reading in dBm, the oldest is dropped if the window is full
+     * @since 1.0
+     */
+    public synchronized void add(int rssi) {
+        this.readings[this.next] = rssi;
+        this.next = (this.next + 1) % this.readings.length;
+        if (this.count < this.readings.length) {
+            this.count++;
+        }
+
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        long sum = 0;
+        for (int i = 0; i < this.count; i++) {
+            min = Math.min(min, this.readings[i]);
+            max = Math.max(max, this.readings[i]);
+            sum += this.readings[i];
+        }
+
+        this.stats = new RssiStats(rssi, min, max, (double) sum / this.count, this.count,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * @return RssiStats -> the readings in the window, or null if there aren't any
+     * @since 1.0
+     */
+    public RssiStats getStats() {
+        return this.stats;
+    }
+
+}
@@ -12,11 +12,11 @@ import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
 import android.util.Log;
 
-import java.io.IOException;
 import java.util.HashMap;
 
 import common.netty.messages.MessagesIOHandler;
 import common.netty.messages.RubiksCubeMessage;
+import common.netty.messages.SessionManager;
 import uk.co.rhul.r14.letamagotchijos.min2phase.Search;
 
 public class RubiksCubeDecoder {
@@ -24,17 +24,20 @@ public class RubiksCubeDecoder {
     final private static String TAG = "RubiksCubeDecoder";
     private static final HashMap<String, int[][]> rotations = new HashMap<String, int[][]>();
     private static MessagesIOHandler[] btConn;
+    private static SessionManager robotSessions;
     private final RubiksCubeBLEInterface cubeBLEInterface;
     private CubeData previousCubeState;
     private int scrambledAmount;
 
 
-    public RubiksCubeDecoder(BluetoothAdapter btAdapter, Context context, MessagesIOHandler[] conn) {
+    public RubiksCubeDecoder(BluetoothAdapter btAdapter, Context context, MessagesIOHandler[] conn,
+                             SessionManager sessions) {
         cubeBLEInterface = new RubiksCubeBLEInterface(btAdapter, this, context);
         cubeBLEInterface.startBluetoothListener();
         previousCubeState = null; // used for getting the change that has been made to the cube
         fillRotationsMap();
         btConn = conn;
+        robotSessions = sessions;
         Search.init();// apparently takes about 200ms to startup
     }
 
@@ -119,13 +122,14 @@ public class RubiksCubeDecoder {
 
     private static void sendCubeDataToEv3(String rotation, int movesToSolve) {
         RubiksCubeMessage msg = new RubiksCubeMessage(rotation, movesToSolve);
-        try {
-            if (btConn.length > 0) {
-                btConn[0].sendMessage(msg);
-            }
-        } catch (IOException e) {
-            //Log.e(MainActivity.class.toString(), "Error sending cube data to the EV3");
-            //e.printStackTrace();
+        // Queued so that a slow link to the EV3 never holds up the GATT callback
+        if (btConn.length > 0 && btConn[0] != null && !btConn[0].sendAsync(msg)) {
+            Log.w(TAG, "Cube data to the EV3 was not queued");
+        }
+
+        // Every other robot gets it through the event loop, without a thread each
+        if (robotSessions != null) {
+            robotSessions.broadcast(msg);
         }
     }
 
@@ -0,0 +1,80 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+import java.util.Random;
+
+/**
+ * Makes up signal strength readings that wander around a base value, for testing without a
+ * robot.
+ *
+ * @author Danny
+ * @version 1.0
+ */
+public final class SimulatedRssiSampler implements RssiSampler {
+
+    private final RssiWindow window;
+    private final int baseRssi, jitter;
+    private final long periodMillis;
+    private final Random random;
+    private Thread thread;
+
+    /**
+     * @param window       where the readings go
+     * @param baseRssi     the reading the values wander around, in dBm
+     * @param jitter       the most a reading can be from the base
+     * @param periodMillis the time between readings
+     * @param seed         the seed of the readings, so that tests can repeat them
+     * @since 1.0
+     */
+    public SimulatedRssiSampler(RssiWindow window, int baseRssi, int jitter, long periodMillis, long seed) {
+        this.window = window;
+        this.baseRssi = baseRssi;
+        this.jitter = jitter;
+        this.periodMillis = periodMillis;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Adds one reading now, tests can call this instead of starting the thread
+     *
+     * @since 1.0
+     */
+    public void sample() {
+        int offset = this.jitter == 0 ? 0 : this.random.nextInt(2 * this.jitter + 1) - this.jitter;
+        this.window.add(this.baseRssi + offset);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (this.thread != null) {
+            return;
+        }
+
+        this.thread = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                sample();
+
+                try {
+                    Thread.sleep(this.periodMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "Simulated RSSI sampler thread.");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    @Override
+    public RssiStats getStats() {
+        return this.window.getStats();
+    }
+
+}
@@ -0,0 +1,214 @@
+package common.netty.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import common.EmotionsInterface;
+
+public class ConnectionManagerTest {
+
+	private ConnectionManager manager;
+	private MessagesIOHandler handler;
+
+	@Before
+	public void setUp() {
+		this.handler = new MessagesIOHandler(new EmotionsInterface() {
+			@Override
+			public void onBordemSet(float newBordem) {
+			}
+
+			@Override
+			public void onCourageSet(float newEmotion) {
+			}
+
+			@Override
+			public void onCuriositySet(float newEmotion) {
+			}
+
+			@Override
+			public void onFearSet(float newFear) {
+			}
+
+			@Override
+			public void onHappinessSet(float newEmotion) {
+			}
+
+			@Override
+			public void onHungerSet(float newHunger) {
+			}
+
+			@Override
+			public void onTiredSet(float newTired) {
+			}
+		}) {
+			@Override
+			protected void onNotification(UserNotification notification) {
+			}
+
+			@Override
+			protected void onIOException(IOException e) {
+				manager.connectionLost(e);
+			}
+
+			@Override
+			protected void onSignalStrength(double strength) {
+			}
+
+			@Override
+			protected void onSignalStrengthReq() {
+			}
+
+			@Override
+			protected void onDeathMessage() {
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		this.manager.close();
+		this.handler.shutdown();
+	}
+
+	/**
+	 * The first link fails while the connector is still connecting, with the
+	 * polling thread still running, so only the report tells the manager
+	 */
+	@Test
+	public void linkLostWhileConnectingIsRetried() throws InterruptedException {
+		final AtomicInteger connects = new AtomicInteger();
+		final AtomicInteger disconnects = new AtomicInteger();
+
+		this.manager = new ConnectionManager(this.handler, new Connector() {
+			@Override
+			public void connect(MessagesIOHandler handler) throws IOException {
+				boolean first = connects.incrementAndGet() == 1;
+				handler.setIOStreams(new BlockingInputStream(), first ? new BrokenOutputStream() : new NullOutputStream());
+				handler.startPollingThread();
+
+				try {
+					handler.sendMessage(new SignalStrengthReqMessage());
+				} catch (IOException e) {
+					// Reported to onIOException
+				}
+			}
+
+			@Override
+			public void disconnect(MessagesIOHandler handler) {
+				disconnects.incrementAndGet();
+				handler.stopPollingThread();
+			}
+		});
+		this.manager.setBackoff(1, 1);
+
+		final CountDownLatch connected = new CountDownLatch(1);
+		this.manager.setStateListener(new ConnectionStateListener() {
+			@Override
+			public void onStateChanged(ConnectionState state, int attempt) {
+				if (state == ConnectionState.CONNECTED)
+					connected.countDown();
+			}
+		});
+
+		this.manager.connect();
+
+		assertTrue(connected.await(5, TimeUnit.SECONDS));
+		assertEquals(2, connects.get());
+		assertEquals(1, disconnects.get());
+		assertEquals(ConnectionState.CONNECTED, this.manager.getState());
+	}
+
+	/**
+	 * A report of the old link that arrives after the manager has started
+	 * reconnecting does not fail the new link
+	 */
+	@Test
+	public void lateReportOfOldLinkIsIgnored() throws InterruptedException {
+		final AtomicInteger connects = new AtomicInteger();
+
+		this.manager = new ConnectionManager(this.handler, new Connector() {
+			@Override
+			public void connect(MessagesIOHandler handler) throws IOException {
+				// Reported before the new link is in place
+				manager.connectionLost(null);
+
+				connects.incrementAndGet();
+				handler.setIOStreams(new BlockingInputStream(), new NullOutputStream());
+				handler.startPollingThread();
+			}
+
+			@Override
+			public void disconnect(MessagesIOHandler handler) {
+				handler.stopPollingThread();
+			}
+		});
+
+		final CountDownLatch connected = new CountDownLatch(1);
+		this.manager.setStateListener(new ConnectionStateListener() {
+			@Override
+			public void onStateChanged(ConnectionState state, int attempt) {
+				if (state == ConnectionState.CONNECTED)
+					connected.countDown();
+			}
+		});
+
+		this.manager.connect();
+
+		assertTrue(connected.await(5, TimeUnit.SECONDS));
+		assertEquals(1, connects.get());
+	}
+
+	/**
+	 * Never has anything to read until it is closed
+	 */
+	private static final class BlockingInputStream extends InputStream {
+
+		private final CountDownLatch closed = new CountDownLatch(1);
+
+		@Override
+		public int read() throws IOException {
+			try {
+				this.closed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			throw new IOException("Stream closed.");
+		}
+
+		@Override
+		public void close() {
+			this.closed.countDown();
+		}
+
+	}
+
+	private static final class BrokenOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			throw new IOException("Broken pipe.");
+		}
+
+	}
+
+	private static final class NullOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+	}
+
+}
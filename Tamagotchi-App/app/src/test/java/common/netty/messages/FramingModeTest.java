@@ -0,0 +1,126 @@
+package common.netty.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FramingModeTest {
+
+	private static final byte SYNC = (byte) 0xA5;
+
+	@Test
+	public void checkedFramingSkipsFlippedAndDroppedBytes() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (int i = 0; i < 10; i++) {
+			byte[] frame = checkedFrame(new SignalStrengthMessage(i));
+
+			if (i == 3)
+				frame[frame.length - 1] ^= 0x10;
+
+			if (i == 6) {
+				// Loses the length check byte
+				stream.write(frame, 0, 3);
+				stream.write(frame, 4, frame.length - 4);
+				continue;
+			}
+
+			stream.write(frame);
+		}
+
+		TrafficMetrics metrics = new TrafficMetrics();
+		List<Double> received = readAll(stream.toByteArray(), metrics);
+
+		assertEquals(Arrays.asList(0.0, 1.0, 2.0, 4.0, 5.0, 7.0, 8.0, 9.0), received);
+		assertEquals(2, metrics.getCorruptFrameCount());
+	}
+
+	/**
+	 * A false sync with a length in range is only found out once that many bytes
+	 * have arrived, the frames after it are then read from the bytes it held back
+	 */
+	@Test
+	public void checkedFramingRecoversFromAFalseSync() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+		// Two bytes a character
+		char[] text = new char[FramingMode.CHECKED_MAX_LENGTH / 2 - 20];
+		Arrays.fill(text, 'x');
+		byte[] longFrame = checkedFrame(new NotifyUserMessage(new UserNotification("", new String(text))));
+
+		// Only the header of the long frame arrives
+		stream.write(longFrame, 0, 6);
+
+		int count = FramingMode.CHECKED_MAX_LENGTH / 10;
+		for (int i = 0; i < count; i++)
+			stream.write(checkedFrame(new SignalStrengthMessage(i)));
+
+		List<Double> received = readAll(stream.toByteArray(), new TrafficMetrics());
+
+		assertEquals(count, received.size());
+		for (int i = 0; i < count; i++)
+			assertEquals(i, received.get(i), 0);
+	}
+
+	/**
+	 * A header longer than the limit is corrupt whatever its check byte, so the
+	 * reader never waits on it
+	 */
+	@Test
+	public void checkedFramingRejectsLengthsOverTheLimit() {
+		byte[] frame = checkedFrame(new SignalStrengthMessage(1));
+
+		for (int check = 0; check < 256; check++) {
+			ByteBuffer buffer = ByteBuffer.allocate(4 + frame.length);
+			buffer.put(SYNC).putShort((short) 0xFFFF).put((byte) check).put(frame);
+
+			assertEquals(4, FramingMode.CHECKED.skipInvalid(buffer, 0, buffer.capacity()));
+		}
+	}
+
+	@Test
+	public void checkedFramingRefusesLongMessages() {
+		char[] text = new char[FramingMode.CHECKED_MAX_LENGTH];
+		Arrays.fill(text, 'x');
+
+		try {
+			FramingMode.CHECKED.frameLength(new NotifyUserMessage(new UserNotification("", new String(text))));
+			fail("A message over the limit was framed");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	private static byte[] checkedFrame(Message message) {
+		ByteBuffer buffer = ByteBuffer.allocate(FramingMode.CHECKED.frameLength(message));
+		FramingMode.CHECKED.encodeFrame(buffer, message);
+		return buffer.array();
+	}
+
+	private static List<Double> readAll(byte[] bytes, TrafficMetrics metrics) throws IOException {
+		FrameReader reader = new FrameReader(new ByteArrayInputStream(bytes), metrics);
+		List<Double> received = new ArrayList<Double>();
+
+		try {
+			while (true) {
+				ByteBuffer frame;
+				while ((frame = reader.bufferedFrame(FramingMode.CHECKED)) == null)
+					reader.fill();
+
+				received.add(new SignalStrengthMessage().decodeFrom(frame));
+			}
+		} catch (EOFException e) {
+			return received;
+		}
+	}
+
+}
@@ -0,0 +1,166 @@
+package common.netty.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import common.EmotionsInterface;
+
+public class MessageTooLongTest {
+
+	private ByteArrayOutputStream output;
+	private MessagesIOHandler handler;
+
+	@Before
+	public void setUp() {
+		this.output = new ByteArrayOutputStream();
+		this.handler = newHandler();
+		this.handler.setFramingMode(FramingMode.CHECKED);
+		this.handler.setIOStreams(new ByteArrayInputStream(new byte[0]), this.output);
+	}
+
+	@Test
+	public void sendMessageRefusesALongMessageAndKeepsTheLink() throws IOException {
+		try {
+			this.handler.sendMessage(longNotification());
+			fail("A message over the limit was sent");
+		} catch (MessageTooLongException e) {
+			// Expected
+		}
+
+		this.handler.sendMessage(new SignalStrengthMessage(-40));
+
+		assertEquals(Arrays.asList(-40.0), this.received());
+		assertEquals(1, this.handler.getTrafficMetrics().getOversizeMessageCount());
+	}
+
+	@Test
+	public void sendAsyncRefusesALongMessageAndSendsTheNext() throws InterruptedException {
+		assertFalse(this.handler.sendAsync(longNotification()));
+		assertTrue(this.handler.sendAsync(new SignalStrengthMessage(-40)));
+
+		assertEquals(Arrays.asList(-40.0), this.awaitReceived(1));
+		assertEquals(1, this.handler.getTrafficMetrics().getOversizeMessageCount());
+	}
+
+	/**
+	 * A message already queued when the framing became CHECKED reaches the writer
+	 * thread, which must drop it and carry on
+	 */
+	@Test
+	public void writerDropsALongQueuedMessageAndSendsTheNext() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue();
+		this.handler.setOutboundQueue(queue);
+		assertTrue(queue.offer(longNotification()));
+
+		assertTrue(this.handler.sendAsync(new SignalStrengthMessage(-40)));
+		assertTrue(this.handler.sendAsync(new SignalStrengthMessage(-50)));
+
+		assertEquals(Arrays.asList(-40.0, -50.0), this.awaitReceived(2));
+		assertEquals(1, this.handler.getTrafficMetrics().getOversizeMessageCount());
+	}
+
+	private static NotifyUserMessage longNotification() {
+		// Two bytes a character
+		char[] text = new char[FramingMode.CHECKED_MAX_LENGTH];
+		Arrays.fill(text, 'x');
+		return new NotifyUserMessage(new UserNotification("", new String(text)));
+	}
+
+	private List<Double> awaitReceived(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		List<Double> received = this.received();
+		while (received.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+			received = this.received();
+		}
+
+		return received;
+	}
+
+	private List<Double> received() {
+		FrameReader reader = new FrameReader(new ByteArrayInputStream(this.output.toByteArray()),
+				new TrafficMetrics());
+		List<Double> received = new ArrayList<Double>();
+
+		try {
+			while (true) {
+				ByteBuffer frame;
+				while ((frame = reader.bufferedFrame(FramingMode.CHECKED)) == null)
+					reader.fill();
+
+				received.add(new SignalStrengthMessage().decodeFrom(frame));
+			}
+		} catch (EOFException e) {
+			return received;
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static MessagesIOHandler newHandler() {
+		return new MessagesIOHandler(new EmotionsInterface() {
+			@Override
+			public void onBordemSet(float newBordem) {
+			}
+
+			@Override
+			public void onCourageSet(float newEmotion) {
+			}
+
+			@Override
+			public void onCuriositySet(float newEmotion) {
+			}
+
+			@Override
+			public void onFearSet(float newFear) {
+			}
+
+			@Override
+			public void onHappinessSet(float newEmotion) {
+			}
+
+			@Override
+			public void onHungerSet(float newHunger) {
+			}
+
+			@Override
+			public void onTiredSet(float newTired) {
+			}
+		}) {
+			@Override
+			protected void onNotification(UserNotification notification) {
+			}
+
+			@Override
+			protected void onIOException(IOException e) {
+			}
+
+			@Override
+			protected void onSignalStrength(double strength) {
+			}
+
+			@Override
+			protected void onSignalStrengthReq() {
+			}
+
+			@Override
+			protected void onDeathMessage() {
+			}
+		};
+	}
+
+}
@@ -0,0 +1,102 @@
+package common.netty.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import common.EmotionPrimitiveID;
+
+public class OutboundMessageQueueTest {
+
+	private static final String[] ROTATIONS = { "R", "'R", "U", "'U", "F", "B" };
+
+	/**
+	 * Each cube message is one rotation, so every one of them must reach the
+	 * robot in the order the cube made them
+	 */
+	@Test
+	public void everyCubeRotationIsSent() throws InterruptedException {
+		assertAllRotationsDrained(new OutboundMessageQueue());
+	}
+
+	/**
+	 * A latest-wins policy only merges keyed messages, and cube messages have no
+	 * key
+	 */
+	@Test
+	public void latestWinsPolicyKeepsEveryCubeRotation() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue();
+		queue.setSendPolicy(MessageType.CUBE_STATE_UPDATE, SendPolicy.latestWins(50));
+
+		assertAllRotationsDrained(queue);
+		assertEquals(0, queue.getCoalescedCount());
+		assertEquals(0, queue.getHeldCount());
+	}
+
+	@Test
+	public void latestWinsPolicyMergesKeyedMessages() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue();
+		queue.setSendPolicy(MessageType.FIELD_CHANGE, SendPolicy.latestWins(0));
+
+		queue.offer(new EmotionUpdateMessage(EmotionPrimitiveID.FEAR, 0.1f));
+		EmotionUpdateMessage newest = new EmotionUpdateMessage(EmotionPrimitiveID.FEAR, 0.2f);
+		queue.offer(newest);
+
+		Message[] batch = new Message[4];
+		assertEquals(1, queue.drainTo(batch, new long[batch.length]));
+		assertSame(newest, batch[0]);
+		assertEquals(1, queue.getCoalescedCount());
+	}
+
+	/**
+	 * A released latest-wins message is the newest value, so a full lane must
+	 * keep it held rather than drop it, without spending its token
+	 */
+	@Test
+	public void latestWinsMessageWaitsForAFullLane() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue(2, OverflowPolicy.BLOCK);
+		queue.setSendPolicy(MessageType.FIELD_CHANGE, new SendPolicy(1, 1, 0, true));
+
+		// Cube messages share the bulk lane
+		queue.offer(new RubiksCubeMessage("R", 1));
+		queue.offer(new RubiksCubeMessage("U", 2));
+		EmotionUpdateMessage newest = new EmotionUpdateMessage(EmotionPrimitiveID.FEAR, 0.3f);
+		queue.offer(newest);
+
+		Message[] batch = new Message[2];
+		long[] queuedAt = new long[batch.length];
+		assertEquals(2, queue.drainTo(batch, queuedAt));
+		assertEquals(MessageType.CUBE_STATE_UPDATE, batch[0].getMessageType());
+		assertEquals(1, queue.getHeldCount());
+
+		// The token was not spent on the first try, so it goes at once
+		assertEquals(1, queue.drainTo(batch, queuedAt));
+		assertSame(newest, batch[0]);
+		assertEquals(0, queue.getDroppedCount());
+	}
+
+	private static void assertAllRotationsDrained(OutboundMessageQueue queue) throws InterruptedException {
+		int count = 200;
+		for (int i = 0; i < count; i++)
+			assertTrue(queue.offer(new RubiksCubeMessage(ROTATIONS[i % ROTATIONS.length], i)));
+
+		Message[] batch = new Message[32];
+		long[] queuedAt = new long[batch.length];
+		int received = 0;
+		while (received < count) {
+			int drained = queue.drainTo(batch, queuedAt);
+			for (int i = 0; i < drained; i++) {
+				RubiksCubeMessage message = (RubiksCubeMessage) batch[i];
+				assertEquals(received, message.movesToSolve);
+				assertEquals(new RubiksCubeMessage(ROTATIONS[received % ROTATIONS.length], 0).rotationCode,
+						message.rotationCode);
+				received++;
+			}
+		}
+
+		assertEquals(0, queue.size());
+	}
+
+}
@@ -0,0 +1,152 @@
+package common.netty.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ReliableSessionTest {
+
+	@Test
+	public void fullWindowRefusesMessages() {
+		ReliableSession session = new ReliableSession(3);
+
+		for (int i = 1; i <= 3; i++)
+			assertEquals(i, session.tryWrap(new RobotDeathMessage()).getSequence());
+
+		assertNull(session.tryWrap(new RobotDeathMessage()));
+		assertEquals(3, session.getInFlight());
+	}
+
+	@Test
+	public void ackReleasesBlockedSender() throws InterruptedException {
+		final ReliableSession session = new ReliableSession(2);
+		SequencedMessage first = session.tryWrap(new RobotDeathMessage());
+		session.tryWrap(new RobotDeathMessage());
+
+		final CountDownLatch released = new CountDownLatch(1);
+		Thread sender = new Thread() {
+			@Override
+			public void run() {
+				try {
+					session.awaitSpace();
+					released.countDown();
+				} catch (InterruptedException e) {
+					// The test fails on the latch
+				}
+			}
+		};
+		sender.start();
+
+		assertFalse(released.await(100, TimeUnit.MILLISECONDS));
+
+		session.onAck(first.getEpoch(), first.getSequence());
+
+		assertTrue(released.await(5, TimeUnit.SECONDS));
+		assertEquals(1, session.getInFlight());
+		assertNotNull(session.tryWrap(new RobotDeathMessage()));
+	}
+
+	@Test
+	public void ackForAnotherEpochIsIgnored() {
+		ReliableSession session = new ReliableSession(4);
+		SequencedMessage message = session.tryWrap(new RobotDeathMessage());
+
+		session.onAck((short) (message.getEpoch() + 1), message.getSequence());
+
+		assertEquals(1, session.getInFlight());
+	}
+
+	@Test
+	public void ackBeyondWhatWasSentOnlyReleasesWhatWasSent() {
+		ReliableSession session = new ReliableSession(4);
+		SequencedMessage message = session.tryWrap(new RobotDeathMessage());
+
+		session.onAck(message.getEpoch(), 100);
+
+		assertEquals(0, session.getInFlight());
+		assertEquals(2, session.tryWrap(new RobotDeathMessage()).getSequence());
+	}
+
+	@Test
+	public void unacknowledgedAreOldestFirst() {
+		ReliableSession session = new ReliableSession(3);
+		SequencedMessage[] sent = new SequencedMessage[5];
+		sent[0] = session.tryWrap(new RobotDeathMessage());
+		sent[1] = session.tryWrap(new RobotDeathMessage());
+		session.onAck(sent[0].getEpoch(), 1);
+
+		// Wraps around the end of the window
+		for (int i = 2; i < 4; i++)
+			sent[i] = session.tryWrap(new RobotDeathMessage());
+
+		SequencedMessage[] unacknowledged = session.unacknowledged();
+		assertEquals(3, unacknowledged.length);
+		assertSame(sent[1], unacknowledged[0]);
+		assertSame(sent[2], unacknowledged[1]);
+		assertSame(sent[3], unacknowledged[2]);
+	}
+
+	/**
+	 * The link drops with messages in flight, some of which arrived, then every
+	 * unacknowledged message is resent on the next link. The receiver acts on
+	 * each message exactly once and in order, and the sender ends up with
+	 * nothing in flight.
+	 */
+	@Test
+	public void resendAfterReconnectConverges() throws IOException {
+		ReliableSession session = new ReliableSession(8);
+		SequenceTracker tracker = new SequenceTracker();
+		List<Double> received = new ArrayList<Double>();
+
+		// The first link carries 6 of 8 then drops, with the ack for them lost
+		for (int i = 0; i < 8; i++) {
+			ByteBuffer frame = encode(session.tryWrap(new SignalStrengthMessage(i)));
+			if (i < 6)
+				receive(frame, tracker, received);
+		}
+		tracker.takeAck();
+		assertEquals(8, session.getInFlight());
+
+		// The next link
+		for (SequencedMessage resent : session.unacknowledged())
+			receive(encode(resent), tracker, received);
+
+		AckMessage ack = tracker.takeAck();
+		session.onAck(ack.getEpoch(), ack.getSequence());
+
+		assertEquals(8, received.size());
+		for (int i = 0; i < 8; i++)
+			assertEquals(i, received.get(i), 0);
+		assertEquals(0, session.getInFlight());
+		assertNull(tracker.takeAck());
+	}
+
+	private static ByteBuffer encode(Message message) {
+		ByteBuffer buffer = ByteBuffer.allocate(message.getLength());
+		message.encodeInto(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void receive(ByteBuffer frame, SequenceTracker tracker, List<Double> received)
+			throws IOException {
+		SequencedMessage envelope = new SequencedMessage();
+		envelope.decodeFrom(frame);
+
+		if (tracker.accept(envelope.getEpoch(), envelope.getSequence()))
+			received.add(new SignalStrengthMessage().decodeFrom(frame));
+	}
+
+}
@@ -0,0 +1,71 @@
+package common.netty.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SequenceTrackerTest {
+
+	private static final short EPOCH = 42;
+
+	@Test
+	public void newMessagesAreAccepted() {
+		SequenceTracker tracker = new SequenceTracker();
+
+		assertTrue(tracker.accept(EPOCH, 1));
+		assertTrue(tracker.accept(EPOCH, 2));
+
+		AckMessage ack = tracker.takeAck();
+		assertEquals(EPOCH, ack.getEpoch());
+		assertEquals(2, ack.getSequence());
+		assertNull(tracker.takeAck());
+	}
+
+	@Test
+	public void resendIsDroppedAndAcknowledgedAgain() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.accept(EPOCH, 1);
+		tracker.accept(EPOCH, 2);
+		tracker.takeAck();
+
+		// The ack was lost, so the sender resends
+		assertFalse(tracker.accept(EPOCH, 1));
+		assertFalse(tracker.accept(EPOCH, 2));
+		assertTrue(tracker.accept(EPOCH, 3));
+
+		assertEquals(3, tracker.takeAck().getSequence());
+	}
+
+	@Test
+	public void duplicateAloneStillSendsAnAck() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.accept(EPOCH, 1);
+		tracker.takeAck();
+
+		assertFalse(tracker.accept(EPOCH, 1));
+
+		AckMessage ack = tracker.takeAck();
+		assertEquals(1, ack.getSequence());
+		assertNull(tracker.takeAck());
+	}
+
+	@Test
+	public void newEpochStartsAgain() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.accept(EPOCH, 1);
+		tracker.accept(EPOCH, 2);
+		tracker.takeAck();
+
+		// The peer restarted, its numbering starts again from 1
+		short restarted = EPOCH + 1;
+		assertTrue(tracker.accept(restarted, 1));
+
+		AckMessage ack = tracker.takeAck();
+		assertEquals(restarted, ack.getEpoch());
+		assertEquals(1, ack.getSequence());
+	}
+
+}
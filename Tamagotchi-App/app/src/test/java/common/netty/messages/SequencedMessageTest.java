@@ -0,0 +1,57 @@
+package common.netty.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import common.EmotionPrimitiveID;
+
+public class SequencedMessageTest {
+
+	@Test
+	public void roundTripLeavesTheMessageInTheBuffer() throws IOException {
+		SequencedMessage sent = new SequencedMessage((short) -7, 300,
+				new EmotionUpdateMessage(EmotionPrimitiveID.TIRED, 0.25f));
+
+		ByteBuffer buffer = ByteBuffer.allocate(sent.getLength());
+		sent.encodeInto(buffer);
+		assertEquals(0, buffer.remaining());
+		buffer.flip();
+
+		SequencedMessage received = new SequencedMessage();
+		received.decodeFrom(buffer);
+
+		assertEquals((short) -7, received.getEpoch());
+		assertEquals(300, received.getSequence());
+		assertNull(received.getMessage());
+
+		EmotionUpdateMessage inner = new EmotionUpdateMessage();
+		inner.decodeFrom(buffer);
+		assertEquals(EmotionPrimitiveID.TIRED, inner.getFieldID());
+		assertEquals(0.25f, inner.getNewValue(), 0);
+	}
+
+	@Test
+	public void emptyEnvelopeIsRejected() {
+		SequencedMessage sent = new SequencedMessage((short) 1, 1, new RobotDeathMessage());
+		ByteBuffer buffer = ByteBuffer.allocate(sent.getLength());
+		sent.encodeInto(buffer);
+		buffer.flip();
+
+		// Drop the message inside
+		buffer.limit(buffer.limit() - new RobotDeathMessage().getLength());
+
+		try {
+			new SequencedMessage().decodeFrom(buffer);
+			fail("An empty envelope was accepted");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+}
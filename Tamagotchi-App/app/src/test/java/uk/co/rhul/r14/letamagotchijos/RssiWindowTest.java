@@ -0,0 +1,53 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RssiWindowTest {
+
+    @Test
+    public void emptyWindowHasNoStats() {
+        assertNull(new RssiWindow(4).getStats());
+    }
+
+    @Test
+    public void statsCoverTheReadings() {
+        RssiWindow window = new RssiWindow(4);
+        long before = System.currentTimeMillis();
+        window.add(-60);
+        window.add(-70);
+        window.add(-50);
+
+        RssiStats stats = window.getStats();
+        assertEquals(-50, stats.getLatest());
+        assertEquals(-70, stats.getMin());
+        assertEquals(-50, stats.getMax());
+        assertEquals(-60, stats.getMean(), 0);
+        assertEquals(3, stats.getCount());
+        assertTrue(stats.getSampledAtMillis() >= before);
+    }
+
+    @Test
+    public void oldestReadingIsDroppedWhenFull() {
+        RssiWindow window = new RssiWindow(2);
+        window.add(-90);
+        window.add(-60);
+        window.add(-40);
+
+        RssiStats stats = window.getStats();
+        assertEquals(2, stats.getCount());
+        assertEquals(-60, stats.getMin());
+        assertEquals(-50, stats.getMean(), 0);
+    }
+
+    @Test
+    public void windowMustHoldAReading() {
+        try {
+            new RssiWindow(0);
+            fail("An empty window was made");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
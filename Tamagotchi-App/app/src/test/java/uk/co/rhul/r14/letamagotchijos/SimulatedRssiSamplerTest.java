@@ -0,0 +1,53 @@
+package uk.co.rhul.r14.letamagotchijos;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SimulatedRssiSamplerTest {
+
+    @Test
+    public void readingsStayWithinTheJitter() {
+        SimulatedRssiSampler sampler = new SimulatedRssiSampler(new RssiWindow(50), -60, 5, 1000, 1);
+
+        for (int i = 0; i < 50; i++) {
+            sampler.sample();
+        }
+
+        RssiStats stats = sampler.getStats();
+        assertEquals(50, stats.getCount());
+        assertTrue(stats.getMin() >= -65);
+        assertTrue(stats.getMax() <= -55);
+    }
+
+    @Test
+    public void sameSeedRepeatsTheReadings() {
+        SimulatedRssiSampler first = new SimulatedRssiSampler(new RssiWindow(8), -60, 10, 1000, 42);
+        SimulatedRssiSampler second = new SimulatedRssiSampler(new RssiWindow(8), -60, 10, 1000, 42);
+
+        for (int i = 0; i < 8; i++) {
+            first.sample();
+            second.sample();
+            assertEquals(first.getStats().getLatest(), second.getStats().getLatest());
+        }
+    }
+
+    @Test
+    public void threadSamplesUntilStopped() throws InterruptedException {
+        SimulatedRssiSampler sampler = new SimulatedRssiSampler(new RssiWindow(4), -60, 0, 5, 1);
+        sampler.start();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sampler.getStats() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        sampler.stop();
+
+        assertNotNull(sampler.getStats());
+        assertEquals(-60, sampler.getStats().getLatest());
+
+        // The last readings are kept once stopped
+        Thread.sleep(50);
+        assertNotNull(sampler.getStats());
+    }
+}
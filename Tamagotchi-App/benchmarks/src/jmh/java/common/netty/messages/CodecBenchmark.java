@@ -0,0 +1,173 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import common.EmotionPrimitiveID;
+
+/**
+ * Encode and decode throughput of each message class, without any framing or
+ * IO. Run with the gc profiler (on by default in build.gradle) to see the
+ * allocation rate of each.
+ * 
+ * @author Danny
+ * @version 1.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(4096);
+	private final CountingEmotions emotions = new CountingEmotions();
+	private final UserNotification notification = new UserNotification("", "");
+
+	private final EmotionUpdateMessage emotionUpdate = new EmotionUpdateMessage(EmotionPrimitiveID.FEAR, 0.42f);
+	private final EmotionSnapshotMessage emotionSnapshot = new EmotionSnapshotMessage(0.1f, 0.2f, 0.3f, 0.4f);
+	private final NotifyUserMessage notifyUser = new NotifyUserMessage(
+			new UserNotification("Hungry", "Your robot would like some food"));
+	private final NotifyUserMessage notifyUserUtf8 = new NotifyUserMessage(
+			new UserNotification("Hungry", "Your robot would like some food"), true);
+	private final SignalStrengthMessage signalStrength = new SignalStrengthMessage(-61.5);
+	private final RubiksCubeMessage rubiksCube = new RubiksCubeMessage("'R", 17);
+	private final PingMessage ping = new PingMessage(false, 123456789L);
+	private final RobotDeathMessage robotDeath = new RobotDeathMessage();
+
+	private final EmotionUpdateMessage emotionUpdateDecoder = new EmotionUpdateMessage();
+	private final EmotionSnapshotMessage emotionSnapshotDecoder = new EmotionSnapshotMessage();
+	private final NotifyUserMessage notifyUserDecoder = new NotifyUserMessage();
+	private final SignalStrengthMessage signalStrengthDecoder = new SignalStrengthMessage();
+	private final RubiksCubeMessage rubiksCubeDecoder = new RubiksCubeMessage();
+	private final PingMessage pingDecoder = new PingMessage();
+
+	private ByteBuffer emotionUpdateBytes, emotionSnapshotBytes, notifyUserBytes, notifyUserUtf8Bytes,
+			signalStrengthBytes, rubiksCubeBytes, pingBytes;
+
+	@Setup
+	public void setUp() {
+		this.emotionUpdateBytes = encoded(this.emotionUpdate);
+		this.emotionSnapshotBytes = encoded(this.emotionSnapshot);
+		this.notifyUserBytes = encoded(this.notifyUser);
+		this.notifyUserUtf8Bytes = encoded(this.notifyUserUtf8);
+		this.signalStrengthBytes = encoded(this.signalStrength);
+		this.rubiksCubeBytes = encoded(this.rubiksCube);
+		this.pingBytes = encoded(this.ping);
+	}
+
+	private static ByteBuffer encoded(Message message) {
+		return ByteBuffer.wrap(message.getByteArray());
+	}
+
+	private ByteBuffer encode(Message message) {
+		this.buffer.clear();
+		message.encodeInto(this.buffer);
+		return this.buffer;
+	}
+
+	/**
+	 * The decoders move the position, so each decode reads from a fresh view
+	 */
+	private static ByteBuffer rewind(ByteBuffer bytes) {
+		bytes.rewind();
+		return bytes;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeEmotionUpdate() {
+		return this.encode(this.emotionUpdate);
+	}
+
+	@Benchmark
+	public long decodeEmotionUpdate() throws IOException {
+		this.emotionUpdateDecoder.decodeFrom(rewind(this.emotionUpdateBytes), this.emotions);
+		return this.emotions.getChanges();
+	}
+
+	@Benchmark
+	public ByteBuffer encodeEmotionSnapshot() {
+		return this.encode(this.emotionSnapshot);
+	}
+
+	@Benchmark
+	public long decodeEmotionSnapshot() throws IOException {
+		this.emotionSnapshotDecoder.decodeFrom(rewind(this.emotionSnapshotBytes), this.emotions);
+		return this.emotions.getChanges();
+	}
+
+	@Benchmark
+	public ByteBuffer encodeNotifyUser() {
+		return this.encode(this.notifyUser);
+	}
+
+	@Benchmark
+	public UserNotification decodeNotifyUser() throws IOException {
+		this.notifyUserDecoder.decodeFrom(rewind(this.notifyUserBytes), this.notification);
+		return this.notification;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeNotifyUserUtf8() {
+		return this.encode(this.notifyUserUtf8);
+	}
+
+	@Benchmark
+	public UserNotification decodeNotifyUserUtf8() throws IOException {
+		this.notifyUserDecoder.decodeFrom(rewind(this.notifyUserUtf8Bytes), this.notification);
+		return this.notification;
+	}
+
+	@Benchmark
+	public ByteBuffer encodeSignalStrength() {
+		return this.encode(this.signalStrength);
+	}
+
+	@Benchmark
+	public double decodeSignalStrength() throws IOException {
+		return this.signalStrengthDecoder.decodeFrom(rewind(this.signalStrengthBytes));
+	}
+
+	@Benchmark
+	public ByteBuffer encodeRubiksCube() {
+		return this.encode(this.rubiksCube);
+	}
+
+	@Benchmark
+	public int decodeRubiksCube() throws IOException {
+		this.rubiksCubeDecoder.decodeFrom(rewind(this.rubiksCubeBytes));
+		return this.rubiksCubeDecoder.getMovesToSolve();
+	}
+
+	@Benchmark
+	public ByteBuffer encodePing() {
+		return this.encode(this.ping);
+	}
+
+	@Benchmark
+	public long decodePing() throws IOException {
+		this.pingDecoder.decodeFrom(rewind(this.pingBytes));
+		return this.pingDecoder.getTimestamp();
+	}
+
+	@Benchmark
+	public ByteBuffer encodeRobotDeath() {
+		return this.encode(this.robotDeath);
+	}
+
+	/**
+	 * The old path, a new array for every message
+	 */
+	@Benchmark
+	public byte[] getByteArrayEmotionUpdate() {
+		return this.emotionUpdate.getByteArray();
+	}
+
+}
@@ -0,0 +1,59 @@
+package common.netty.messages;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.EmotionsInterface;
+
+/**
+ * Counts the primitive emotions it is told about, one per field of a message,
+ * and does nothing else, so the benchmarks measure the protocol rather than the
+ * callbacks
+ * 
+ * @author Danny
+ * @version 1.0
+ */
+final class CountingEmotions extends EmotionsInterface {
+
+	private final AtomicLong changes = new AtomicLong();
+
+	long getChanges() {
+		return this.changes.get();
+	}
+
+	private void changed() {
+		this.changes.lazySet(this.changes.get() + 1);
+	}
+
+	@Override
+	public void onBordemSet(float newBordem) {
+		this.changed();
+	}
+
+	@Override
+	public void onCourageSet(float newEmotion) {
+	}
+
+	@Override
+	public void onCuriositySet(float newEmotion) {
+	}
+
+	@Override
+	public void onFearSet(float newFear) {
+		this.changed();
+	}
+
+	@Override
+	public void onHappinessSet(float newEmotion) {
+	}
+
+	@Override
+	public void onHungerSet(float newHunger) {
+		this.changed();
+	}
+
+	@Override
+	public void onTiredSet(float newTired) {
+		this.changed();
+	}
+
+}
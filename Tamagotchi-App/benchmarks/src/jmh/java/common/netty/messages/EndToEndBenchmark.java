@@ -0,0 +1,165 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import common.EmotionPrimitiveID;
+
+/**
+ * Messages through sendMessage, a loopback pipe and the receiver's poll, up to
+ * the receiver's callback. The phone plays the receiver and the robot the
+ * sender, as they do in the app.
+ * 
+ * @author Danny
+ * @version 1.0
+ */
+@State(Scope.Thread)
+public class EndToEndBenchmark {
+
+	private static final int BATCH = 64;
+	private static final int PIPE_CAPACITY = 1 << 16;
+
+	@Param({ "LEGACY", "COMPACT", "CHECKED" })
+	public FramingMode framing;
+
+	private LoopbackPipe robotToPhone, phoneToRobot;
+	private CountingEmotions phoneEmotions;
+	private LoopbackHandler robot, phone;
+
+	private final Message[] batch = new Message[BATCH];
+	private long expectedChanges;
+
+	/**
+	 * Replies to signal strength requests, counts the replies and ignores
+	 * everything else
+	 */
+	private static final class LoopbackHandler extends MessagesIOHandler {
+
+		private volatile long signalStrengths;
+
+		LoopbackHandler(LoopbackPipe in, LoopbackPipe out, CountingEmotions emotions) {
+			super(in.getInputStream(), out.getOutputStream(), emotions);
+		}
+
+		@Override
+		protected void onNotification(UserNotification notification) {
+		}
+
+		@Override
+		protected void onIOException(IOException e) {
+		}
+
+		@Override
+		protected void onSignalStrength(double strength) {
+			this.signalStrengths++;
+		}
+
+		@Override
+		protected void onSignalStrengthReq() {
+			try {
+				this.sendMessage(new SignalStrengthMessage(-60));
+			} catch (IOException e) {
+			}
+		}
+
+		@Override
+		protected void onDeathMessage() {
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		this.robotToPhone = new LoopbackPipe(PIPE_CAPACITY);
+		this.phoneToRobot = new LoopbackPipe(PIPE_CAPACITY);
+		this.phoneEmotions = new CountingEmotions();
+
+		this.robot = new LoopbackHandler(this.phoneToRobot, this.robotToPhone, new CountingEmotions());
+		this.phone = new LoopbackHandler(this.robotToPhone, this.phoneToRobot, this.phoneEmotions);
+		this.robot.setFramingMode(this.framing);
+		this.phone.setFramingMode(this.framing);
+
+		EmotionPrimitiveID[] fields = { EmotionPrimitiveID.FEAR, EmotionPrimitiveID.HUNGER, EmotionPrimitiveID.TIRED,
+				EmotionPrimitiveID.BOREDOM };
+		for (int i = 0; i < BATCH; i++)
+			this.batch[i] = new EmotionUpdateMessage(fields[i % fields.length], (i % 100) / 100f);
+
+		this.expectedChanges = this.phoneEmotions.getChanges();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		this.robot.stopPollingThread();
+		this.phone.stopPollingThread();
+		this.robotToPhone.close();
+		this.phoneToRobot.close();
+	}
+
+	/**
+	 * Blocks until the phone has called back for everything sent so far. Yields
+	 * rather than spins so that the poll threads get to run on small machines.
+	 */
+	private long awaitChanges() {
+		long changes;
+		while ((changes = this.phoneEmotions.getChanges()) < this.expectedChanges)
+			Thread.yield();
+		return changes;
+	}
+
+	/**
+	 * One write per message, as the robot sends them today
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(BATCH)
+	public long sendMessage() throws IOException {
+		for (Message message : this.batch)
+			this.robot.sendMessage(message);
+
+		this.expectedChanges += BATCH;
+		return this.awaitChanges();
+	}
+
+	/**
+	 * The whole batch in one write
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(BATCH)
+	public long sendMessages() throws IOException {
+		this.robot.sendMessages(this.batch, 0, BATCH);
+
+		this.expectedChanges += BATCH;
+		return this.awaitChanges();
+	}
+
+	/**
+	 * A signal strength request from the robot and the phone's reply, through
+	 * both poll threads
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long roundTrip() throws IOException {
+		long replies = this.robot.signalStrengths;
+		this.robot.sendMessage(new SignalStrengthReqMessage());
+
+		while (this.robot.signalStrengths == replies)
+			Thread.yield();
+		return replies + 1;
+	}
+
+}
@@ -0,0 +1,165 @@
+package common.netty.messages;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in memory pipe backed by a ring buffer, for one writing thread and one
+ * reading thread. Two of these connect a pair of MessagesIOHandlers without a
+ * socket, so the benchmarks measure the protocol rather than the kernel.
+ * 
+ * @author Danny
+ * @version 1.0
+ */
+final class LoopbackPipe {
+
+	private final byte[] ring;
+	private final int mask;
+
+	/**
+	 * Total bytes written and read, the difference is what is in the ring
+	 */
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong read = new AtomicLong();
+	private volatile boolean closed;
+
+	private final InputStream inputStream = new InputStream() {
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0)
+				return 0;
+
+			long readIndex = LoopbackPipe.this.read.get();
+			long available;
+			int idle = 0;
+			while ((available = LoopbackPipe.this.written.get() - readIndex) == 0) {
+				if (LoopbackPipe.this.closed)
+					return -1;
+				idle = backOff(idle);
+			}
+
+			int count = (int) Math.min(available, length);
+			LoopbackPipe.this.copy(readIndex, bytes, offset, count, false);
+			LoopbackPipe.this.read.lazySet(readIndex + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return (int) (LoopbackPipe.this.written.get() - LoopbackPipe.this.read.get());
+		}
+
+		@Override
+		public void close() {
+			LoopbackPipe.this.close();
+		}
+	};
+
+	private final OutputStream outputStream = new OutputStream() {
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			long writeIndex = LoopbackPipe.this.written.get();
+
+			while (length > 0) {
+				long space;
+				int idle = 0;
+				while ((space = LoopbackPipe.this.ring.length - (writeIndex - LoopbackPipe.this.read.get())) == 0) {
+					if (LoopbackPipe.this.closed)
+						throw new IOException("The pipe is closed.");
+					idle = backOff(idle);
+				}
+
+				if (LoopbackPipe.this.closed)
+					throw new IOException("The pipe is closed.");
+
+				int count = (int) Math.min(space, length);
+				LoopbackPipe.this.copy(writeIndex, bytes, offset, count, true);
+				writeIndex += count;
+				LoopbackPipe.this.written.lazySet(writeIndex);
+
+				offset += count;
+				length -= count;
+			}
+		}
+
+		@Override
+		public void close() {
+			LoopbackPipe.this.close();
+		}
+	};
+
+	/**
+	 * @param capacity the size of the ring, rounded up to a power of two
+	 * @since 1.0
+	 */
+	LoopbackPipe(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.ring = new byte[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Copies between the array and the ring, in up to two parts where it wraps
+	 */
+	private void copy(long index, byte[] bytes, int offset, int count, boolean toRing) {
+		int start = (int) (index & this.mask);
+		int first = Math.min(count, this.ring.length - start);
+
+		if (toRing) {
+			System.arraycopy(bytes, offset, this.ring, start, first);
+			System.arraycopy(bytes, offset + first, this.ring, 0, count - first);
+		} else {
+			System.arraycopy(this.ring, start, bytes, offset, first);
+			System.arraycopy(this.ring, 0, bytes, offset + first, count - first);
+		}
+	}
+
+	/**
+	 * Spins, then yields, then parks, so that a busy pipe stays fast and an idle
+	 * one doesn't burn a core
+	 */
+	private static int backOff(int idle) {
+		if (idle < 100) {
+			// spin
+		} else if (idle < 200) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(1000);
+		}
+
+		return idle + 1;
+	}
+
+	InputStream getInputStream() {
+		return this.inputStream;
+	}
+
+	OutputStream getOutputStream() {
+		return this.outputStream;
+	}
+
+	/**
+	 * The reader gets end of stream once it has read what is left, the writer gets
+	 * an IOException
+	 */
+	void close() {
+		this.closed = true;
+	}
+
+}
@@ -0,0 +1,189 @@
+package common.netty.codecgen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import common.netty.messages.codec.WireField;
+import common.netty.messages.codec.WireMessage;
+
+/**
+ * Generates the codec of every message annotated with WireMessage. The
+ * codecgen.generate option picks what is written: codecs (the default), tests
+ * for a JUnit round trip test of each codec or benchmarks for a JMH benchmark
+ * of each codec. The tests and benchmarks are written by running the processor
+ * over common again with -proc:only, see the benchmarks build.gradle.
+ *
+ * @author Danny
+ * @version 1.0
+ * @see common.netty.messages.codec.WireMessage
+ */
+@SupportedAnnotationTypes({ "common.netty.messages.codec.WireMessage", "common.netty.messages.codec.WireField" })
+@SupportedOptions(CodecProcessor.GENERATE_OPTION)
+public final class CodecProcessor extends AbstractProcessor {
+
+	static final String GENERATE_OPTION = "codecgen.generate";
+
+	private static final String MESSAGES_PACKAGE = "common.netty.messages";
+	private static final String MESSAGE_CLASS = MESSAGES_PACKAGE + ".Message";
+
+	/**
+	 * Names used by the generated code, a field can't have them
+	 */
+	private static final String[] RESERVED_NAMES = { "buffer", "message", "expected", "actual", "i" };
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		String generate = this.processingEnv.getOptions().get(GENERATE_OPTION);
+		if (generate == null)
+			generate = "codecs";
+
+		if (!generate.equals("codecs") && !generate.equals("tests") && !generate.equals("benchmarks")) {
+			this.error(null, "Unknown " + GENERATE_OPTION + " " + generate + ", use codecs, tests or benchmarks.");
+			return true;
+		}
+
+		for (VariableElement field : ElementFilter.fieldsIn(roundEnv.getElementsAnnotatedWith(WireField.class))) {
+			if (field.getEnclosingElement().getAnnotation(WireMessage.class) == null)
+				this.error(field, "A WireField is only written if its class is a WireMessage.");
+		}
+
+		for (TypeElement type : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(WireMessage.class))) {
+			MessageModel message = this.model(type);
+			if (message == null)
+				continue;
+
+			try {
+				if (generate.equals("codecs"))
+					this.write(type, message, message.getCodecName(), CodecSources.codec(message));
+				else if (generate.equals("tests"))
+					this.write(type, message, message.getCodecName() + "Test", CodecSources.test(message));
+				else
+					this.write(type, message, message.getCodecName() + "Benchmark", CodecSources.benchmark(message));
+			} catch (IOException e) {
+				this.error(type, "Could not write the codec of " + type.getSimpleName() + ": " + e.getMessage());
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks the message and its fields
+	 *
+	 * @param type the annotated class
+	 * @return MessageModel -> the message, or null if it is invalid, the errors
+	 *         have been reported
+	 */
+	private MessageModel model(TypeElement type) {
+		boolean valid = true;
+
+		Element enclosing = type.getEnclosingElement();
+		if (enclosing.getKind() != ElementKind.PACKAGE
+				|| !((PackageElement) enclosing).getQualifiedName().contentEquals(MESSAGES_PACKAGE)) {
+			this.error(type, "A WireMessage must be a top level class in " + MESSAGES_PACKAGE + ".");
+			valid = false;
+		}
+
+		TypeMirror messageClass = this.processingEnv.getElementUtils().getTypeElement(MESSAGE_CLASS).asType();
+		if (type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)
+				|| !this.processingEnv.getTypeUtils().isSubtype(type.asType(), messageClass)) {
+			this.error(type, "A WireMessage must be a concrete class that extends " + MESSAGE_CLASS + ".");
+			valid = false;
+		}
+
+		boolean hasDefaultConstructor = false;
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+				hasDefaultConstructor = true;
+		}
+		if (!hasDefaultConstructor) {
+			this.error(type, "A WireMessage needs a constructor with no arguments that isn't private.");
+			valid = false;
+		}
+
+		// Declaration order is the order on the wire
+		List<FieldModel> fields = new ArrayList<FieldModel>();
+		for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			WireField wireField = field.getAnnotation(WireField.class);
+			if (wireField == null)
+				continue;
+
+			String name = field.getSimpleName().toString();
+			TypeKind kind = field.asType().getKind();
+			Set<Modifier> modifiers = field.getModifiers();
+
+			if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)
+					|| modifiers.contains(Modifier.FINAL)) {
+				this.error(field, "A WireField must not be private, static or final.");
+				valid = false;
+			} else if (!FieldModel.accepts(kind, wireField.value())) {
+				this.error(field, "A " + kind.name().toLowerCase(Locale.ROOT) + " field can't be written as "
+						+ wireField.value() + ".");
+				valid = false;
+			} else if (wireField.value().isFixedPoint() ? wireField.scale() < 1 : wireField.scale() != 1) {
+				this.error(field, "Only the fixed point types have a scale, and it must be at least 1.");
+				valid = false;
+			} else if (isReserved(name)) {
+				this.error(field, "The name " + name + " is used by the generated code.");
+				valid = false;
+			} else {
+				fields.add(new FieldModel(name, kind, wireField.value(), wireField.scale()));
+			}
+		}
+
+		if (!valid)
+			return null;
+
+		return new MessageModel(MESSAGES_PACKAGE, type.getSimpleName().toString(), fields);
+	}
+
+	private void write(TypeElement type, MessageModel message, String simpleName, String source) throws IOException {
+		Writer writer = this.processingEnv.getFiler()
+				.createSourceFile(message.getPackageName() + "." + simpleName, type).openWriter();
+		try {
+			writer.write(source);
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static boolean isReserved(String name) {
+		for (String reserved : RESERVED_NAMES) {
+			if (reserved.equals(name))
+				return true;
+		}
+
+		return false;
+	}
+
+	private void error(Element element, String text) {
+		this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, text, element);
+	}
+
+}
@@ -0,0 +1,318 @@
+package common.netty.codecgen;
+
+/**
+ * Writes the Java source of a message's codec, its round trip test and its
+ * benchmark
+ *
+ * @author Danny
+ * @version 1.0
+ */
+final class CodecSources {
+
+	/**
+	 * The number of sample messages the round trip test checks, the VARINT
+	 * samples only fit in an int below 64
+	 */
+	private static final int SAMPLES = 64;
+
+	/**
+	 * How far apart the sample indexes of neighbouring fields are, odd so that
+	 * every field up to SAMPLES gets a different index
+	 */
+	private static final int SAMPLE_FIELD_STRIDE = 13;
+
+	private final StringBuilder source = new StringBuilder();
+
+	private CodecSources() {
+	}
+
+	/**
+	 * A package-private class of static methods with no allocation, the message
+	 * calls them from getLength, encodeInto and its decodeFrom
+	 *
+	 * @param message the message
+	 * @return String -> the source of the codec
+	 * @since 1.0
+	 */
+	static String codec(MessageModel message) {
+		CodecSources out = new CodecSources();
+		String name = message.getSimpleName();
+
+		out.header(message, "java.io.IOException", "java.nio.ByteBuffer");
+		out.line("/**");
+		out.line(" * The encoding of " + name + ", generated from its WireField fields by");
+		out.line(" * CodecProcessor. Do not edit, change the fields instead.");
+		out.line(" */");
+		out.line("final class " + message.getCodecName() + " {");
+		out.line();
+		out.line("\tstatic final int MIN_LENGTH = " + message.getFixedLength() + ";");
+		out.line("\tstatic final int MAX_LENGTH = " + message.getMaxLength() + ";");
+		out.line();
+		out.line("\tprivate " + message.getCodecName() + "() {");
+		out.line("\t}");
+		out.line();
+
+		out.line("\t/**");
+		out.line("\t * @return int -> the number of bytes encode writes, including the header");
+		out.line("\t */");
+		out.line("\tstatic int length(" + name + " message) {");
+		StringBuilder length = new StringBuilder("MIN_LENGTH");
+		for (FieldModel field : message.getFields()) {
+			if (field.isVariable())
+				length.append(" + VarInts.length(message.").append(field.getName()).append(")");
+		}
+		out.line("\t\treturn " + length + ";");
+		out.line("\t}");
+		out.line();
+
+		out.line("\t/**");
+		out.line("\t * Writes the header and fields at the buffer's position, which is moved to");
+		out.line("\t * the end of them");
+		out.line("\t */");
+		out.line("\tstatic void encode(" + name + " message, ByteBuffer buffer) {");
+		out.line("\t\tbuffer.put(message.getBaseHeader());");
+		for (FieldModel field : message.getFields())
+			out.line("\t\t" + field.encode("message." + field.getName()));
+		out.line("\t}");
+		out.line();
+
+		out.line("\t/**");
+		out.line("\t * Reads the fields from the buffer's position to its limit into the message,");
+		out.line("\t * the message is only changed if they are all valid");
+		out.line("\t * ");
+		out.line("\t * @throws IOException if the bytes are invalid");
+		out.line("\t */");
+		out.line("\tstatic void decode(ByteBuffer buffer, " + name + " message) throws IOException {");
+		out.line("\t\tmessage.checkHeader(buffer, MIN_LENGTH, MAX_LENGTH);");
+		out.line("\t\tbuffer.get();");
+		out.line();
+
+		boolean afterVariable = false;
+		for (FieldModel field : message.getFields()) {
+			if (afterVariable && !field.isVariable()) {
+				// checkHeader can't know where a field after a VARINT ends
+				out.line("\t\tif (buffer.remaining() < " + field.getType().getWidth() + ")");
+				out.line("\t\t\tthrow new IOException(\"Error the message ends inside " + field.getName() + ".\");");
+			}
+
+			if (field.isBoolean()) {
+				out.line("\t\tbyte " + field.getName() + " = " + field.decode() + ";");
+				out.line("\t\tif (" + field.getName() + " != 0 && " + field.getName() + " != 1)");
+				out.line("\t\t\tthrow new IOException(String.format(\"Invalid " + field.getName() + " byte %d.\", "
+						+ field.getName() + "));");
+			} else {
+				out.line("\t\t" + field.getJavaType() + " " + field.getName() + " = " + field.decode() + ";");
+			}
+
+			afterVariable |= field.isVariable();
+		}
+
+		if (message.isVariable()) {
+			out.line();
+			out.line("\t\tif (buffer.hasRemaining())");
+			out.line("\t\t\tthrow new IOException(\"Error the " + name + " is too long.\");");
+		}
+
+		if (!message.getFields().isEmpty())
+			out.line();
+		for (FieldModel field : message.getFields()) {
+			String value = field.isBoolean() ? field.getName() + " == 1" : field.getName();
+			out.line("\t\tmessage." + field.getName() + " = " + value + ";");
+		}
+		out.line("\t}");
+		out.line();
+		out.line("}");
+
+		return out.source.toString();
+	}
+
+	/**
+	 * A JUnit test that round trips sample messages through the codec and checks
+	 * that the message's own methods agree with it
+	 *
+	 * @param message the message
+	 * @return String -> the source of the test
+	 * @since 1.0
+	 */
+	static String test(MessageModel message) {
+		CodecSources out = new CodecSources();
+		String name = message.getSimpleName(), codec = message.getCodecName();
+
+		out.header(message, "static org.junit.Assert.assertEquals", "static org.junit.Assert.assertFalse",
+				"static org.junit.Assert.fail", "java.io.IOException", "java.nio.ByteBuffer", "org.junit.Test");
+		out.line("/**");
+		out.line(" * Round trips " + name + " through " + codec + ", generated by");
+		out.line(" * CodecProcessor");
+		out.line(" */");
+		out.line("public class " + codec + "Test {");
+		out.line();
+		out.line("\tprivate static final int SAMPLES = " + SAMPLES + ";");
+		out.line();
+		out.sampleMethod(message);
+		out.line();
+
+		out.line("\t@Test");
+		out.line("\tpublic void roundTrips() throws IOException {");
+		out.line("\t\tByteBuffer buffer = ByteBuffer.allocate(" + codec + ".MAX_LENGTH);");
+		out.line();
+		out.line("\t\tfor (int i = 0; i < SAMPLES; i++) {");
+		out.line("\t\t\t" + name + " expected = sample(i);");
+		out.line("\t\t\tbuffer.clear();");
+		out.line("\t\t\t" + codec + ".encode(expected, buffer);");
+		out.line("\t\t\tassertEquals(" + codec + ".length(expected), buffer.position());");
+		out.line();
+		out.line("\t\t\tbuffer.flip();");
+		out.line("\t\t\t" + name + " actual = new " + name + "();");
+		out.line("\t\t\t" + codec + ".decode(buffer, actual);");
+		out.line("\t\t\tassertFalse(buffer.hasRemaining());");
+		for (FieldModel field : message.getFields()) {
+			out.line("\t\t\t" + field.assertEquals("expected." + field.getName(), "actual." + field.getName()));
+		}
+		out.line("\t\t}");
+		out.line("\t}");
+		out.line();
+
+		out.line("\t@Test");
+		out.line("\tpublic void encodesLikeTheMessage() {");
+		out.line("\t\tfor (int i = 0; i < SAMPLES; i++) {");
+		out.line("\t\t\t" + name + " message = sample(i);");
+		out.line("\t\t\tassertEquals(" + codec + ".length(message), message.getLength());");
+		out.line();
+		out.line("\t\t\tByteBuffer expected = ByteBuffer.allocate(" + codec + ".MAX_LENGTH);");
+		out.line("\t\t\t" + codec + ".encode(message, expected);");
+		out.line("\t\t\tByteBuffer actual = ByteBuffer.allocate(" + codec + ".MAX_LENGTH);");
+		out.line("\t\t\tmessage.encodeInto(actual);");
+		out.line("\t\t\tassertEquals(expected.flip(), actual.flip());");
+		out.line("\t\t}");
+		out.line("\t}");
+		out.line();
+
+		out.line("\t@Test");
+		out.line("\tpublic void rejectsTruncatedMessages() {");
+		out.line("\t\tByteBuffer buffer = ByteBuffer.allocate(" + codec + ".MAX_LENGTH);");
+		out.line("\t\t" + codec + ".encode(sample(SAMPLES - 1), buffer);");
+		out.line("\t\tint length = buffer.position();");
+		out.line();
+		out.line("\t\tfor (int end = 0; end < length; end++) {");
+		out.line("\t\t\tbuffer.limit(end).position(0);");
+		out.line("\t\t\ttry {");
+		out.line("\t\t\t\t" + codec + ".decode(buffer, new " + name + "());");
+		out.line("\t\t\t\tfail(\"Decoded the first \" + end + \" of \" + length + \" bytes.\");");
+		out.line("\t\t\t} catch (IOException e) {");
+		out.line("\t\t\t\t// Expected");
+		out.line("\t\t\t}");
+		out.line("\t\t}");
+		out.line("\t}");
+		out.line();
+		out.line("}");
+
+		return out.source.toString();
+	}
+
+	/**
+	 * A JMH benchmark of the codec's encode and decode, run with the gc profiler
+	 * to check that neither allocates
+	 *
+	 * @param message the message
+	 * @return String -> the source of the benchmark
+	 * @since 1.0
+	 */
+	static String benchmark(MessageModel message) {
+		CodecSources out = new CodecSources();
+		String name = message.getSimpleName(), codec = message.getCodecName();
+
+		out.header(message, "java.io.IOException", "java.nio.ByteBuffer", "java.util.concurrent.TimeUnit",
+				"org.openjdk.jmh.annotations.Benchmark", "org.openjdk.jmh.annotations.BenchmarkMode",
+				"org.openjdk.jmh.annotations.Mode", "org.openjdk.jmh.annotations.OutputTimeUnit",
+				"org.openjdk.jmh.annotations.Scope", "org.openjdk.jmh.annotations.Setup",
+				"org.openjdk.jmh.annotations.State");
+		out.line("/**");
+		out.line(" * Encode and decode throughput of " + codec + ", generated by");
+		out.line(" * CodecProcessor");
+		out.line(" */");
+		out.line("@BenchmarkMode(Mode.Throughput)");
+		out.line("@OutputTimeUnit(TimeUnit.MICROSECONDS)");
+		out.line("@State(Scope.Thread)");
+		out.line("public class " + codec + "Benchmark {");
+		out.line();
+		out.line("\tprivate final ByteBuffer buffer = ByteBuffer.allocate(" + codec + ".MAX_LENGTH);");
+		out.line("\tprivate final ByteBuffer encoded = ByteBuffer.allocate(" + codec + ".MAX_LENGTH);");
+		out.line("\tprivate final " + name + " decoded = new " + name + "();");
+		out.line("\tprivate " + name + " message;");
+		out.line();
+		out.sampleMethod(message);
+		out.line();
+		out.line("\t@Setup");
+		out.line("\tpublic void setUp() {");
+		out.line("\t\tthis.message = sample(" + (SAMPLES / 2 + 7) + ");");
+		out.line("\t\t" + codec + ".encode(this.message, this.encoded);");
+		out.line("\t\tthis.encoded.flip();");
+		out.line("\t}");
+		out.line();
+		out.line("\t@Benchmark");
+		out.line("\tpublic ByteBuffer encode() {");
+		out.line("\t\tthis.buffer.clear();");
+		out.line("\t\t" + codec + ".encode(this.message, this.buffer);");
+		out.line("\t\treturn this.buffer;");
+		out.line("\t}");
+		out.line();
+		out.line("\t@Benchmark");
+		out.line("\tpublic " + name + " decode() throws IOException {");
+		out.line("\t\tthis.encoded.rewind();");
+		out.line("\t\t" + codec + ".decode(this.encoded, this.decoded);");
+		out.line("\t\treturn this.decoded;");
+		out.line("\t}");
+		out.line();
+		out.line("}");
+
+		return out.source.toString();
+	}
+
+	/**
+	 * The sample messages shared by the test and the benchmark. Each field's
+	 * index is offset by its position, wrapped to stay below SAMPLES, so that
+	 * fields of the same type hold different values and a codec that mixes them
+	 * up fails.
+	 */
+	private void sampleMethod(MessageModel message) {
+		String name = message.getSimpleName();
+
+		this.line("\tprivate static " + name + " sample(int i) {");
+		this.line("\t\t" + name + " message = new " + name + "();");
+		int position = 0;
+		for (FieldModel field : message.getFields()) {
+			String index = position == 0 ? "i" : "((i + " + position * SAMPLE_FIELD_STRIDE + ") % " + SAMPLES + ")";
+			this.line("\t\tmessage." + field.getName() + " = " + field.sample(index) + ";");
+			position++;
+		}
+		this.line("\t\treturn message;");
+		this.line("\t}");
+	}
+
+	private void header(MessageModel message, String... imports) {
+		this.line("package " + message.getPackageName() + ";");
+		this.line();
+
+		String group = null;
+		for (String name : imports) {
+			// A blank line between the static, java and library imports
+			String nextGroup = name.startsWith("static ") ? "static" : name.startsWith("java.") ? "java" : "other";
+			if (group != null && !group.equals(nextGroup))
+				this.line();
+			group = nextGroup;
+
+			this.line("import " + name + ";");
+		}
+
+		this.line();
+	}
+
+	private void line() {
+		this.source.append('\n');
+	}
+
+	private void line(String text) {
+		this.source.append(text).append('\n');
+	}
+
+}
@@ -0,0 +1,202 @@
+package common.netty.codecgen;
+
+import java.util.Locale;
+
+import javax.lang.model.type.TypeKind;
+
+import common.netty.messages.codec.WireType;
+
+/**
+ * One WireField of a message and the Java that reads, writes and samples it
+ *
+ * @author Danny
+ * @version 1.0
+ */
+final class FieldModel {
+
+	private final String name;
+	private final TypeKind kind;
+	private final WireType type;
+	private final int scale;
+
+	FieldModel(String name, TypeKind kind, WireType type, int scale) {
+		this.name = name;
+		this.kind = kind;
+		this.type = type;
+		this.scale = scale;
+	}
+
+	/**
+	 * @param kind the kind of the field
+	 * @param type how the field is written
+	 * @return boolean -> true if a field of the kind can be written as the type
+	 *         without losing anything that the type can hold
+	 * @since 1.0
+	 */
+	static boolean accepts(TypeKind kind, WireType type) {
+		switch (type) {
+		case INT8:
+			return kind == TypeKind.BYTE || kind == TypeKind.SHORT || kind == TypeKind.INT || kind == TypeKind.LONG;
+		case UINT8:
+		case INT16:
+			return kind == TypeKind.SHORT || kind == TypeKind.INT || kind == TypeKind.LONG;
+		case INT32:
+			return kind == TypeKind.INT || kind == TypeKind.LONG;
+		case INT64:
+			return kind == TypeKind.LONG;
+		case VARINT:
+			return kind == TypeKind.INT;
+		case FLOAT32:
+			return kind == TypeKind.FLOAT;
+		case FLOAT64:
+			return kind == TypeKind.DOUBLE;
+		case FIXED8:
+		case FIXED16:
+			return kind == TypeKind.FLOAT || kind == TypeKind.DOUBLE;
+		default:
+			return kind == TypeKind.BOOLEAN;
+		}
+	}
+
+	String getName() {
+		return this.name;
+	}
+
+	WireType getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return String -> the Java type of the field
+	 */
+	String getJavaType() {
+		return this.kind.name().toLowerCase(Locale.ROOT);
+	}
+
+	boolean isBoolean() {
+		return this.type == WireType.BOOLEAN;
+	}
+
+	boolean isVariable() {
+		return this.type.getWidth() < 0;
+	}
+
+	/**
+	 * @param value an expression of the field's value
+	 * @return String -> a statement writing the value to buffer
+	 */
+	String encode(String value) {
+		switch (this.type) {
+		case INT8:
+		case UINT8:
+			return "buffer.put(" + this.narrow(TypeKind.BYTE, value) + ");";
+		case INT16:
+			return "buffer.putShort(" + this.narrow(TypeKind.SHORT, value) + ");";
+		case INT32:
+			return "buffer.putInt(" + this.narrow(TypeKind.INT, value) + ");";
+		case INT64:
+			return "buffer.putLong(" + value + ");";
+		case VARINT:
+			return "VarInts.put(buffer, " + value + ");";
+		case FLOAT32:
+			return "buffer.putFloat(" + value + ");";
+		case FLOAT64:
+			return "buffer.putDouble(" + value + ");";
+		case FIXED8:
+			return "buffer.put((byte) Math.round(" + value + " * " + this.scaleLiteral() + "));";
+		case FIXED16:
+			return "buffer.putShort((short) Math.round(" + value + " * " + this.scaleLiteral() + "));";
+		default:
+			return "buffer.put(" + value + " ? (byte) 1 : (byte) 0);";
+		}
+	}
+
+	/**
+	 * @return String -> an expression reading the field from buffer, booleans are
+	 *         read as the raw byte and checked by the caller
+	 */
+	String decode() {
+		switch (this.type) {
+		case INT8:
+			return "buffer.get()";
+		case UINT8:
+			return this.kind == TypeKind.SHORT ? "(short) (buffer.get() & 0xFF)" : "buffer.get() & 0xFF";
+		case INT16:
+			return "buffer.getShort()";
+		case INT32:
+			return "buffer.getInt()";
+		case INT64:
+			return "buffer.getLong()";
+		case VARINT:
+			return "VarInts.get(buffer)";
+		case FLOAT32:
+			return "buffer.getFloat()";
+		case FLOAT64:
+			return "buffer.getDouble()";
+		case FIXED8:
+			return "buffer.get() / " + this.scaleLiteral();
+		case FIXED16:
+			return "buffer.getShort() / " + this.scaleLiteral();
+		default:
+			return "buffer.get()";
+		}
+	}
+
+	/**
+	 * @param index an int expression
+	 * @return String -> a value of the field that survives a round trip exactly,
+	 *         different indexes give values of different sizes and signs
+	 */
+	String sample(String index) {
+		switch (this.type) {
+		case INT8:
+			return "(byte) (" + index + " * 37)";
+		case UINT8:
+			return (this.kind == TypeKind.SHORT ? "(short) " : "") + "((" + index + " * 37) & 0xFF)";
+		case INT16:
+			return "(short) (" + index + " * 1021)";
+		case INT32:
+			return index + " * 0x9E3779B9";
+		case INT64:
+			return index + " * 0x9E3779B97F4A7C15L";
+		case VARINT:
+			return index + " * " + index + " * " + index + " * " + index + " * 131";
+		case FLOAT32:
+			return "(" + index + " - 32) * 0.37f";
+		case FLOAT64:
+			return "(" + index + " - 32) * 1.37d";
+		case FIXED8:
+			return "(byte) (" + index + " * 37) / " + this.scaleLiteral();
+		case FIXED16:
+			return "(short) (" + index + " * 1021) / " + this.scaleLiteral();
+		default:
+			return "(" + index + " & 1) == 1";
+		}
+	}
+
+	/**
+	 * @return String -> the JUnit assertion that two values of the field are
+	 *         equal
+	 */
+	String assertEquals(String expected, String actual) {
+		if (this.kind == TypeKind.FLOAT || this.kind == TypeKind.DOUBLE)
+			return "assertEquals(" + expected + ", " + actual + ", 0);";
+
+		return "assertEquals(" + expected + ", " + actual + ");";
+	}
+
+	/**
+	 * @return String -> the value cast to the kind if the field is wider
+	 */
+	private String narrow(TypeKind to, String value) {
+		if (this.kind == to)
+			return value;
+
+		return "(" + to.name().toLowerCase(Locale.ROOT) + ") " + value;
+	}
+
+	private String scaleLiteral() {
+		return this.scale + (this.kind == TypeKind.FLOAT ? "f" : "d");
+	}
+
+}
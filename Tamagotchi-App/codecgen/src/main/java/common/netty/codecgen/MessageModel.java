@@ -0,0 +1,79 @@
+package common.netty.codecgen;
+
+import java.util.List;
+
+/**
+ * A WireMessage and its fields in the order they are written
+ *
+ * @author Danny
+ * @version 1.0
+ */
+final class MessageModel {
+
+	/**
+	 * The header byte that every message starts with
+	 */
+	private static final int HEADER_LENGTH = 1;
+
+	/**
+	 * The most bytes a VARINT takes
+	 */
+	private static final int MAX_VARINT_LENGTH = 5;
+
+	private final String packageName;
+	private final String simpleName;
+	private final List<FieldModel> fields;
+
+	MessageModel(String packageName, String simpleName, List<FieldModel> fields) {
+		this.packageName = packageName;
+		this.simpleName = simpleName;
+		this.fields = fields;
+	}
+
+	String getPackageName() {
+		return this.packageName;
+	}
+
+	String getSimpleName() {
+		return this.simpleName;
+	}
+
+	String getCodecName() {
+		return this.simpleName + "Codec";
+	}
+
+	List<FieldModel> getFields() {
+		return this.fields;
+	}
+
+	/**
+	 * @return int -> the length of the header and every fixed width field
+	 */
+	int getFixedLength() {
+		int length = HEADER_LENGTH;
+		for (FieldModel field : this.fields) {
+			if (!field.isVariable())
+				length += field.getType().getWidth();
+		}
+
+		return length;
+	}
+
+	/**
+	 * @return int -> the length of the message with the most bytes per VARINT
+	 */
+	int getMaxLength() {
+		int length = this.getFixedLength();
+		for (FieldModel field : this.fields) {
+			if (field.isVariable())
+				length += MAX_VARINT_LENGTH;
+		}
+
+		return length;
+	}
+
+	boolean isVariable() {
+		return this.getMaxLength() != this.getFixedLength();
+	}
+
+}